@@ -0,0 +1,69 @@
+package com.yunhao.superai.advisor;
+
+import com.yunhao.superai.benchmark.StubChatModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.advisor.api.Advisor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Advisor 链的开销：同一个桩模型分别不加 Advisor、加 MyLoggerAdvisor、加 ReReadingAdvisor 和两者都加
+ * MyLoggerAdvisor 的 INFO 日志写入 target/benchmark-advisor.log，计入开销
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AdvisorChainBenchmark {
+
+    @Param({"none", "logger", "reReading", "logger+reReading"})
+    private String advisors;
+
+    private ChatClient chatClient;
+
+    @Setup
+    public void setUp() {
+        List<Advisor> advisorList = new ArrayList<>();
+        if (advisors.contains("logger")) {
+            advisorList.add(new MyLoggerAdvisor());
+        }
+        if (advisors.contains("reReading")) {
+            advisorList.add(new ReReadingAdvisor());
+        }
+        chatClient = ChatClient.builder(new StubChatModel("建议每周训练三次，每次 45 分钟。"))
+                .defaultAdvisors(advisorList)
+                .build();
+    }
+
+    @Benchmark
+    public String call() {
+        return chatClient.prompt()
+                .user("我想在三个月内减脂 5 公斤，应该怎么安排训练？")
+                .call()
+                .content();
+    }
+
+    @Benchmark
+    public String stream() {
+        return chatClient.prompt()
+                .user("我想在三个月内减脂 5 公斤，应该怎么安排训练？")
+                .stream()
+                .content()
+                .blockLast();
+    }
+}
@@ -0,0 +1,36 @@
+package com.yunhao.superai.benchmark;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 生成基准测试用的对话：用户消息、助手回复、工具调用和工具结果交替出现，长度和真实对话接近
+ */
+public final class Conversations {
+
+    private Conversations() {
+    }
+
+    public static List<Message> of(int length) {
+        List<Message> messages = new ArrayList<>(length);
+        for (int i = 0; messages.size() < length; i++) {
+            switch (i % 4) {
+                case 0 -> messages.add(new UserMessage("第 " + i + " 轮：我想在三个月内减脂 5 公斤，每周能训练三次，请给我一些建议。"));
+                case 1 -> messages.add(new AssistantMessage("建议每周三次力量训练配合两次中等强度有氧，"
+                        + "每天保持 300 到 500 千卡的热量缺口，蛋白质摄入按每公斤体重 1.6 克计算。".repeat(3)));
+                case 2 -> messages.add(new AssistantMessage("", Map.of(), List.of(new AssistantMessage.ToolCall(
+                        "call_" + i, "function", "searchWeb", "{\"query\":\"减脂 训练计划 " + i + "\"}"))));
+                default -> messages.add(new ToolResponseMessage(List.of(new ToolResponseMessage.ToolResponse(
+                        "call_" + (i - 1), "searchWeb", "{\"title\":\"减脂训练计划\",\"snippet\":\"" + "示例内容 ".repeat(40) + "\"}")),
+                        Map.of()));
+            }
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,32 @@
+package com.yunhao.superai.benchmark;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+
+/**
+ * 桩对话模型：立即返回固定的回复，基准测试只测量调用链本身的开销
+ */
+public class StubChatModel implements ChatModel {
+
+    private final String reply;
+
+    public StubChatModel(String reply) {
+        this.reply = reply;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(reply))));
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return Flux.just(call(prompt));
+    }
+}
@@ -0,0 +1,104 @@
+package com.yunhao.superai.chatmemory;
+
+import cn.hutool.core.io.FileUtil;
+import com.yunhao.superai.benchmark.Conversations;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.chat.messages.Message;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileBasedChatMemory 在不同对话长度下的 add / get 耗时
+ *
+ * 对话按真实使用的方式逐轮写入，日志中每轮一条记录；关闭后台压缩，测量期间文件布局保持不变。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FileBasedChatMemoryBenchmark {
+
+    // 逐轮写入、未压缩的对话
+    private static final String LOG_CONVERSATION_ID = "log";
+
+    // 压缩后的对话
+    private static final String COMPACTED_CONVERSATION_ID = "compacted";
+
+    // 用于 add 的对话，每次迭代前重建
+    private static final String ADD_CONVERSATION_ID = "add";
+
+    @Param({"10", "100", "1000"})
+    private int conversationLength;
+
+    private File dir;
+
+    private FileBasedChatMemory chatMemory;
+
+    private List<Message> turn;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("chat-memory-benchmark").toFile();
+        chatMemory = new FileBasedChatMemory(dir.getAbsolutePath(), false, Integer.MAX_VALUE);
+        turn = Conversations.of(2);
+        writeByTurn(LOG_CONVERSATION_ID);
+        writeByTurn(COMPACTED_CONVERSATION_ID);
+        chatMemory.compact(COMPACTED_CONVERSATION_ID);
+    }
+
+    /**
+     * 每次迭代前恢复到固定长度的多记录日志，避免对话在测量过程中无限变长
+     */
+    @Setup(Level.Iteration)
+    public void resetAddConversation() {
+        chatMemory.clear(ADD_CONVERSATION_ID);
+        writeByTurn(ADD_CONVERSATION_ID);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FileUtil.del(dir);
+    }
+
+    @Benchmark
+    public void add() {
+        chatMemory.add(ADD_CONVERSATION_ID, turn);
+    }
+
+    @Benchmark
+    public List<Message> get() {
+        return chatMemory.get(LOG_CONVERSATION_ID);
+    }
+
+    @Benchmark
+    public List<Message> getCompacted() {
+        return chatMemory.get(COMPACTED_CONVERSATION_ID);
+    }
+
+    /**
+     * 每两条消息（一轮）追加一条记录
+     */
+    private void writeByTurn(String conversationId) {
+        List<Message> history = Conversations.of(conversationLength);
+        for (int i = 0; i < history.size(); i += 2) {
+            chatMemory.add(conversationId, history.subList(i, Math.min(i + 2, history.size())));
+        }
+    }
+}
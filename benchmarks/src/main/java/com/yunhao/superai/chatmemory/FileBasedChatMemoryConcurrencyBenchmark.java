@@ -0,0 +1,117 @@
+package com.yunhao.superai.chatmemory;
+
+import cn.hutool.core.io.FileUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * FileBasedChatMemory 多线程压力测试
+ *
+ * 8 个线程同时写入：sharedConversations 为 0 时每个线程一个独立会话，衡量不同会话能否随线程数扩展；
+ * 大于 0 时所有线程挤在这几个会话上，衡量同一会话内的串行开销。
+ * 每轮结束后重新读取所有会话，校验消息没有丢失、同一线程写入的消息保持顺序，不满足时直接失败。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class FileBasedChatMemoryConcurrencyBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Store {
+
+        // 0 表示每个线程独立的会话
+        @Param({"0", "1"})
+        int sharedConversations;
+
+        File dir;
+
+        FileBasedChatMemory chatMemory;
+
+        final AtomicInteger threadIds = new AtomicInteger();
+
+        // 会话 ID -> 写入的消息数
+        final Map<String, AtomicInteger> written = new ConcurrentHashMap<>();
+
+        @Setup(Level.Iteration)
+        public void setUp() throws Exception {
+            dir = Files.createTempDirectory("chat-memory-concurrency").toFile();
+            chatMemory = new FileBasedChatMemory(dir.getAbsolutePath());
+            written.clear();
+        }
+
+        @TearDown(Level.Iteration)
+        public void verify() {
+            FileBasedChatMemory reopened = new FileBasedChatMemory(dir.getAbsolutePath());
+            for (Map.Entry<String, AtomicInteger> entry : written.entrySet()) {
+                List<Message> messages = reopened.get(entry.getKey());
+                if (messages.size() != entry.getValue().get()) {
+                    throw new IllegalStateException("会话 " + entry.getKey() + " 写入 " + entry.getValue().get()
+                            + " 条消息，读回 " + messages.size() + " 条");
+                }
+                Map<String, Integer> lastSeq = new ConcurrentHashMap<>();
+                for (Message message : messages) {
+                    String[] parts = message.getText().split(":");
+                    int seq = Integer.parseInt(parts[1]);
+                    Integer last = lastSeq.put(parts[0], seq);
+                    if (last != null && seq != last + 1) {
+                        throw new IllegalStateException("会话 " + entry.getKey() + " 中线程 " + parts[0] + " 的消息乱序");
+                    }
+                }
+            }
+            FileUtil.del(dir);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Writer {
+
+        String threadId;
+
+        String conversationId;
+
+        int seq;
+
+        AtomicInteger counter;
+
+        @Setup(Level.Iteration)
+        public void setUp(Store store) {
+            threadId = String.valueOf(store.threadIds.incrementAndGet());
+            conversationId = store.sharedConversations == 0
+                    ? "thread-" + threadId
+                    : "shared-" + (Integer.parseInt(threadId) % store.sharedConversations);
+            seq = 0;
+            counter = store.written.computeIfAbsent(conversationId, k -> new AtomicInteger());
+        }
+    }
+
+    @Benchmark
+    public void add(Store store, Writer writer) {
+        store.chatMemory.add(writer.conversationId, List.of(new UserMessage(writer.threadId + ":" + writer.seq++)));
+        writer.counter.incrementAndGet();
+    }
+}
@@ -0,0 +1,68 @@
+package com.yunhao.superai.rag;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MyTokenTextSplitter 的切分吞吐量（MyTokenTextSplitter 是包内可见的，基准测试放在同一个包中）
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MyTokenTextSplitterBenchmark {
+
+    private static final String PARAGRAPH = """
+            ## 减脂期间如何安排训练？
+            减脂期间建议以力量训练为主、有氧训练为辅。力量训练可以维持肌肉量，避免基础代谢下降；\
+            有氧训练增加热量消耗。Beginners should start with three full-body sessions per week \
+            and add one or two moderate cardio sessions once recovery allows.
+            """;
+
+    // 每个文档的字符数
+    @Param({"2000", "20000"})
+    private int documentChars;
+
+    @Param({"10"})
+    private int documentCount;
+
+    private MyTokenTextSplitter splitter;
+
+    private List<Document> documents;
+
+    @Setup
+    public void setUp() {
+        splitter = new MyTokenTextSplitter();
+        String text = PARAGRAPH.repeat(documentChars / PARAGRAPH.length() + 1).substring(0, documentChars);
+        documents = new ArrayList<>();
+        for (int i = 0; i < documentCount; i++) {
+            documents.add(new Document(text));
+        }
+    }
+
+    @Benchmark
+    public List<Document> splitDocuments() {
+        return splitter.splitDocuments(documents);
+    }
+
+    @Benchmark
+    public List<Document> splitCustomized() {
+        return splitter.splitCustomized(documents);
+    }
+}
@@ -0,0 +1,61 @@
+package com.yunhao.superai.rag;
+
+import com.yunhao.superai.benchmark.StubEmbeddingModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SimpleVectorStore 在不同语料规模下的相似度检索耗时（桩向量模型，维度与 DashScope text-embedding-v3 一致）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SimpleVectorStoreBenchmark {
+
+    private static final int DIMENSIONS = 1024;
+
+    @Param({"1000", "10000", "50000"})
+    private int corpusSize;
+
+    @Param({"5"})
+    private int topK;
+
+    private SimpleVectorStore vectorStore;
+
+    private SearchRequest searchRequest;
+
+    @Setup
+    public void setUp() {
+        vectorStore = SimpleVectorStore.builder(new StubEmbeddingModel(DIMENSIONS)).build();
+        List<Document> documents = new ArrayList<>(corpusSize);
+        for (int i = 0; i < corpusSize; i++) {
+            documents.add(new Document("健身问答片段 " + i));
+        }
+        vectorStore.add(documents);
+        searchRequest = SearchRequest.builder().query("减脂期间如何安排训练").topK(topK).build();
+    }
+
+    @Benchmark
+    public List<Document> similaritySearch() {
+        return vectorStore.similaritySearch(searchRequest);
+    }
+}
@@ -0,0 +1,81 @@
+package com.yunhao.superai.utils;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.yunhao.superai.benchmark.Conversations;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spring AI 消息列表的 Kryo 序列化和反序列化耗时
+ * 对比对象池（KryoSerializer）和每次新建 Kryo 实例
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KryoSerializerBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int messageCount;
+
+    private List<Message> messages;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        messages = new ArrayList<>(Conversations.of(messageCount));
+        bytes = KryoSerializer.serialize(messages);
+    }
+
+    @Benchmark
+    public byte[] serializePooled() {
+        return KryoSerializer.serialize(messages);
+    }
+
+    @Benchmark
+    public List<Message> deserializePooled() {
+        return KryoSerializer.deserialize(bytes);
+    }
+
+    @Benchmark
+    public byte[] serializeNewKryo() {
+        Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(false);
+        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        try (Output output = new Output(256, -1)) {
+            kryo.writeClassAndObject(output, messages);
+            return output.toBytes();
+        }
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public List<Message> deserializeNewKryo() {
+        Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(false);
+        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        try (Input input = new Input(bytes)) {
+            return (List<Message>) kryo.readClassAndObject(input);
+        }
+    }
+}
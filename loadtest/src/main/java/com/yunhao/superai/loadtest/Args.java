@@ -0,0 +1,46 @@
+package com.yunhao.superai.loadtest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 简单的命令行参数解析：--name value，同名参数可以出现多次
+ */
+class Args {
+
+    private final Map<String, List<String>> values = new HashMap<>();
+
+    Args(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("无法识别的参数: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            String value = i + 1 < args.length && !args[i + 1].startsWith("--") ? args[++i] : "true";
+            values.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+        }
+    }
+
+    String get(String name, String defaultValue) {
+        List<String> list = values.get(name);
+        return list == null ? defaultValue : list.get(list.size() - 1);
+    }
+
+    List<String> getAll(String name) {
+        return values.getOrDefault(name, List.of());
+    }
+
+    int getInt(String name, int defaultValue) {
+        return Integer.parseInt(get(name, String.valueOf(defaultValue)));
+    }
+
+    long getLong(String name, long defaultValue) {
+        return Long.parseLong(get(name, String.valueOf(defaultValue)));
+    }
+
+    double getDouble(String name, double defaultValue) {
+        return Double.parseDouble(get(name, String.valueOf(defaultValue)));
+    }
+}
@@ -0,0 +1,244 @@
+package com.yunhao.superai.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地模拟的 DashScope 服务
+ *
+ * 实现对话生成（流式和非流式）和文本向量两个接口，响应格式与 DashScope 一致，
+ * 服务端把 spring.ai.dashscope.base-url 指向这里即可在没有外网和费用的情况下压测。
+ * 可以配置首 token 延迟、输出速率、回复长度和错误注入；请求中带有工具时，
+ * 可以在回复末尾调用 doTerminate，让 Manus 的运行在一步内结束。
+ *
+ * 参数：
+ * --port 18080              监听端口
+ * --ttft-ms 300             首 token 延迟（毫秒）
+ * --ttft-jitter-ms 0        首 token 延迟的随机抖动（毫秒）
+ * --tokens-per-second 40    输出速率
+ * --tokens 100              每次回复的 token 数
+ * --error-rate 0            返回错误的比例（0~1）
+ * --error-status 500        注入错误时的 HTTP 状态码（如 429 模拟限流）
+ * --terminate-tool true     请求带工具时在回复末尾调用 doTerminate
+ * --embedding-dimensions 1024
+ */
+public class FakeDashScopeServer {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String GENERATION_PATH = "/api/v1/services/aigc/text-generation/generation";
+
+    private static final String EMBEDDING_PATH = "/api/v1/services/embeddings/text-embedding/text-embedding";
+
+    // 回复内容循环使用的文本
+    private static final String[] TOKENS = "建议 每周 进行 三次 力量 训练 ， 配合 两次 中等 强度 的 有氧 运动 。 ".split(" ");
+
+    private final long ttftMs;
+    private final long ttftJitterMs;
+    private final double tokensPerSecond;
+    private final int tokens;
+    private final double errorRate;
+    private final int errorStatus;
+    private final boolean terminateTool;
+    private final int embeddingDimensions;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+
+    private HttpServer server;
+
+    public FakeDashScopeServer(long ttftMs, long ttftJitterMs, double tokensPerSecond, int tokens,
+                               double errorRate, int errorStatus, boolean terminateTool, int embeddingDimensions) {
+        this.ttftMs = ttftMs;
+        this.ttftJitterMs = ttftJitterMs;
+        this.tokensPerSecond = tokensPerSecond;
+        this.tokens = tokens;
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+        this.terminateTool = terminateTool;
+        this.embeddingDimensions = embeddingDimensions;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Args options = new Args(args);
+        FakeDashScopeServer server = new FakeDashScopeServer(
+                options.getLong("ttft-ms", 300),
+                options.getLong("ttft-jitter-ms", 0),
+                options.getDouble("tokens-per-second", 40),
+                options.getInt("tokens", 100),
+                options.getDouble("error-rate", 0),
+                options.getInt("error-status", 500),
+                Boolean.parseBoolean(options.get("terminate-tool", "true")),
+                options.getInt("embedding-dimensions", 1024));
+        server.start(options.getInt("port", 18080));
+    }
+
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 1024);
+        // 每个请求一个虚拟线程，模拟大量慢速流式响应
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext(GENERATION_PATH, this::handleGeneration);
+        server.createContext(EMBEDDING_PATH, this::handleEmbedding);
+        server.start();
+        System.out.printf("模拟 DashScope 服务已启动：http://localhost:%d（首 token %d ms，%.0f tokens/s，%d tokens，错误率 %.2f）%n",
+                server.getAddress().getPort(), ttftMs, tokensPerSecond, tokens, errorRate);
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    private void handleGeneration(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try (exchange) {
+            JsonNode request = MAPPER.readTree(exchange.getRequestBody());
+            if (injectError(exchange)) {
+                return;
+            }
+            boolean stream = "enable".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("X-DashScope-SSE"))
+                    || request.path("parameters").path("incremental_output").asBoolean(false);
+            boolean hasTools = request.path("parameters").path("tools").isArray()
+                    && !request.path("parameters").path("tools").isEmpty();
+            boolean callTerminate = terminateTool && hasTools;
+            int inputTokens = request.path("input").toString().length() / 4;
+            String requestId = UUID.randomUUID().toString();
+            sleep(ttftMs + (ttftJitterMs > 0 ? ThreadLocalRandom.current().nextLong(ttftJitterMs) : 0));
+            if (!stream) {
+                StringBuilder content = new StringBuilder();
+                for (int i = 0; i < tokens; i++) {
+                    content.append(TOKENS[i % TOKENS.length]);
+                }
+                sleep((long) (tokens * 1000 / tokensPerSecond));
+                byte[] body = MAPPER.writeValueAsBytes(chunk(requestId, content.toString(),
+                        callTerminate ? "tool_calls" : "stop", callTerminate, inputTokens, tokens));
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream;charset=UTF-8");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            long intervalNanos = (long) (1_000_000_000L / tokensPerSecond);
+            long next = System.nanoTime();
+            for (int i = 0; i < tokens; i++) {
+                boolean last = i == tokens - 1;
+                String finishReason = last ? (callTerminate ? "tool_calls" : "stop") : "null";
+                ObjectNode data = chunk(requestId, TOKENS[i % TOKENS.length], finishReason, last && callTerminate,
+                        inputTokens, i + 1);
+                out.write(("id:" + (i + 1) + "\nevent:result\n:HTTP_STATUS/200\ndata:"
+                        + MAPPER.writeValueAsString(data) + "\n\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                // 按固定节奏输出，不受写入耗时影响
+                next += intervalNanos;
+                sleep((next - System.nanoTime()) / 1_000_000);
+            }
+        } catch (IOException e) {
+            // 客户端断开连接
+        }
+    }
+
+    private void handleEmbedding(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try (exchange) {
+            JsonNode request = MAPPER.readTree(exchange.getRequestBody());
+            if (injectError(exchange)) {
+                return;
+            }
+            ObjectNode response = MAPPER.createObjectNode();
+            ArrayNode embeddings = response.putObject("output").putArray("embeddings");
+            JsonNode texts = request.path("input").path("texts");
+            int totalTokens = 0;
+            for (int i = 0; i < texts.size(); i++) {
+                ObjectNode embedding = embeddings.addObject();
+                embedding.put("text_index", i);
+                ArrayNode vector = embedding.putArray("embedding");
+                Random random = new Random(texts.get(i).asText().hashCode());
+                for (int d = 0; d < embeddingDimensions; d++) {
+                    vector.add(random.nextGaussian() / Math.sqrt(embeddingDimensions));
+                }
+                totalTokens += texts.get(i).asText().length();
+            }
+            response.putObject("usage").put("total_tokens", totalTokens);
+            response.put("request_id", UUID.randomUUID().toString());
+            byte[] body = MAPPER.writeValueAsBytes(response);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        }
+    }
+
+    /**
+     * 按比例注入错误
+     */
+    private boolean injectError(HttpExchange exchange) throws IOException {
+        if (errorRate <= 0 || ThreadLocalRandom.current().nextDouble() >= errorRate) {
+            return false;
+        }
+        injectedErrors.incrementAndGet();
+        byte[] body = MAPPER.writeValueAsBytes(MAPPER.createObjectNode()
+                .put("code", errorStatus == 429 ? "Throttling" : "InternalError")
+                .put("message", "injected error")
+                .put("request_id", UUID.randomUUID().toString()));
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(errorStatus, body.length);
+        exchange.getResponseBody().write(body);
+        return true;
+    }
+
+    private ObjectNode chunk(String requestId, String content, String finishReason, boolean terminate,
+                             int inputTokens, int outputTokens) {
+        ObjectNode data = MAPPER.createObjectNode();
+        ObjectNode choice = data.putObject("output").putArray("choices").addObject();
+        choice.put("finish_reason", finishReason);
+        ObjectNode message = choice.putObject("message");
+        message.put("role", "assistant");
+        message.put("content", content);
+        if (terminate) {
+            ObjectNode toolCall = message.putArray("tool_calls").addObject();
+            toolCall.put("index", 0);
+            toolCall.put("id", "call_" + requestId.substring(0, 8));
+            toolCall.put("type", "function");
+            toolCall.putObject("function").put("name", "doTerminate").put("arguments", "{}");
+        }
+        data.putObject("usage")
+                .put("input_tokens", inputTokens)
+                .put("output_tokens", outputTokens)
+                .put("total_tokens", inputTokens + outputTokens);
+        data.put("request_id", requestId);
+        return data;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.yunhao.superai.loadtest;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 延迟记录器，保存所有样本并计算分位数
+ *
+ * 压测的样本量在百万以内，直接保存原始值排序，比直方图更简单也更精确。
+ */
+class LatencyRecorder {
+
+    private long[] samples = new long[1024];
+
+    private int size;
+
+    synchronized void record(long millis) {
+        if (size == samples.length) {
+            samples = Arrays.copyOf(samples, size * 2);
+        }
+        samples[size++] = millis;
+    }
+
+    synchronized int count() {
+        return size;
+    }
+
+    /**
+     * @param percentile 分位数（0~100）
+     * @return 对应的延迟（毫秒），没有样本时返回 0
+     */
+    synchronized long percentile(double percentile) {
+        if (size == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * size) - 1;
+        return sorted[Math.max(0, Math.min(index, size - 1))];
+    }
+
+    /**
+     * 汇总 p50 / p90 / p99 / max
+     */
+    synchronized Map<String, Long> summary() {
+        Map<String, Long> summary = new LinkedHashMap<>();
+        summary.put("count", (long) size);
+        summary.put("p50", percentile(50));
+        summary.put("p90", percentile(90));
+        summary.put("p99", percentile(99));
+        summary.put("max", percentile(100));
+        return summary;
+    }
+}
@@ -0,0 +1,227 @@
+package com.yunhao.superai.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 流式接口压测驱动
+ *
+ * 以固定并发数持续请求服务端的 SSE 接口，每个并发连接一个虚拟线程，
+ * 统计首 token 延迟（TTFT）、token 间隔、吞吐量和错误率，结果写成 JSON 报告。
+ * 设置了阈值时，超出阈值以退出码 1 结束，CI 据此判断性能是否回退。
+ * 到达压测时长后立即中断仍在进行的请求，这些请求不计入统计，时长和吞吐量只按压测窗口计算。
+ *
+ * 参数：
+ * --url URL                 压测的接口，可重复指定，轮流使用；URL 中的 {i} 会替换为请求序号（用于区分会话 ID）
+ * --concurrency 50          并发连接数
+ * --duration-seconds 60     压测时长
+ * --timeout-seconds 120     单个请求超时时间（包括读完整个事件流），超时的请求中断并计为失败
+ * --report loadtest-report.json
+ * --max-p99-ttft-ms 0       p99 首 token 延迟阈值，0 表示不检查
+ * --max-error-rate 1        错误率阈值
+ */
+public class LoadDriver {
+
+    private final List<String> urls;
+    private final int concurrency;
+    private final Duration duration;
+    private final Duration timeout;
+
+    private final HttpClient httpClient;
+
+    private final LatencyRecorder ttft = new LatencyRecorder();
+    private final LatencyRecorder interToken = new LatencyRecorder();
+    private final LatencyRecorder total = new LatencyRecorder();
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong tokens = new AtomicLong();
+
+    // 到达压测时长后置为 true，之后结束的请求不再计入统计
+    private volatile boolean stopping;
+
+    // 单个请求的超时：到期时中断读取事件流的线程（HttpRequest.timeout 只覆盖收到响应头之前）
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("loadtest-watchdog").daemon().factory());
+
+    public LoadDriver(List<String> urls, int concurrency, Duration duration, Duration timeout) {
+        this.urls = urls;
+        this.concurrency = concurrency;
+        this.duration = duration;
+        this.timeout = timeout;
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Args options = new Args(args);
+        List<String> urls = options.getAll("url");
+        if (urls.isEmpty()) {
+            System.err.println("至少需要指定一个 --url");
+            System.exit(2);
+        }
+        LoadDriver driver = new LoadDriver(urls,
+                options.getInt("concurrency", 50),
+                Duration.ofSeconds(options.getLong("duration-seconds", 60)),
+                Duration.ofSeconds(options.getLong("timeout-seconds", 120)));
+        long maxP99TtftMs = options.getLong("max-p99-ttft-ms", 0);
+        double maxErrorRate = options.getDouble("max-error-rate", 1);
+
+        LoadReport report = driver.run(maxP99TtftMs, maxErrorRate);
+        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        Path reportPath = Path.of(options.get("report", "loadtest-report.json"));
+        mapper.writeValue(reportPath.toFile(), report);
+        System.out.println(mapper.writeValueAsString(report));
+        System.out.println("报告已写入 " + reportPath.toAbsolutePath());
+        if (!report.passed()) {
+            System.err.printf("未通过：p99 首 token 延迟 %d ms（阈值 %d），错误率 %.4f（阈值 %.4f）%n",
+                    report.ttftMs().get("p99"), maxP99TtftMs, report.errorRate(), maxErrorRate);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 执行压测
+     *
+     * @param maxP99TtftMs p99 首 token 延迟阈值，0 表示不检查
+     * @param maxErrorRate 错误率阈值
+     * @return 压测报告
+     */
+    public LoadReport run(long maxP99TtftMs, double maxErrorRate) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + duration.toNanos();
+        System.out.printf("开始压测：%d 并发，%d 秒，%s%n", concurrency, duration.toSeconds(), urls);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < concurrency; i++) {
+                executor.submit(() -> {
+                    while (!stopping && System.nanoTime() < deadline) {
+                        request();
+                    }
+                });
+            }
+            // 每 5 秒输出一次进度
+            while (System.nanoTime() < deadline) {
+                Thread.sleep(Math.min(5000, Math.max(1, (deadline - System.nanoTime()) / 1_000_000)));
+                System.out.printf("已完成 %d 个请求，失败 %d，p99 首 token %d ms%n",
+                        requests.get(), errors.get(), ttft.percentile(99));
+            }
+            // 不等待仍在进行的请求读完，直接中断
+            stopping = true;
+            executor.shutdownNow();
+        } finally {
+            watchdog.shutdownNow();
+        }
+        double seconds = duration.toNanos() / 1e9;
+        long requestCount = requests.get();
+        double errorRate = requestCount == 0 ? 0 : (double) errors.get() / requestCount;
+        boolean passed = errorRate <= maxErrorRate
+                && (maxP99TtftMs <= 0 || ttft.percentile(99) <= maxP99TtftMs);
+        return new LoadReport(urls, concurrency, seconds, requestCount, errors.get(), errorRate,
+                requestCount / seconds, tokens.get() / seconds,
+                ttft.summary(), interToken.summary(), total.summary(), passed);
+    }
+
+    /**
+     * 发送一个请求并读完整个事件流
+     */
+    private void request() {
+        long seq = sequence.getAndIncrement();
+        String url = urls.get((int) (seq % urls.size())).replace("{i}", String.valueOf(seq));
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(timeout)
+                .header("Accept", "text/event-stream")
+                .GET()
+                .build();
+        long start = System.nanoTime();
+        boolean failed = false;
+        Thread current = Thread.currentThread();
+        Object timeoutLock = new Object();
+        boolean[] finished = new boolean[1];
+        ScheduledFuture<?> timeoutTask = watchdog.schedule(() -> {
+            synchronized (timeoutLock) {
+                if (!finished[0]) {
+                    current.interrupt();
+                }
+            }
+        }, timeout.toMillis(), TimeUnit.MILLISECONDS);
+        try {
+            HttpResponse<Stream<String>> response = httpClient.send(request, HttpResponse.BodyHandlers.ofLines());
+            try (Stream<String> lines = response.body()) {
+                if (response.statusCode() != 200) {
+                    failed = true;
+                    return;
+                }
+                long last = 0;
+                Iterator<String> iterator = lines.iterator();
+                // 读取被超时中断时，hasNext 抛出 UncheckedIOException
+                while (iterator.hasNext()) {
+                    String line = iterator.next();
+                    if (line.startsWith("event:error")) {
+                        failed = true;
+                    }
+                    if (!line.startsWith("data:")) {
+                        continue;
+                    }
+                    long now = System.nanoTime();
+                    if (stopping) {
+                        break;
+                    }
+                    if (last == 0) {
+                        ttft.record((now - start) / 1_000_000);
+                    } else {
+                        interToken.record((now - last) / 1_000_000);
+                    }
+                    last = now;
+                    tokens.incrementAndGet();
+                }
+                // 一个数据事件都没有收到也视为失败
+                if (last == 0) {
+                    failed = true;
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            failed = true;
+        } catch (InterruptedException e) {
+            failed = true;
+        } finally {
+            synchronized (timeoutLock) {
+                finished[0] = true;
+            }
+            timeoutTask.cancel(false);
+            // 清除超时留下的中断标记，不影响同一线程上的下一个请求
+            Thread.interrupted();
+            if (stopping) {
+                // 压测窗口结束后才结束的请求不计入统计
+                return;
+            }
+            requests.incrementAndGet();
+            if (failed) {
+                errors.incrementAndGet();
+            } else {
+                total.record((System.nanoTime() - start) / 1_000_000);
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.yunhao.superai.loadtest;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 压测报告，以 JSON 形式写出，便于 CI 中对比不同版本
+ *
+ * @param urls              压测的接口
+ * @param concurrency       并发连接数
+ * @param durationSeconds   实际压测时长
+ * @param requests          完成的请求数
+ * @param errors            失败的请求数（非 200、异常、超时或流中的错误事件）
+ * @param errorRate         错误率
+ * @param requestsPerSecond 每秒完成的请求数
+ * @param tokensPerSecond   每秒收到的流式事件数
+ * @param ttftMs            首 token 延迟分位数（毫秒）
+ * @param interTokenMs      相邻两个流式事件的间隔分位数（毫秒）
+ * @param totalMs           完整请求耗时分位数（毫秒）
+ * @param passed            是否满足阈值
+ */
+record LoadReport(List<String> urls,
+                  int concurrency,
+                  double durationSeconds,
+                  long requests,
+                  long errors,
+                  double errorRate,
+                  double requestsPerSecond,
+                  double tokensPerSecond,
+                  Map<String, Long> ttftMs,
+                  Map<String, Long> interTokenMs,
+                  Map<String, Long> totalMs,
+                  boolean passed) {
+}
@@ -0,0 +1,196 @@
+package com.yunhao.superai.agent;
+
+import cn.hutool.core.io.FileUtil;
+import com.yunhao.superai.agent.model.AgentCheckpoint;
+import com.yunhao.superai.agent.model.AgentRun;
+import com.yunhao.superai.constant.FileConstant;
+import com.yunhao.superai.utils.KryoSerializer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 代理运行检查点存储
+ *
+ * 每完成一步，把运行的消息上下文以 Kryo 二进制格式写入磁盘；运行中断后可以从最后一个已完成的步骤继续，
+ * 不再重复已经付出的大模型和工具调用。目录放在共享存储上时，运行也可以在另一个节点上恢复。
+ *
+ * 正在执行的运行持有 {runId}.lock 锁文件（原子创建，多个节点共享目录时同样有效），同一个运行不会被同时恢复两次；
+ * 每保存一次检查点刷新一次锁文件的时间，持有者崩溃后锁在 LOCK_EXPIRE 后失效。
+ * 被放弃的运行的检查点超过保留时间后，在保存新检查点时顺带清理（最多每 10 分钟一次）。
+ */
+@Component
+@Slf4j
+public class AgentCheckpointStore {
+
+    // 运行 ID 只允许字母、数字和短横线，防止路径穿越
+    private static final Pattern RUN_ID_PATTERN = Pattern.compile("[A-Za-z0-9-]+");
+
+    // 锁文件超过该时间没有刷新视为持有者已经崩溃
+    private static final Duration LOCK_EXPIRE = Duration.ofMinutes(10);
+
+    // 两次清理之间的最小间隔
+    private static final long CLEANUP_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final String checkpointDir;
+
+    private final Duration ttl;
+
+    // 本节点持有的锁，只释放自己持有的锁
+    private final Set<String> heldLocks = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong lastCleanupMillis = new AtomicLong();
+
+    public AgentCheckpointStore(@Value("${agent.checkpoint.dir:}") String checkpointDir,
+                                @Value("${agent.checkpoint.ttl-hours:24}") long ttlHours) {
+        this.checkpointDir = checkpointDir.isBlank() ? FileConstant.FILE_SAVE_DIR + "/checkpoint" : checkpointDir;
+        this.ttl = Duration.ofHours(ttlHours);
+        FileUtil.mkdir(this.checkpointDir);
+    }
+
+    /**
+     * 保存检查点，先写临时文件再原子替换，写入过程中崩溃不会破坏上一个检查点
+     *
+     * @param agentName 代理名称
+     * @param agentRun  当前运行的上下文
+     */
+    public void save(String agentName, AgentRun agentRun) {
+        AgentCheckpoint checkpoint = new AgentCheckpoint();
+        checkpoint.setRunId(agentRun.getRunId());
+        checkpoint.setAgentName(agentName);
+        checkpoint.setCompletedStep(agentRun.getCurrentStep());
+        checkpoint.setMessageList(new ArrayList<>(agentRun.getMessageList()));
+        checkpoint.setCompactedTokens(agentRun.getCompactedTokens());
+        checkpoint.setCompactionSavedTokens(agentRun.getCompactionSavedTokens());
+        checkpoint.setSavedAt(System.currentTimeMillis());
+        File file = getCheckpointFile(agentRun.getRunId());
+        File tempFile = new File(checkpointDir, agentRun.getRunId() + ".tmp");
+        try {
+            Files.write(tempFile.toPath(), KryoSerializer.serialize(checkpoint));
+            Files.move(tempFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // 检查点失败不影响运行本身
+            log.error("保存运行 {} 的检查点失败", agentRun.getRunId(), e);
+        }
+        if (heldLocks.contains(agentRun.getRunId())) {
+            getLockFile(agentRun.getRunId()).setLastModified(checkpoint.getSavedAt());
+        }
+        long last = lastCleanupMillis.get();
+        if (checkpoint.getSavedAt() - last >= CLEANUP_INTERVAL_MILLIS
+                && lastCleanupMillis.compareAndSet(last, checkpoint.getSavedAt())) {
+            deleteExpired();
+        }
+    }
+
+    /**
+     * 获取运行的锁，运行开始或恢复前调用
+     *
+     * @param runId 运行 ID
+     * @return 是否获取成功，运行正在本节点或其他节点上执行时返回 false
+     */
+    public boolean tryLock(String runId) {
+        if (runId == null || !RUN_ID_PATTERN.matcher(runId).matches()) {
+            return false;
+        }
+        File lockFile = getLockFile(runId);
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                Files.createFile(lockFile.toPath());
+                heldLocks.add(runId);
+                return true;
+            } catch (FileAlreadyExistsException e) {
+                if (System.currentTimeMillis() - lockFile.lastModified() < LOCK_EXPIRE.toMillis() || !lockFile.delete()) {
+                    return false;
+                }
+                log.warn("运行 {} 的锁已过期，持有者可能已经崩溃", runId);
+            } catch (IOException e) {
+                log.error("创建运行 {} 的锁失败", runId, e);
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 释放本节点持有的运行锁，运行结束（包括取消和失败）后调用
+     */
+    public void unlock(String runId) {
+        if (runId != null && heldLocks.remove(runId)) {
+            FileUtil.del(getLockFile(runId));
+        }
+    }
+
+    /**
+     * 删除超过保留时间的检查点、锁和临时文件
+     *
+     * @return 删除的文件数
+     */
+    public int deleteExpired() {
+        File[] files = new File(checkpointDir).listFiles();
+        if (files == null) {
+            return 0;
+        }
+        long expireBefore = System.currentTimeMillis() - ttl.toMillis();
+        int deleted = 0;
+        for (File file : files) {
+            if (file.isFile() && file.lastModified() < expireBefore && file.delete()) {
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            log.info("清理了 {} 个过期的检查点文件", deleted);
+        }
+        return deleted;
+    }
+
+    /**
+     * 读取检查点
+     *
+     * @param runId 运行 ID
+     * @return 检查点，不存在时返回 null
+     */
+    public AgentCheckpoint load(String runId) {
+        if (runId == null || !RUN_ID_PATTERN.matcher(runId).matches()) {
+            return null;
+        }
+        File file = getCheckpointFile(runId);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return KryoSerializer.deserialize(Files.readAllBytes(file.toPath()));
+        } catch (Exception e) {
+            log.error("读取运行 {} 的检查点失败", runId, e);
+            return null;
+        }
+    }
+
+    /**
+     * 删除检查点，运行正常结束后调用
+     */
+    public void delete(String runId) {
+        FileUtil.del(getCheckpointFile(runId));
+    }
+
+    private File getCheckpointFile(String runId) {
+        return new File(checkpointDir, runId + ".kryo");
+    }
+
+    private File getLockFile(String runId) {
+        return new File(checkpointDir, runId + ".lock");
+    }
+}
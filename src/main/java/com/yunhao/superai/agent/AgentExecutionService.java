@@ -0,0 +1,172 @@
+package com.yunhao.superai.agent;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 智能体执行服务
+ *
+ * 智能体的一次运行会阻塞在大模型和工具的 IO 上长达数分钟，不能放在 ForkJoin 公共线程池里。
+ * 这里每次运行使用一个虚拟线程，并通过信号量限制同时运行的数量；
+ * 超出上限的请求进入等待队列，队列已满或等待超时的请求会被拒绝。
+ */
+@Component
+@Slf4j
+public class AgentExecutionService {
+
+    // 每次运行一个虚拟线程
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("agent-run-", 0).factory());
+
+    // 同时运行数量的许可
+    private final Semaphore runPermits;
+
+    private final int maxConcurrentRuns;
+
+    // 等待队列的最大长度
+    private final int maxQueueSize;
+
+    // 在队列中的最长等待时间
+    private final long maxQueueWaitMs;
+
+    // 正在排队和正在运行的数量
+    private final AtomicInteger queuedRuns = new AtomicInteger();
+    private final AtomicInteger activeRuns = new AtomicInteger();
+
+    private final Timer queueWaitTimer;
+    private final Counter rejectedCounter;
+    private final Counter cancelledCounter;
+    private final Counter cancellationSavedTokensCounter;
+    private final Counter loopStoppedCounter;
+    private final Counter loopAvoidedStepsCounter;
+    private final Counter loopAvoidedTokensCounter;
+
+    public AgentExecutionService(@Value("${agent.execution.max-concurrent-runs:50}") int maxConcurrentRuns,
+                                 @Value("${agent.execution.max-queue-size:100}") int maxQueueSize,
+                                 @Value("${agent.execution.max-queue-wait-ms:30000}") long maxQueueWaitMs,
+                                 MeterRegistry meterRegistry) {
+        this.maxConcurrentRuns = maxConcurrentRuns;
+        this.runPermits = new Semaphore(maxConcurrentRuns, true);
+        this.maxQueueSize = maxQueueSize;
+        this.maxQueueWaitMs = maxQueueWaitMs;
+        Gauge.builder("agent.runs.active", activeRuns, AtomicInteger::get)
+                .description("正在运行的智能体数量")
+                .register(meterRegistry);
+        Gauge.builder("agent.runs.queued", queuedRuns, AtomicInteger::get)
+                .description("正在排队的智能体运行数量")
+                .register(meterRegistry);
+        this.queueWaitTimer = Timer.builder("agent.runs.queue.wait")
+                .description("智能体运行在队列中的等待时间")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("agent.runs.rejected")
+                .description("因队列已满或等待超时被拒绝的运行数量")
+                .register(meterRegistry);
+        this.cancelledCounter = Counter.builder("agent.runs.cancelled")
+                .description("因客户端断开连接或超时被取消的运行数量")
+                .register(meterRegistry);
+        this.cancellationSavedTokensCounter = Counter.builder("agent.cancellation.tokens.saved")
+                .description("取消运行后不再消耗的 token 估算值（已完成步骤的平均消耗 × 剩余步骤数）")
+                .register(meterRegistry);
+        this.loopStoppedCounter = Counter.builder("agent.loop.stopped")
+                .description("因检测到循环而提前结束的运行数量")
+                .register(meterRegistry);
+        this.loopAvoidedStepsCounter = Counter.builder("agent.loop.steps.avoided")
+                .description("因检测到循环而避免的步骤数")
+                .register(meterRegistry);
+        this.loopAvoidedTokensCounter = Counter.builder("agent.loop.tokens.avoided")
+                .description("因检测到循环而避免的 token 估算值")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 提交一次智能体运行
+     *
+     * @param task       运行任务
+     * @param onRejected 被拒绝时的回调，参数为拒绝原因
+     * @return 是否已进入队列（之后仍可能因等待超时被拒绝）
+     */
+    public boolean submit(Runnable task, Consumer<String> onRejected) {
+        // 队列已满时直接拒绝
+        int queued;
+        do {
+            queued = queuedRuns.get();
+            if (queued >= maxQueueSize) {
+                reject(onRejected, "服务繁忙：当前排队的任务已达上限 (" + maxQueueSize + ")，请稍后重试");
+                return false;
+            }
+        } while (!queuedRuns.compareAndSet(queued, queued + 1));
+
+        executor.execute(() -> {
+            long start = System.nanoTime();
+            boolean acquired;
+            try {
+                acquired = runPermits.tryAcquire(maxQueueWaitMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            } finally {
+                queuedRuns.decrementAndGet();
+                queueWaitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+            if (!acquired) {
+                reject(onRejected, "服务繁忙：排队等待超过 " + maxQueueWaitMs / 1000 + " 秒，请稍后重试");
+                return;
+            }
+            activeRuns.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                activeRuns.decrementAndGet();
+                runPermits.release();
+            }
+        });
+        return true;
+    }
+
+    private void reject(Consumer<String> onRejected, String reason) {
+        rejectedCounter.increment();
+        log.warn("拒绝智能体运行: {}（运行中 {}/{}，排队 {}）",
+                reason, activeRuns.get(), maxConcurrentRuns, queuedRuns.get());
+        onRejected.accept(reason);
+    }
+
+    /**
+     * 记录一次取消的运行
+     *
+     * @param savedTokens 估算节省的 token 数
+     */
+    public void recordCancellation(long savedTokens) {
+        cancelledCounter.increment();
+        cancellationSavedTokensCounter.increment(savedTokens);
+    }
+
+    /**
+     * 记录一次因检测到循环而提前结束的运行
+     *
+     * @param avoidedSteps  避免的步骤数
+     * @param avoidedTokens 估算避免的 token 数
+     */
+    public void recordLoopStop(int avoidedSteps, long avoidedTokens) {
+        loopStoppedCounter.increment();
+        loopAvoidedStepsCounter.increment(avoidedSteps);
+        loopAvoidedTokensCounter.increment(avoidedTokens);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
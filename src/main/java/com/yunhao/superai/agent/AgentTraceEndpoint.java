@@ -0,0 +1,35 @@
+package com.yunhao.superai.agent;
+
+import com.yunhao.superai.agent.model.AgentTrace;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 代理运行追踪端点
+ *
+ * GET /actuator/agenttrace 返回最近运行的摘要，GET /actuator/agenttrace/{runId} 返回单次运行的完整追踪
+ */
+@Component
+@Endpoint(id = "agenttrace")
+public class AgentTraceEndpoint {
+
+    private final AgentTracer agentTracer;
+
+    public AgentTraceEndpoint(AgentTracer agentTracer) {
+        this.agentTracer = agentTracer;
+    }
+
+    @ReadOperation
+    public List<AgentTrace> recent() {
+        return agentTracer.recentTraces();
+    }
+
+    @ReadOperation
+    public AgentTrace trace(@Selector String runId) {
+        return agentTracer.getTrace(runId);
+    }
+}
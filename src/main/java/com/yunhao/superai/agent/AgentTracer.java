@@ -0,0 +1,316 @@
+package com.yunhao.superai.agent;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.util.StrUtil;
+import com.yunhao.superai.agent.model.AgentRun;
+import com.yunhao.superai.agent.model.AgentTrace;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 代理运行追踪器
+ *
+ * 每次运行、每一步、每次思考和每个工具调用都记录为一个 Micrometer Observation（agent.run、agent.step、
+ * agent.think、agent.tool），由 actuator 导出为指标，配置了 tracing 时同时导出为 span；
+ * 同时在内存中保留最近运行的结构化追踪记录，可以通过 actuator 端点 agenttrace 按运行 ID 查询。
+ */
+@Component
+public class AgentTracer {
+
+    // 不记录任何内容的追踪器，代理未配置追踪器时使用
+    public static final AgentTracer NOOP = new AgentTracer(ObservationRegistry.NOOP, 0);
+
+    // 步骤结果预览长度
+    private static final int RESULT_PREVIEW_LENGTH = 200;
+
+    private final ObservationRegistry observationRegistry;
+
+    private final boolean enabled;
+
+    // 最近运行的追踪记录
+    private final LRUCache<String, AgentTrace> traces;
+
+    // 运行中的 Observation（运行 ID -> 运行中的状态）
+    private final Map<String, LiveRun> liveRuns = new ConcurrentHashMap<>();
+
+    public AgentTracer(ObservationRegistry observationRegistry,
+                       @Value("${agent.trace.max-runs:200}") int maxRuns) {
+        this.observationRegistry = observationRegistry;
+        this.enabled = maxRuns > 0;
+        this.traces = CacheUtil.newLRUCache(Math.max(maxRuns, 1));
+    }
+
+    /**
+     * 运行开始（从检查点恢复的运行使用原来的运行 ID，记录会追加到原来的追踪中）
+     */
+    public void runStarted(String agentName, AgentRun agentRun) {
+        if (!enabled) {
+            return;
+        }
+        AgentTrace trace = traces.get(agentRun.getRunId(), false);
+        if (trace == null) {
+            trace = new AgentTrace();
+            trace.setRunId(agentRun.getRunId());
+            trace.setAgentName(agentName);
+            trace.setStartedAt(System.currentTimeMillis());
+            traces.put(agentRun.getRunId(), trace);
+        }
+        trace.setState(agentRun.getState());
+        Observation observation = Observation.createNotStarted("agent.run", observationRegistry)
+                .lowCardinalityKeyValue("agent", StrUtil.nullToDefault(agentName, "unknown"))
+                .highCardinalityKeyValue("run.id", agentRun.getRunId())
+                .start();
+        liveRuns.put(agentRun.getRunId(), new LiveRun(trace, observation, System.nanoTime()));
+    }
+
+    /**
+     * 运行结束
+     */
+    public void runEnded(AgentRun agentRun, Throwable error) {
+        LiveRun liveRun = liveRuns.remove(agentRun.getRunId());
+        if (liveRun == null) {
+            return;
+        }
+        // 运行结束时仍未结束的工具调用不会再被记录（例如取消后工具忽略中断继续执行）
+        abortToolObservations(liveRun);
+        liveRun.trace.setState(agentRun.getState());
+        liveRun.trace.setTotalMs(liveRun.trace.getTotalMs() + elapsedMs(liveRun.startNanos));
+        liveRun.runObservation.lowCardinalityKeyValue("outcome", String.valueOf(agentRun.getState()));
+        stop(liveRun.runObservation, error);
+    }
+
+    public void stepStarted(AgentRun agentRun) {
+        LiveRun liveRun = liveRuns.get(agentRun.getRunId());
+        if (liveRun == null) {
+            return;
+        }
+        AgentTrace.StepSpan span = new AgentTrace.StepSpan();
+        span.setStep(agentRun.getCurrentStep());
+        span.setStartOffsetMs(System.currentTimeMillis() - liveRun.trace.getStartedAt());
+        liveRun.trace.getSteps().add(span);
+        liveRun.stepSpan = span;
+        liveRun.stepStartNanos = System.nanoTime();
+        liveRun.stepObservation = child("agent.step", liveRun)
+                .highCardinalityKeyValue("step", String.valueOf(agentRun.getCurrentStep()))
+                .start();
+    }
+
+    public void stepEnded(AgentRun agentRun, String result) {
+        LiveRun liveRun = liveRuns.get(agentRun.getRunId());
+        if (liveRun == null || liveRun.stepSpan == null) {
+            return;
+        }
+        // 一步中提交的工具调用在这一步内收集完毕，此时仍未结束的已被放弃
+        abortToolObservations(liveRun);
+        liveRun.stepSpan.setDurationMs(elapsedMs(liveRun.stepStartNanos));
+        liveRun.stepSpan.setResult(StrUtil.maxLength(result, RESULT_PREVIEW_LENGTH));
+        stop(liveRun.stepObservation, null);
+        liveRun.stepObservation = null;
+    }
+
+    public void thinkStarted(AgentRun agentRun) {
+        LiveRun liveRun = liveRuns.get(agentRun.getRunId());
+        if (liveRun == null) {
+            return;
+        }
+        liveRun.thinkStartNanos = System.nanoTime();
+        liveRun.thinkObservation = child("agent.think", liveRun).start();
+    }
+
+    /**
+     * 思考结束
+     *
+     * @param promptTokens     提示词 token 数
+     * @param completionTokens 模型输出 token 数
+     * @param error            思考失败时的异常
+     */
+    public void thinkEnded(AgentRun agentRun, long promptTokens, long completionTokens, Throwable error) {
+        LiveRun liveRun = liveRuns.get(agentRun.getRunId());
+        if (liveRun == null || liveRun.thinkObservation == null) {
+            return;
+        }
+        AgentTrace.StepSpan span = liveRun.stepSpan;
+        if (span != null) {
+            span.setThinkMs(span.getThinkMs() + elapsedMs(liveRun.thinkStartNanos));
+            span.setPromptTokens(span.getPromptTokens() + promptTokens);
+            span.setCompletionTokens(span.getCompletionTokens() + completionTokens);
+        }
+        liveRun.trace.setPromptTokens(liveRun.trace.getPromptTokens() + promptTokens);
+        liveRun.trace.setCompletionTokens(liveRun.trace.getCompletionTokens() + completionTokens);
+        liveRun.thinkObservation.highCardinalityKeyValue("prompt.tokens", String.valueOf(promptTokens));
+        liveRun.thinkObservation.highCardinalityKeyValue("completion.tokens", String.valueOf(completionTokens));
+        stop(liveRun.thinkObservation, error);
+        liveRun.thinkObservation = null;
+    }
+
+    /**
+     * 工具调用开始，在执行工具的线程上调用，同一步中的多个调用可能同时进行
+     */
+    public void toolStarted(AgentRun agentRun, AssistantMessage.ToolCall toolCall) {
+        LiveRun liveRun = liveRuns.get(agentRun.getRunId());
+        if (liveRun == null) {
+            return;
+        }
+        Observation observation = child("agent.tool", liveRun)
+                .lowCardinalityKeyValue("tool", toolCall.name())
+                .highCardinalityKeyValue("tool.call.id", StrUtil.nullToEmpty(toolCall.id()))
+                .start();
+        liveRun.toolObservations.put(StrUtil.nullToEmpty(toolCall.id()), observation);
+    }
+
+    public void toolEnded(AgentRun agentRun, AssistantMessage.ToolCall toolCall, String result, long costMs) {
+        LiveRun liveRun = liveRuns.get(agentRun.getRunId());
+        if (liveRun == null) {
+            return;
+        }
+        // 已经因超时或取消结束的调用不再重复记录
+        Observation observation = liveRun.toolObservations.remove(StrUtil.nullToEmpty(toolCall.id()));
+        if (observation == null) {
+            return;
+        }
+        boolean error = result != null && result.startsWith("Error");
+        AgentTrace.ToolSpan toolSpan = addToolSpan(liveRun, toolCall, StrUtil.length(result), costMs, error);
+        observation.lowCardinalityKeyValue("outcome", error ? "error" : "success");
+        observation.highCardinalityKeyValue("arguments.chars", String.valueOf(toolSpan.getArgumentsChars()));
+        observation.highCardinalityKeyValue("result.chars", String.valueOf(toolSpan.getResultChars()));
+        observation.stop();
+    }
+
+    /**
+     * 工具调用超时或被取消，不再等待它的结果
+     *
+     * @param outcome timeout 或 cancelled
+     */
+    public void toolAborted(AgentRun agentRun, AssistantMessage.ToolCall toolCall, String outcome, long costMs) {
+        LiveRun liveRun = liveRuns.get(agentRun.getRunId());
+        if (liveRun == null) {
+            return;
+        }
+        Observation observation = liveRun.toolObservations.remove(StrUtil.nullToEmpty(toolCall.id()));
+        if (observation == null) {
+            return;
+        }
+        addToolSpan(liveRun, toolCall, 0, costMs, true);
+        observation.lowCardinalityKeyValue("outcome", outcome);
+        observation.stop();
+    }
+
+    /**
+     * 查询运行的追踪记录
+     *
+     * @param runId 运行 ID
+     * @return 追踪记录，不存在或已被淘汰时返回 null
+     */
+    public AgentTrace getTrace(String runId) {
+        return traces.get(runId, false);
+    }
+
+    /**
+     * 最近的运行追踪记录（不含步骤明细）
+     */
+    public List<AgentTrace> recentTraces() {
+        List<AgentTrace> result = new ArrayList<>();
+        for (AgentTrace trace : traces) {
+            AgentTrace summary = new AgentTrace();
+            summary.setRunId(trace.getRunId());
+            summary.setAgentName(trace.getAgentName());
+            summary.setStartedAt(trace.getStartedAt());
+            summary.setTotalMs(trace.getTotalMs());
+            summary.setState(trace.getState());
+            summary.setPromptTokens(trace.getPromptTokens());
+            summary.setCompletionTokens(trace.getCompletionTokens());
+            summary.setSteps(List.of());
+            result.add(summary);
+        }
+        return result;
+    }
+
+    private AgentTrace.ToolSpan addToolSpan(LiveRun liveRun, AssistantMessage.ToolCall toolCall,
+                                            int resultChars, long costMs, boolean error) {
+        AgentTrace.ToolSpan toolSpan = new AgentTrace.ToolSpan();
+        toolSpan.setToolCallId(toolCall.id());
+        toolSpan.setToolName(toolCall.name());
+        toolSpan.setArgumentsChars(StrUtil.length(toolCall.arguments()));
+        toolSpan.setResultChars(resultChars);
+        toolSpan.setDurationMs(costMs);
+        toolSpan.setError(error);
+        if (liveRun.stepSpan != null) {
+            liveRun.stepSpan.getToolCalls().add(toolSpan);
+        }
+        return toolSpan;
+    }
+
+    /**
+     * 结束所有仍在进行的工具调用 Observation
+     */
+    private void abortToolObservations(LiveRun liveRun) {
+        for (String toolCallId : List.copyOf(liveRun.toolObservations.keySet())) {
+            Observation observation = liveRun.toolObservations.remove(toolCallId);
+            if (observation != null) {
+                observation.lowCardinalityKeyValue("outcome", "cancelled");
+                observation.stop();
+            }
+        }
+    }
+
+    private Observation child(String name, LiveRun liveRun) {
+        Observation parent = liveRun.stepObservation != null ? liveRun.stepObservation : liveRun.runObservation;
+        return Observation.createNotStarted(name, observationRegistry)
+                .parentObservation(parent)
+                .lowCardinalityKeyValue("agent", StrUtil.nullToDefault(liveRun.trace.getAgentName(), "unknown"))
+                .highCardinalityKeyValue("run.id", liveRun.trace.getRunId());
+    }
+
+    private void stop(Observation observation, Throwable error) {
+        if (observation == null) {
+            return;
+        }
+        if (error != null) {
+            observation.error(error);
+        }
+        observation.stop();
+    }
+
+    private long elapsedMs(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    /**
+     * 运行中的状态：当前步骤和正在进行的 Observation
+     */
+    private static class LiveRun {
+
+        private final AgentTrace trace;
+
+        private final Observation runObservation;
+
+        private final long startNanos;
+
+        private final Map<String, Observation> toolObservations = new ConcurrentHashMap<>();
+
+        private volatile AgentTrace.StepSpan stepSpan;
+
+        private volatile Observation stepObservation;
+
+        private volatile long stepStartNanos;
+
+        private volatile Observation thinkObservation;
+
+        private volatile long thinkStartNanos;
+
+        private LiveRun(AgentTrace trace, Observation runObservation, long startNanos) {
+            this.trace = trace;
+            this.runObservation = runObservation;
+            this.startNanos = startNanos;
+        }
+    }
+}
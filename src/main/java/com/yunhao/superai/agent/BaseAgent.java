@@ -1,24 +1,33 @@
 package com.yunhao.superai.agent;
 
 import cn.hutool.core.util.StrUtil;
+import com.yunhao.superai.agent.model.AgentCheckpoint;
+import com.yunhao.superai.agent.model.AgentEvent;
+import com.yunhao.superai.agent.model.AgentEventType;
+import com.yunhao.superai.agent.model.AgentRun;
 import com.yunhao.superai.agent.model.AgentState;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.jsoup.internal.StringUtil;
 import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
+import java.util.Objects;
 /**
  * 抽象基础代理类，用于管理代理状态和执行流程。
  *
  * 提供状态转换、内存管理和基于步骤的执行循环的基础功能。
  * 子类必须实现step方法。
+ *
+ * 代理实例只持有不可变的配置，可以在多个请求之间共享；
+ * 每次运行的可变状态由 {@link AgentRun} 保存。
+ * 执行循环通过 {@link AgentEvent} 发布运行过程，同步、SSE 和 Flux 三种运行方式共用同一个循环。
  */
 @Data
 @Slf4j
@@ -31,18 +40,20 @@ public abstract class BaseAgent {
     private String systemPrompt;
     private String nextStepPrompt;
 
-    // 状态
-    private AgentState state = AgentState.IDLE;
-
     // 执行控制
     private int maxSteps = 10;
-    private int currentStep = 0;
 
     // LLM
     private ChatClient chatClient;
 
-    // Memory（需要自主维护会话上下文）
-    private List<Message> messageList = new ArrayList<>();
+    // 执行服务，流式运行时使用（虚拟线程 + 并发上限）
+    private AgentExecutionService executionService;
+
+    // 检查点存储，为空时不保存检查点
+    private AgentCheckpointStore checkpointStore;
+
+    // 运行追踪器
+    private AgentTracer tracer = AgentTracer.NOOP;
 
     /**
      * 运行代理
@@ -51,41 +62,54 @@ public abstract class BaseAgent {
      * @return 执行结果
      */
     public String run(String userPrompt) {
-        if (this.state != AgentState.IDLE) {
-            throw new RuntimeException("Cannot run agent from state: " + this.state);
-        }
-        if (StrUtil.isBlank(userPrompt)) {
-            throw new RuntimeException("Cannot run agent with empty user prompt");
-        }
-        // 更改状态
-        state = AgentState.RUNNING;
-        // 记录消息上下文
-        messageList.add(new UserMessage(userPrompt));
+        AgentRun agentRun = new AgentRun();
         // 保存结果列表
         List<String> results = new ArrayList<>();
-        try {
-            for (int i = 0; i < maxSteps && state != AgentState.FINISHED; i++) {
-                int stepNumber = i + 1;
-                currentStep = stepNumber;
-                log.info("Executing step " + stepNumber + "/" + maxSteps);
-                // 单步执行
-                String stepResult = step();
-                String result = "Step " + stepNumber + ": " + stepResult;
-                results.add(result);
+        agentRun.setEventListener(event -> {
+            if (event.getType() == AgentEventType.STEP_END) {
+                results.add("Step " + event.getStep() + ": " + event.getContent());
             }
+        });
+        startRun(agentRun, userPrompt);
+        try {
             // 检查是否超出步骤限制
-            if (currentStep >= maxSteps) {
-                state = AgentState.FINISHED;
+            if (executeSteps(agentRun)) {
                 results.add("Terminated: Reached max steps (" + maxSteps + ")");
             }
             return String.join("\n", results);
         } catch (Exception e) {
-            state = AgentState.ERROR;
+            agentRun.setState(AgentState.ERROR);
             log.error("Error executing agent", e);
             return "执行错误" + e.getMessage();
         } finally {
             // 清理资源
-            this.cleanup();
+            releaseRun(agentRun);
+            this.cleanup(agentRun);
+        }
+    }
+
+    /**
+     * 在当前线程中同步执行一次运行，供需要访问运行上下文（例如最终的消息列表）的调用方使用
+     * 调用方持有 agentRun，可以在其他线程中调用 {@link AgentRun#cancel()} 取消运行
+     *
+     * @param agentRun   运行上下文，调用方可以预先设置事件监听器
+     * @param userPrompt 用户提示词
+     * @return 是否因达到最大步骤而结束
+     */
+    public boolean execute(AgentRun agentRun, String userPrompt) {
+        agentRun.setRunnerThread(Thread.currentThread());
+        try {
+            startRun(agentRun, userPrompt);
+            return executeSteps(agentRun);
+        } catch (RuntimeException e) {
+            if (!agentRun.isCancelled()) {
+                agentRun.setState(AgentState.ERROR);
+            }
+            throw e;
+        } finally {
+            agentRun.setRunnerThread(null);
+            releaseRun(agentRun);
+            this.cleanup(agentRun);
         }
     }
 
@@ -96,50 +120,84 @@ public abstract class BaseAgent {
      * @return SseEmitter实例
      */
     public SseEmitter runStream(String userPrompt) {
+        AgentRun agentRun = new AgentRun();
+        return stream(agentRun, () -> {
+            if (StringUtil.isBlank(userPrompt)) {
+                throw new IllegalArgumentException("不能使用空提示词运行代理");
+            }
+            startRun(agentRun, userPrompt);
+        });
+    }
+
+    /**
+     * 从检查点恢复运行（流式输出），从最后一个已完成的步骤继续
+     *
+     * @param runId 运行 ID
+     * @return SseEmitter实例
+     */
+    public SseEmitter resumeStream(String runId) {
+        AgentRun agentRun = new AgentRun(runId);
+        return stream(agentRun, () -> restoreRun(agentRun));
+    }
+
+    /**
+     * 以 SSE 推送每一步的结果
+     *
+     * @param agentRun 当前运行的上下文
+     * @param starter  开始运行前的初始化（新建或从检查点恢复），失败时把错误发送给前端
+     * @return SseEmitter实例
+     */
+    private SseEmitter stream(AgentRun agentRun, Runnable starter) {
         // 创建SseEmitter，设置较长的超时时间
         SseEmitter emitter = new SseEmitter(300000L); // 5分钟超时
+        // 每一步结束时发送该步的结果，发送失败说明客户端已经断开，取消运行
+        agentRun.setEventListener(event -> {
+            if (event.getType() == AgentEventType.STEP_END) {
+                try {
+                    emitter.send("Step " + event.getStep() + ": " + event.getContent());
+                } catch (IOException | IllegalStateException e) {
+                    cancel(agentRun, "发送失败: " + e.getMessage());
+                }
+            }
+        });
 
-        // 使用线程异步处理，避免阻塞主线程
-        CompletableFuture.runAsync(() -> {
+        // 提交到执行服务异步处理，避免阻塞主线程和公共线程池
+        requireExecutionService().submit(() -> {
+            // 排队期间连接已经关闭，运行被取消，不再开始
+            if (agentRun.isCancelled()) {
+                return;
+            }
+            agentRun.setRunnerThread(Thread.currentThread());
             try {
-                if (this.state != AgentState.IDLE) {
-                    emitter.send("错误：无法从状态运行代理: " + this.state);
-                    emitter.complete();
-                    return;
-                }
-                if (StringUtil.isBlank(userPrompt)) {
-                    emitter.send("错误：不能使用空提示词运行代理");
+                try {
+                    starter.run();
+                } catch (Exception e) {
+                    if (agentRun.isCancelled()) {
+                        // 开始前的瞬间被取消，emitter 已经结束
+                        return;
+                    }
+                    if (agentRun.getState() == AgentState.IDLE) {
+                        agentRun.setState(AgentState.ERROR);
+                    }
+                    emitter.send("错误：" + e.getMessage());
                     emitter.complete();
                     return;
                 }
-
-                // 更改状态
-                state = AgentState.RUNNING;
-                // 记录消息上下文
-                messageList.add(new UserMessage(userPrompt));
+                // 告知前端运行 ID，连接中断后可以用它恢复运行
+                emitter.send(SseEmitter.event().name("run").data(agentRun.getRunId()));
 
                 try {
-                    for (int i = 0; i < maxSteps && state != AgentState.FINISHED; i++) {
-                        int stepNumber = i + 1;
-                        currentStep = stepNumber;
-                        log.info("Executing step " + stepNumber + "/" + maxSteps);
-
-                        // 单步执行
-                        String stepResult = step();
-                        String result = "Step " + stepNumber + ": " + stepResult;
-
-                        // 发送每一步的结果
-                        emitter.send(result);
-                    }
                     // 检查是否超出步骤限制
-                    if (currentStep >= maxSteps) {
-                        state = AgentState.FINISHED;
+                    if (executeSteps(agentRun)) {
                         emitter.send("执行结束: 达到最大步骤 (" + maxSteps + ")");
                     }
                     // 正常完成
                     emitter.complete();
                 } catch (Exception e) {
-                    state = AgentState.ERROR;
+                    if (agentRun.isCancelled()) {
+                        return;
+                    }
+                    agentRun.setState(AgentState.ERROR);
                     log.error("执行智能体失败", e);
                     try {
                         emitter.send("执行错误: " + e.getMessage());
@@ -149,43 +207,278 @@ public abstract class BaseAgent {
                     }
                 } finally {
                     // 清理资源
-                    this.cleanup();
+                    this.cleanup(agentRun);
                 }
             } catch (Exception e) {
                 emitter.completeWithError(e);
+            } finally {
+                agentRun.setRunnerThread(null);
+                releaseRun(agentRun);
+            }
+        }, reason -> {
+            // 超出并发上限被拒绝，发送错误事件后结束
+            agentRun.setState(AgentState.ERROR);
+            try {
+                emitter.send(SseEmitter.event().name("error").data(reason));
+                emitter.complete();
+            } catch (IOException e) {
+                emitter.completeWithError(e);
             }
         });
 
-        // 设置超时和完成回调
+        // 设置超时、错误和完成回调：连接在运行结束前关闭时取消运行
         emitter.onTimeout(() -> {
-            this.state = AgentState.ERROR;
-            this.cleanup();
             log.warn("SSE connection timed out");
+            cancel(agentRun, "连接超时");
         });
 
+        emitter.onError(e -> cancel(agentRun, "连接错误: " + e.getMessage()));
+
         emitter.onCompletion(() -> {
-            if (this.state == AgentState.RUNNING) {
-                this.state = AgentState.FINISHED;
-            }
-            this.cleanup();
+            cancel(agentRun, "连接已关闭");
+            this.cleanup(agentRun);
             log.info("SSE connection completed");
         });
 
         return emitter;
     }
 
+    /**
+     * 运行代理（事件流）
+     * 思考过程中的文本片段、工具调用的开始和结束、步骤边界都会在发生时立即推送
+     *
+     * @param userPrompt 用户提示词
+     * @return 运行事件流
+     */
+    public Flux<AgentEvent> runFlux(String userPrompt) {
+        AgentRun agentRun = new AgentRun();
+        return flux(agentRun, () -> startRun(agentRun, userPrompt));
+    }
+
+    /**
+     * 从检查点恢复运行（事件流）
+     *
+     * @param runId 运行 ID
+     * @return 运行事件流
+     */
+    public Flux<AgentEvent> resumeFlux(String runId) {
+        AgentRun agentRun = new AgentRun(runId);
+        return flux(agentRun, () -> restoreRun(agentRun));
+    }
+
+    private Flux<AgentEvent> flux(AgentRun agentRun, Runnable starter) {
+        return Flux.create(sink -> {
+            agentRun.setEventListener(sink::next);
+            // 订阅方取消（客户端断开连接）时取消运行
+            sink.onCancel(() -> cancel(agentRun, "订阅已取消"));
+            requireExecutionService().submit(() -> {
+                // 排队期间订阅已取消，运行被取消，不再开始
+                if (agentRun.isCancelled()) {
+                    sink.complete();
+                    return;
+                }
+                agentRun.setRunnerThread(Thread.currentThread());
+                try {
+                    starter.run();
+                    boolean reachedMaxSteps = executeSteps(agentRun);
+                    if (!agentRun.isCancelled()) {
+                        agentRun.emit(AgentEvent.of(AgentEventType.RUN_END, agentRun,
+                                reachedMaxSteps ? "执行结束: 达到最大步骤 (" + maxSteps + ")" : "执行结束"));
+                    }
+                } catch (Exception e) {
+                    if (agentRun.isCancelled()) {
+                        return;
+                    }
+                    agentRun.setState(AgentState.ERROR);
+                    log.error("执行智能体失败", e);
+                    sink.next(AgentEvent.of(AgentEventType.ERROR, agentRun, "执行错误: " + e.getMessage()));
+                } finally {
+                    agentRun.setRunnerThread(null);
+                    releaseRun(agentRun);
+                    this.cleanup(agentRun);
+                    sink.complete();
+                }
+            }, reason -> {
+                // 超出并发上限被拒绝
+                agentRun.setState(AgentState.ERROR);
+                sink.next(AgentEvent.of(AgentEventType.ERROR, agentRun, reason));
+                sink.complete();
+            });
+        }, FluxSink.OverflowStrategy.BUFFER);
+    }
+
+    /**
+     * 开始一次运行：校验状态和提示词，并记录用户消息
+     */
+    private void startRun(AgentRun agentRun, String userPrompt) {
+        if (agentRun.getState() != AgentState.IDLE) {
+            throw new RuntimeException("Cannot run agent from state: " + agentRun.getState());
+        }
+        if (StrUtil.isBlank(userPrompt)) {
+            throw new RuntimeException("Cannot run agent with empty user prompt");
+        }
+        // 新运行的 ID 是随机生成的，加锁是为了让运行期间针对同一 ID 的恢复请求被拒绝
+        if (checkpointStore != null && !checkpointStore.tryLock(agentRun.getRunId())) {
+            throw new RuntimeException("运行 " + agentRun.getRunId() + " 正在执行");
+        }
+        // 更改状态
+        agentRun.setState(AgentState.RUNNING);
+        // 记录消息上下文
+        agentRun.getMessageList().add(new UserMessage(userPrompt));
+        agentRun.emit(AgentEvent.of(AgentEventType.RUN_START, agentRun, userPrompt));
+    }
+
+    /**
+     * 从检查点恢复运行：还原消息上下文和已完成的步骤
+     */
+    private void restoreRun(AgentRun agentRun) {
+        if (agentRun.getState() != AgentState.IDLE) {
+            throw new RuntimeException("Cannot resume agent from state: " + agentRun.getState());
+        }
+        AgentCheckpoint checkpoint = checkpointStore == null ? null : checkpointStore.load(agentRun.getRunId());
+        if (checkpoint == null) {
+            throw new RuntimeException("找不到运行 " + agentRun.getRunId() + " 的检查点");
+        }
+        if (!Objects.equals(checkpoint.getAgentName(), name)) {
+            throw new RuntimeException("运行 " + agentRun.getRunId() + " 不属于代理 " + name);
+        }
+        // 同一个运行只能有一个执行者：原来的连接还在执行，或者已经被另一个请求恢复时拒绝
+        if (!checkpointStore.tryLock(agentRun.getRunId())) {
+            throw new RuntimeException("运行 " + agentRun.getRunId() + " 正在执行，不能重复恢复");
+        }
+        agentRun.setMessageList(new ArrayList<>(checkpoint.getMessageList()));
+        agentRun.setCurrentStep(checkpoint.getCompletedStep());
+        agentRun.setCompactedTokens(checkpoint.getCompactedTokens());
+        agentRun.setCompactionSavedTokens(checkpoint.getCompactionSavedTokens());
+        agentRun.setState(AgentState.RUNNING);
+        log.info("运行 {} 从第 {} 步之后恢复", agentRun.getRunId(), checkpoint.getCompletedStep());
+        agentRun.emit(AgentEvent.of(AgentEventType.RUN_START, agentRun,
+                "从第 " + checkpoint.getCompletedStep() + " 步之后恢复运行"));
+    }
+
+    /**
+     * 执行步骤循环，直到代理完成或达到最大步骤
+     *
+     * @param agentRun 当前运行的上下文
+     * @return 是否因达到最大步骤而结束
+     */
+    private boolean executeSteps(AgentRun agentRun) {
+        tracer.runStarted(name, agentRun);
+        Throwable error = null;
+        try {
+            return doExecuteSteps(agentRun);
+        } catch (RuntimeException e) {
+            error = e;
+            throw e;
+        } finally {
+            tracer.runEnded(agentRun, error);
+        }
+    }
+
+    private boolean doExecuteSteps(AgentRun agentRun) {
+        // 新的运行从第 1 步开始，恢复的运行从最后一个已完成步骤的下一步开始
+        // 取消可能发生在执行线程自己的事件监听器里（例如 SSE 发送失败），不会中断当前线程，需要在每一步开始前检查
+        for (int stepNumber = agentRun.getCurrentStep() + 1;
+             stepNumber <= maxSteps && agentRun.getState() != AgentState.FINISHED && !agentRun.isCancelled();
+             stepNumber++) {
+            agentRun.setCurrentStep(stepNumber);
+            log.info("Executing step " + stepNumber + "/" + maxSteps);
+            agentRun.emit(AgentEvent.of(AgentEventType.STEP_START, agentRun, null));
+            if (agentRun.isCancelled()) {
+                break;
+            }
+            tracer.stepStarted(agentRun);
+            // 单步执行
+            String stepResult = step(agentRun);
+            tracer.stepEnded(agentRun, stepResult);
+            if (Thread.currentThread().isInterrupted()) {
+                // 执行线程被直接中断（例如外层任务被取消），同样视为取消
+                agentRun.cancel();
+            }
+            if (agentRun.isCancelled()) {
+                // 被取消的这一步没有完成，不发送结果也不保存检查点
+                break;
+            }
+            agentRun.emit(AgentEvent.of(AgentEventType.STEP_END, agentRun, stepResult));
+            // 每完成一步保存检查点
+            if (checkpointStore != null) {
+                checkpointStore.save(name, agentRun);
+            }
+        }
+        if (agentRun.isCancelled()) {
+            // 保留最后一个检查点，客户端重新连接后可以恢复
+            log.info("运行 {} 在第 {} 步被取消", agentRun.getRunId(), agentRun.getCurrentStep());
+            return false;
+        }
+        if (agentRun.getCompactionSavedTokens() > 0) {
+            log.info("运行 {} 的上下文压缩共节省约 {} 个提示词 token",
+                    agentRun.getRunId(), agentRun.getCompactionSavedTokens());
+        }
+        // 正常结束的运行不再需要检查点
+        if (checkpointStore != null) {
+            checkpointStore.delete(agentRun.getRunId());
+        }
+        // 检查是否超出步骤限制
+        if (agentRun.getCurrentStep() >= maxSteps) {
+            agentRun.setState(AgentState.FINISHED);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 取消运行，并记录取消节省的 token 估算值
+     *
+     * @param agentRun 当前运行的上下文
+     * @param reason   取消原因
+     */
+    private void cancel(AgentRun agentRun, String reason) {
+        boolean wasRunning = agentRun.getState() == AgentState.RUNNING;
+        if (!agentRun.cancel()) {
+            return;
+        }
+        // 按已完成步骤的平均消耗估算剩余步骤本会消耗的 token
+        int completedSteps = Math.max(agentRun.getCurrentStep(), 1);
+        int remainingSteps = Math.max(maxSteps - agentRun.getCurrentStep(), 0);
+        long savedTokens = wasRunning ? agentRun.getConsumedTokens() / completedSteps * remainingSteps : 0;
+        if (executionService != null) {
+            executionService.recordCancellation(savedTokens);
+        }
+        log.info("取消运行 {}（{}），第 {}/{} 步，估算节省 {} tokens",
+                agentRun.getRunId(), reason, agentRun.getCurrentStep(), maxSteps, savedTokens);
+    }
+
+    /**
+     * 释放运行锁，运行结束（包括取消和失败）后调用
+     */
+    private void releaseRun(AgentRun agentRun) {
+        if (checkpointStore != null) {
+            checkpointStore.unlock(agentRun.getRunId());
+        }
+    }
+
+    private AgentExecutionService requireExecutionService() {
+        if (executionService == null) {
+            throw new IllegalStateException("Cannot stream agent without an AgentExecutionService");
+        }
+        return executionService;
+    }
+
 
     /**
      * 执行单个步骤
      *
+     * @param agentRun 当前运行的上下文
      * @return 步骤执行结果
      */
-    public abstract String step();
+    public abstract String step(AgentRun agentRun);
 
     /**
      * 清理资源
+     *
+     * @param agentRun 当前运行的上下文
      */
-    protected void cleanup() {
+    protected void cleanup(AgentRun agentRun) {
         // 子类可以重写此方法来清理资源
     }
 }
@@ -0,0 +1,123 @@
+package com.yunhao.superai.agent;
+
+import com.yunhao.superai.utils.TokenEstimator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 代理上下文压缩器
+ *
+ * 把消息上下文控制在 token 预算内：先把较早的工具结果压缩为预览，仍超出预算时再按步骤丢弃较早的消息。
+ * 用户目标（第一条用户消息）和最近一步的消息始终保留；系统提示词不在消息列表中，不受影响。
+ */
+@Slf4j
+public class ContextCompactor {
+
+    // 默认 token 预算
+    public static final int DEFAULT_TOKEN_BUDGET = 24000;
+
+    // 压缩后保留的工具结果预览长度（字符）
+    private static final int DEFAULT_TOOL_RESULT_PREVIEW_CHARS = 300;
+
+    // 压缩标记，已压缩过的结果不再重复压缩
+    private static final String COMPACTED_MARKER = "[较早的工具结果已压缩";
+
+    private final int tokenBudget;
+
+    private final int toolResultPreviewChars;
+
+    public ContextCompactor(int tokenBudget) {
+        this(tokenBudget, DEFAULT_TOOL_RESULT_PREVIEW_CHARS);
+    }
+
+    public ContextCompactor(int tokenBudget, int toolResultPreviewChars) {
+        this.tokenBudget = tokenBudget;
+        this.toolResultPreviewChars = toolResultPreviewChars;
+    }
+
+    /**
+     * 压缩消息列表，不修改传入的列表
+     *
+     * @param messages 当前的消息上下文
+     * @return 压缩结果
+     */
+    public CompactionResult compact(List<Message> messages) {
+        int beforeTokens = TokenEstimator.estimate(messages);
+        if (beforeTokens <= tokenBudget) {
+            return new CompactionResult(messages, beforeTokens, beforeTokens);
+        }
+        List<Message> result = new ArrayList<>(messages);
+        // 受保护的头部：用户目标
+        int head = !result.isEmpty() && result.get(0) instanceof UserMessage ? 1 : 0;
+        // 受保护的尾部：最近一步（从最后一条助手消息开始）
+        int tail = lastAssistantIndex(result);
+        int tokens = beforeTokens;
+
+        // 第一轮：把较早的工具结果压缩为预览
+        for (int i = head; i < tail && tokens > tokenBudget; i++) {
+            if (result.get(i) instanceof ToolResponseMessage toolResponseMessage) {
+                ToolResponseMessage compacted = compactToolResponse(toolResponseMessage);
+                tokens -= TokenEstimator.estimate(toolResponseMessage) - TokenEstimator.estimate(compacted);
+                result.set(i, compacted);
+            }
+        }
+
+        // 第二轮：仍超出预算时，按步骤丢弃较早的消息（助手的工具调用和对应的工具结果一起丢弃）
+        int dropEnd = head;
+        while (dropEnd < tail && tokens > tokenBudget) {
+            tokens -= TokenEstimator.estimate(result.get(dropEnd));
+            dropEnd++;
+            while (dropEnd < tail && result.get(dropEnd) instanceof ToolResponseMessage) {
+                tokens -= TokenEstimator.estimate(result.get(dropEnd));
+                dropEnd++;
+            }
+        }
+        if (dropEnd > head) {
+            log.info("上下文超出预算，丢弃了 {} 条较早的消息", dropEnd - head);
+            result.subList(head, dropEnd).clear();
+        }
+        return new CompactionResult(result, beforeTokens, tokens);
+    }
+
+    private ToolResponseMessage compactToolResponse(ToolResponseMessage toolResponseMessage) {
+        List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>();
+        for (ToolResponseMessage.ToolResponse response : toolResponseMessage.getResponses()) {
+            String data = response.responseData();
+            if (data != null && data.length() > toolResultPreviewChars && !data.contains(COMPACTED_MARKER)) {
+                data = data.substring(0, toolResultPreviewChars)
+                        + "\n..." + COMPACTED_MARKER + "，原始长度 " + data.length() + " 字符]";
+            }
+            responses.add(new ToolResponseMessage.ToolResponse(response.id(), response.name(), data));
+        }
+        return new ToolResponseMessage(responses, toolResponseMessage.getMetadata());
+    }
+
+    private int lastAssistantIndex(List<Message> messages) {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i) instanceof AssistantMessage) {
+                return i;
+            }
+        }
+        return messages.size();
+    }
+
+    /**
+     * 压缩结果
+     *
+     * @param messages     压缩后的消息列表
+     * @param beforeTokens 压缩前的估算 token 数
+     * @param afterTokens  压缩后的估算 token 数
+     */
+    public record CompactionResult(List<Message> messages, int beforeTokens, int afterTokens) {
+
+        public int savedTokens() {
+            return beforeTokens - afterTokens;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.yunhao.superai.agent;
+
+import com.yunhao.superai.agent.model.AgentRun;
+
+import java.util.Deque;
+
+/**
+ * 代理循环检测器
+ *
+ * 对每一步的工具调用和结果计算指纹，和最近几步比较：指纹重复说明代理在原地打转
+ * （同样的参数反复调用同一个工具、A/B 交替，或者连续多步既不调用工具也不结束）。
+ * 第一次发现时提示模型换一种方法，提示之后仍然重复就提前结束运行。
+ * 每次运行的检测状态保存在 {@link AgentRun} 中。
+ */
+public class LoopDetector {
+
+    // 默认比较最近 4 步，可以发现长度不超过 4 的循环
+    public static final int DEFAULT_WINDOW = 4;
+
+    // 默认最多提示 1 次，之后仍然重复就结束运行
+    public static final int DEFAULT_MAX_WARNINGS = 1;
+
+    // 纠正提示，作为用户消息加入上下文
+    public static final String CORRECTIVE_PROMPT = """
+            You appear to be repeating the same step without making progress \
+            (same tool calls with the same arguments and results, or no tool call at all). \
+            Do not repeat it. Try a different approach or different arguments; \
+            if the task is already complete or cannot be completed, call the `doTerminate` tool now.""";
+
+    private final int window;
+
+    private final int maxWarnings;
+
+    public LoopDetector() {
+        this(DEFAULT_WINDOW, DEFAULT_MAX_WARNINGS);
+    }
+
+    public LoopDetector(int window, int maxWarnings) {
+        this.window = window;
+        this.maxWarnings = maxWarnings;
+    }
+
+    /**
+     * 记录一步的指纹并判断是否出现循环
+     *
+     * @param agentRun    当前运行的上下文
+     * @param fingerprint 这一步的指纹
+     * @return 检测结果
+     */
+    public Verdict check(AgentRun agentRun, String fingerprint) {
+        Deque<String> recent = agentRun.getRecentStepFingerprints();
+        boolean repeated = recent.contains(fingerprint);
+        recent.addLast(fingerprint);
+        while (recent.size() > window) {
+            recent.removeFirst();
+        }
+        if (!repeated) {
+            return Verdict.PROGRESS;
+        }
+        if (agentRun.getLoopWarnings() < maxWarnings) {
+            agentRun.setLoopWarnings(agentRun.getLoopWarnings() + 1);
+            // 提示之后重新开始比较，只有提示之后再次重复才结束运行
+            recent.clear();
+            recent.addLast(fingerprint);
+            return Verdict.WARN;
+        }
+        return Verdict.STOP;
+    }
+
+    /**
+     * 检测结果
+     */
+    public enum Verdict {
+
+        /**
+         * 有进展
+         */
+        PROGRESS,
+
+        /**
+         * 出现重复，提示模型换一种方法
+         */
+        WARN,
+
+        /**
+         * 提示之后仍然重复，结束运行
+         */
+        STOP
+    }
+}
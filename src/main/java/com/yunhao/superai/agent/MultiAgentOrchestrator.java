@@ -0,0 +1,295 @@
+package com.yunhao.superai.agent;
+
+import cn.hutool.core.util.StrUtil;
+import com.yunhao.superai.advisor.MyLoggerAdvisor;
+import com.yunhao.superai.agent.model.AgentEvent;
+import com.yunhao.superai.agent.model.AgentEventType;
+import com.yunhao.superai.agent.model.AgentRun;
+import com.yunhao.superai.agent.model.AgentState;
+import com.yunhao.superai.agent.model.TaskPlan;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * 多智能体编排器（规划 - 并行执行 - 合并）
+ *
+ * 规划器把用户目标拆分为子任务 DAG；没有依赖关系的子任务由工作智能体同时执行，
+ * 每个子任务在它依赖的子任务完成后立即开始，端到端耗时取决于最长的依赖链而不是子任务总数。
+ * 所有子任务完成后，由 YunManus 合并结果，按需生成 PDF 并结束运行。
+ * 工作智能体和 YunManus 一样是无状态的执行引擎，每个子任务是它的一次独立运行，
+ * 同样通过 {@link AgentExecutionService} 提交，计入 agent.execution.max-concurrent-runs。
+ * 规划和等待子任务的协调过程不占用运行许可：协调者如果持有许可再等待子任务的许可，
+ * 许可全部被协调者占用时子任务只能排队到超时，形成嵌套准入的死锁。
+ */
+@Component
+@Slf4j
+public class MultiAgentOrchestrator {
+
+    // 工作智能体不生成最终产物，也不需要终止工具（直接回答即结束）
+    private static final Set<String> WORKER_EXCLUDED_TOOLS = Set.of("generatePDF", "doTerminate");
+
+    private static final String WORKER_SYSTEM_PROMPT = """
+            You are a worker agent in a team. You are given ONE subtask of a larger goal.
+            Use the tools to complete only this subtask. When you are done, reply with a concise but complete \
+            summary of your findings as plain text without calling any tool; that reply is your final result.
+            """;
+
+    private static final String WORKER_NEXT_STEP_PROMPT = """
+            Select the most appropriate tool for the next step of the subtask, \
+            or reply with the final result if the subtask is complete.
+            """;
+
+    private final TaskPlanner taskPlanner;
+
+    private final ToolCallAgent worker;
+
+    private final YunManus yunManus;
+
+    private final AgentExecutionService executionService;
+
+    // 同时执行的子任务数量上限
+    private final int maxParallelWorkers;
+
+    // 合并时每个子任务结果保留的最大长度
+    private final int maxResultChars;
+
+    // 协调者和每个子任务各一个虚拟线程，用于规划、等待依赖和执行结果，阻塞也不会占用平台线程；
+    // 子任务本身和最后的合并在执行服务中运行
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("agent-worker-", 0).factory());
+
+    public MultiAgentOrchestrator(ToolCallback[] allTools, ChatModel dashscopeChatModel, YunManus yunManus,
+                                  AgentExecutionService agentExecutionService, AgentTracer agentTracer,
+                                  @Value("${agent.multi.max-tasks:8}") int maxTasks,
+                                  @Value("${agent.multi.max-parallel-workers:4}") int maxParallelWorkers,
+                                  @Value("${agent.multi.worker-max-steps:8}") int workerMaxSteps,
+                                  @Value("${agent.multi.max-result-chars:4000}") int maxResultChars,
+                                  @Value("${agent.context.token-budget:24000}") int contextTokenBudget) {
+        ChatClient chatClient = ChatClient.builder(dashscopeChatModel)
+                .defaultAdvisors(new MyLoggerAdvisor())
+                .build();
+        this.taskPlanner = new TaskPlanner(chatClient, maxTasks);
+        ToolCallback[] workerTools = Arrays.stream(allTools)
+                .filter(tool -> !WORKER_EXCLUDED_TOOLS.contains(tool.getToolDefinition().name()))
+                .toArray(ToolCallback[]::new);
+        this.worker = new ToolCallAgent(workerTools);
+        this.worker.setName("worker");
+        this.worker.setSystemPrompt(WORKER_SYSTEM_PROMPT);
+        this.worker.setNextStepPrompt(WORKER_NEXT_STEP_PROMPT);
+        this.worker.setMaxSteps(workerMaxSteps);
+        this.worker.setContextCompactor(new ContextCompactor(contextTokenBudget));
+        this.worker.setFinishWhenNoToolCall(true);
+        this.worker.setChatClient(chatClient);
+        this.worker.setTracer(agentTracer);
+        this.yunManus = yunManus;
+        this.executionService = agentExecutionService;
+        this.maxParallelWorkers = maxParallelWorkers;
+        this.maxResultChars = maxResultChars;
+    }
+
+    /**
+     * 以多智能体模式运行（事件流）
+     * 先推送规划和各个子任务的事件（子任务内部的事件带有 taskId），再推送合并阶段 YunManus 的事件
+     *
+     * @param goal 用户目标
+     * @return 运行事件流
+     */
+    public Flux<AgentEvent> runFlux(String goal) {
+        if (StrUtil.isBlank(goal)) {
+            return Flux.just(AgentEvent.builder().type(AgentEventType.ERROR).content("错误：不能使用空提示词运行代理").build());
+        }
+        AtomicReference<String> mergePrompt = new AtomicReference<>();
+        Flux<AgentEvent> planAndWork = Flux.create(sink -> {
+            List<AgentRun> workerRuns = new ArrayList<>();
+            Map<String, Future<String>> futures = new ConcurrentHashMap<>();
+            sink.onCancel(() -> {
+                synchronized (workerRuns) {
+                    workerRuns.forEach(AgentRun::cancel);
+                }
+                futures.values().forEach(future -> future.cancel(true));
+            });
+            // 协调者不经过执行服务，只有子任务和合并占用运行许可
+            executor.execute(() -> {
+                try {
+                    TaskPlan plan = taskPlanner.plan(goal);
+                    sink.next(AgentEvent.builder().type(AgentEventType.PLAN).content(describe(plan)).build());
+                    Map<String, String> results = executePlan(goal, plan, sink, workerRuns, futures);
+                    mergePrompt.set(buildMergePrompt(goal, plan, results));
+                } catch (Exception e) {
+                    log.error("多智能体执行失败", e);
+                    sink.next(AgentEvent.builder().type(AgentEventType.ERROR).content("执行错误: " + e.getMessage()).build());
+                } finally {
+                    sink.complete();
+                }
+            });
+        }, FluxSink.OverflowStrategy.BUFFER);
+        // 子任务全部完成后合并结果；规划或执行失败时不再合并
+        return planAndWork.concatWith(Flux.defer(() ->
+                mergePrompt.get() == null ? Flux.empty() : yunManus.runFlux(mergePrompt.get())));
+    }
+
+    /**
+     * 按拓扑顺序提交所有子任务，每个子任务在依赖完成后开始
+     *
+     * @return 子任务 ID -> 结果，按规划顺序排列
+     */
+    private Map<String, String> executePlan(String goal, TaskPlan plan, FluxSink<AgentEvent> sink,
+                                            List<AgentRun> workerRuns, Map<String, Future<String>> futures)
+            throws InterruptedException {
+        Semaphore workerPermits = new Semaphore(maxParallelWorkers);
+        // 拓扑顺序保证提交某个子任务时，它依赖的子任务都已经提交
+        for (TaskPlan.SubTask task : plan.tasks()) {
+            List<Future<String>> dependencies = task.dependsOn().stream().map(futures::get).toList();
+            futures.put(task.id(), executor.submit(() -> {
+                Map<String, String> dependencyResults = new LinkedHashMap<>();
+                for (int i = 0; i < dependencies.size(); i++) {
+                    dependencyResults.put(task.dependsOn().get(i), await(dependencies.get(i)));
+                }
+                workerPermits.acquire();
+                try {
+                    return submitSubTask(goal, task, dependencyResults, sink, workerRuns);
+                } finally {
+                    workerPermits.release();
+                }
+            }));
+        }
+        Map<String, String> results = new LinkedHashMap<>();
+        for (TaskPlan.SubTask task : plan.tasks()) {
+            results.put(task.id(), await(futures.get(task.id())));
+        }
+        return results;
+    }
+
+    /**
+     * 把子任务提交到执行服务，与其他智能体运行共用并发上限，并等待结果
+     */
+    private String submitSubTask(String goal, TaskPlan.SubTask task, Map<String, String> dependencyResults,
+                                 FluxSink<AgentEvent> sink, List<AgentRun> workerRuns) throws InterruptedException {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        executionService.submit(() -> {
+            // 排队期间订阅已取消，不再开始
+            if (sink.isCancelled()) {
+                result.complete("子任务已取消");
+                return;
+            }
+            try {
+                result.complete(runSubTask(goal, task, dependencyResults, sink, workerRuns));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }, reason -> result.complete("子任务执行失败: " + reason));
+        return await(result);
+    }
+
+    /**
+     * 用工作智能体执行一个子任务
+     */
+    private String runSubTask(String goal, TaskPlan.SubTask task, Map<String, String> dependencyResults,
+                              FluxSink<AgentEvent> sink, List<AgentRun> workerRuns) {
+        AgentRun agentRun = new AgentRun();
+        // 子任务内部的事件带上子任务 ID 一起推送
+        agentRun.setEventListener(event -> {
+            event.setTaskId(task.id());
+            sink.next(event);
+        });
+        synchronized (workerRuns) {
+            workerRuns.add(agentRun);
+        }
+        agentRun.emit(AgentEvent.of(AgentEventType.SUBTASK_START, agentRun, task.description()));
+        StringBuilder prompt = new StringBuilder()
+                .append("Overall goal: ").append(goal).append("\n\n")
+                .append("Your subtask (").append(task.id()).append("): ").append(task.description());
+        dependencyResults.forEach((id, result) ->
+                prompt.append("\n\nResult of subtask ").append(id).append(":\n").append(result));
+        String result;
+        try {
+            worker.execute(agentRun, prompt.toString());
+            result = finalAnswer(agentRun);
+        } catch (Exception e) {
+            log.error("子任务 {} 执行失败", task.id(), e);
+            result = "子任务执行失败: " + e.getMessage();
+        }
+        result = StrUtil.maxLength(result, maxResultChars);
+        agentRun.emit(AgentEvent.of(AgentEventType.SUBTASK_END, agentRun, result));
+        return result;
+    }
+
+    /**
+     * 子任务结果：最后一条有文本的助手消息
+     */
+    private String finalAnswer(AgentRun agentRun) {
+        if (agentRun.getState() == AgentState.CANCELLED) {
+            return "子任务已取消";
+        }
+        List<Message> messages = agentRun.getMessageList();
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i) instanceof AssistantMessage assistantMessage
+                    && StrUtil.isNotBlank(assistantMessage.getText())) {
+                return assistantMessage.getText();
+            }
+        }
+        return "子任务没有给出结果";
+    }
+
+    private String await(Future<String> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            return "子任务执行失败: " + cause.getMessage();
+        }
+    }
+
+    private String describe(TaskPlan plan) {
+        return plan.tasks().stream()
+                .map(task -> task.id() + ": " + task.description()
+                        + (task.dependsOn().isEmpty() ? "" : "（依赖 " + String.join(", ", task.dependsOn()) + "）"))
+                .collect(Collectors.joining("\n"));
+    }
+
+    private String buildMergePrompt(String goal, TaskPlan plan, Map<String, String> results) {
+        StringBuilder prompt = new StringBuilder()
+                .append("The following subtasks of the user's goal have been completed by worker agents.\n")
+                .append("User goal: ").append(goal).append("\n");
+        for (TaskPlan.SubTask task : plan.tasks()) {
+            prompt.append("\n## ").append(task.id()).append(": ").append(task.description()).append("\n")
+                    .append(results.get(task.id())).append("\n");
+        }
+        prompt.append("""
+
+                Merge these results into the final answer for the user. Do not redo the subtasks. \
+                If the user asked for a PDF or document, generate it with the PDF tool. \
+                Then call the `doTerminate` tool.""");
+        return prompt.toString();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,214 @@
+package com.yunhao.superai.agent;
+
+import com.yunhao.superai.agent.model.PendingToolCall;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.tool.ToolCallback;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 并行工具执行器
+ *
+ * 模型在同一步中返回的多个工具调用彼此独立，这里把它们同时提交到虚拟线程上执行，
+ * 每个调用单独限时，结果按照原始调用顺序组装回 ToolResponseMessage。
+ * 调用也可以在模型仍在流式输出时提前提交（{@link #submit}），收集结果时再按 ID 复用。
+ */
+@Slf4j
+public class ParallelToolExecutor {
+
+    // 单个工具调用的默认超时时间
+    public static final Duration DEFAULT_TOOL_CALL_TIMEOUT = Duration.ofSeconds(60);
+
+    // 工具名称 -> 工具回调
+    private final Map<String, ToolCallback> toolCallbackMap = new HashMap<>();
+
+    // 单个工具调用的超时时间
+    private final Duration toolCallTimeout;
+
+    // 每个工具调用一个虚拟线程，阻塞在网络 IO 上也不会占用平台线程
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public ParallelToolExecutor(ToolCallback[] toolCallbacks, Duration toolCallTimeout) {
+        for (ToolCallback toolCallback : toolCallbacks) {
+            toolCallbackMap.put(toolCallback.getToolDefinition().name(), toolCallback);
+        }
+        this.toolCallTimeout = toolCallTimeout;
+    }
+
+    /**
+     * 并行执行一组工具调用
+     *
+     * @param toolCalls 模型返回的工具调用列表
+     * @return 按原始顺序排列的工具响应消息
+     */
+    public ToolResponseMessage execute(List<AssistantMessage.ToolCall> toolCalls) {
+        return execute(toolCalls, ToolCallListener.NOOP);
+    }
+
+    /**
+     * 并行执行一组工具调用，并在每个调用开始和结束时通知监听器
+     *
+     * @param toolCalls 模型返回的工具调用列表
+     * @param listener  工具调用监听器
+     * @return 按原始顺序排列的工具响应消息
+     */
+    public ToolResponseMessage execute(List<AssistantMessage.ToolCall> toolCalls, ToolCallListener listener) {
+        return execute(toolCalls, new HashMap<>(), listener);
+    }
+
+    /**
+     * 执行一组工具调用，已经提前提交的调用直接等待其结果，其余的调用现在提交
+     *
+     * @param toolCalls       模型返回的完整工具调用列表
+     * @param pendingToolCalls 已经提前提交的调用（工具调用 ID -> 调用），收集后会被清空
+     * @param listener        工具调用监听器
+     * @return 按原始顺序排列的工具响应消息
+     */
+    public ToolResponseMessage execute(List<AssistantMessage.ToolCall> toolCalls,
+                                       Map<String, PendingToolCall> pendingToolCalls,
+                                       ToolCallListener listener) {
+        // 同时提交所有尚未开始的调用
+        List<PendingToolCall> pendings = new ArrayList<>(toolCalls.size());
+        for (AssistantMessage.ToolCall toolCall : toolCalls) {
+            PendingToolCall pending = pendingToolCalls.remove(toolCall.id());
+            if (pending == null || !pending.toolCall().equals(toolCall)) {
+                if (pending != null) {
+                    pending.future().cancel(true);
+                }
+                pending = submit(toolCall, listener);
+            }
+            pendings.add(pending);
+        }
+        // 提前提交、但最终响应中没有的调用不再需要
+        cancelAll(pendingToolCalls);
+        List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>(toolCalls.size());
+        for (int i = 0; i < toolCalls.size(); i++) {
+            AssistantMessage.ToolCall toolCall = toolCalls.get(i);
+            Future<ToolResponseMessage.ToolResponse> future = pendings.get(i).future();
+            try {
+                // 超时从每个调用各自的提交时间开始计算
+                long deadline = pendings.get(i).startNanos() + toolCallTimeout.toNanos();
+                long remaining = Math.max(0, deadline - System.nanoTime());
+                responses.add(future.get(remaining, TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                listener.onAbort(toolCall, "timeout", elapsedMs(pendings.get(i)));
+                log.warn("工具 {} 执行超时（{} 秒）", toolCall.name(), toolCallTimeout.toSeconds());
+                responses.add(errorResponse(toolCall,
+                        "Error: tool call timed out after " + toolCallTimeout.toSeconds() + " seconds"));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                log.error("工具 {} 执行失败", toolCall.name(), cause);
+                responses.add(errorResponse(toolCall, "Error executing tool: " + cause.getMessage()));
+            } catch (InterruptedException e) {
+                // 当前线程被中断时，取消所有尚未完成的调用
+                for (int j = i; j < pendings.size(); j++) {
+                    PendingToolCall pending = pendings.get(j);
+                    if (pending.future().cancel(true)) {
+                        listener.onAbort(pending.toolCall(), "cancelled", elapsedMs(pending));
+                    }
+                }
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("工具调用被中断", e);
+            }
+        }
+        return new ToolResponseMessage(responses, Map.of());
+    }
+
+    /**
+     * 立即提交单个工具调用，不等待结果
+     *
+     * @param toolCall 参数已经完整的工具调用
+     * @param listener 工具调用监听器
+     * @return 已提交的调用
+     */
+    public PendingToolCall submit(AssistantMessage.ToolCall toolCall, ToolCallListener listener) {
+        long startNanos = System.nanoTime();
+        return new PendingToolCall(toolCall, executor.submit(() -> invoke(toolCall, listener)), startNanos);
+    }
+
+    /**
+     * 取消并清空所有已提交的调用
+     */
+    public void cancelAll(Map<String, PendingToolCall> pendingToolCalls) {
+        pendingToolCalls.values().forEach(pending -> pending.future().cancel(true));
+        pendingToolCalls.clear();
+    }
+
+    /**
+     * 执行单个工具调用
+     */
+    private ToolResponseMessage.ToolResponse invoke(AssistantMessage.ToolCall toolCall, ToolCallListener listener) {
+        ToolCallback toolCallback = toolCallbackMap.get(toolCall.name());
+        if (toolCallback == null) {
+            return errorResponse(toolCall, "Error: tool " + toolCall.name() + " not found");
+        }
+        listener.onStart(toolCall);
+        long start = System.currentTimeMillis();
+        String result;
+        try {
+            result = toolCallback.call(toolCall.arguments());
+        } catch (RuntimeException | Error e) {
+            listener.onEnd(toolCall, "Error executing tool: " + e.getMessage(), System.currentTimeMillis() - start);
+            throw e;
+        }
+        long costMs = System.currentTimeMillis() - start;
+        log.info("工具 {} 执行完成，耗时 {} ms", toolCall.name(), costMs);
+        listener.onEnd(toolCall, result, costMs);
+        return new ToolResponseMessage.ToolResponse(toolCall.id(), toolCall.name(), result);
+    }
+
+    private long elapsedMs(PendingToolCall pending) {
+        return (System.nanoTime() - pending.startNanos()) / 1_000_000;
+    }
+
+    private ToolResponseMessage.ToolResponse errorResponse(AssistantMessage.ToolCall toolCall, String message) {
+        return new ToolResponseMessage.ToolResponse(toolCall.id(), toolCall.name(), message);
+    }
+
+    /**
+     * 工具调用监听器，除 onAbort 外的回调在执行工具的虚拟线程上触发
+     */
+    public interface ToolCallListener {
+
+        ToolCallListener NOOP = new ToolCallListener() {
+        };
+
+        /**
+         * 工具调用开始
+         */
+        default void onStart(AssistantMessage.ToolCall toolCall) {
+        }
+
+        /**
+         * 工具调用结束
+         *
+         * @param result 工具返回的结果
+         * @param costMs 耗时（毫秒）
+         */
+        default void onEnd(AssistantMessage.ToolCall toolCall, String result, long costMs) {
+        }
+
+        /**
+         * 工具调用超时或被取消，不再等待它的结果；工具忽略中断继续执行时，之后仍可能触发 onEnd
+         * 该回调在收集结果的线程上触发
+         *
+         * @param outcome timeout 或 cancelled
+         * @param costMs  从提交到放弃的耗时（毫秒）
+         */
+        default void onAbort(AssistantMessage.ToolCall toolCall, String outcome, long costMs) {
+        }
+    }
+}
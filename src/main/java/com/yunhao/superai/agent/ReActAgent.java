@@ -1,7 +1,11 @@
 package com.yunhao.superai.agent;
 
+import com.yunhao.superai.agent.model.AgentRun;
+import com.yunhao.superai.agent.model.AgentState;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.UserMessage;
 
 /**
  * ReAct (Reasoning and Acting) 模式的代理抽象类
@@ -9,40 +13,95 @@ import lombok.EqualsAndHashCode;
  */
 @EqualsAndHashCode(callSuper = true)
 @Data
+@Slf4j
 public abstract class ReActAgent extends BaseAgent {
 
+    // 无需行动的步骤使用同一个指纹，连续多步不行动也不结束会被视为停滞
+    private static final String NO_ACTION_FINGERPRINT = "no-action";
+
+    // 循环检测器，为空时不检测
+    private LoopDetector loopDetector = new LoopDetector();
+
     /**
      * 处理当前状态并决定下一步行动
      *
+     * @param agentRun 当前运行的上下文
      * @return 是否需要执行行动，true表示需要执行，false表示不需要执行
      */
-    public abstract boolean think();
+    public abstract boolean think(AgentRun agentRun);
 
     /**
      * 执行决定的行动
      *
+     * @param agentRun 当前运行的上下文
      * @return 行动执行结果
      */
-    public abstract String act();
+    public abstract String act(AgentRun agentRun);
 
     /**
      * 执行单个步骤：思考和行动
      *
+     * @param agentRun 当前运行的上下文
      * @return 步骤执行结果
      */
     @Override
-    public String step() {
+    public String step(AgentRun agentRun) {
         try {
-            boolean shouldAct = think();
+            boolean shouldAct = think(agentRun);
             if (!shouldAct) {
-                return "思考完成 - 无需行动";
+                return checkLoop(agentRun, NO_ACTION_FINGERPRINT, "思考完成 - 无需行动");
             }
-            return act();
+            String result = act(agentRun);
+            return checkLoop(agentRun, stepFingerprint(agentRun, result), result);
         } catch (Exception e) {
             // 记录异常日志
             e.printStackTrace();
             return "步骤执行失败: " + e.getMessage();
         }
     }
+
+    /**
+     * 计算一步的指纹，子类可以加入工具调用的参数等信息
+     *
+     * @param agentRun 当前运行的上下文
+     * @param result   行动执行结果
+     * @return 指纹
+     */
+    protected String stepFingerprint(AgentRun agentRun, String result) {
+        return result;
+    }
+
+    /**
+     * 循环检测：重复时注入纠正提示，提示之后仍然重复则提前结束运行
+     */
+    private String checkLoop(AgentRun agentRun, String fingerprint, String result) {
+        if (loopDetector == null || agentRun.getState() != AgentState.RUNNING) {
+            return result;
+        }
+        switch (loopDetector.check(agentRun, fingerprint)) {
+            case WARN -> {
+                log.warn("运行 {} 在第 {} 步出现重复，注入纠正提示", agentRun.getRunId(), agentRun.getCurrentStep());
+                agentRun.getMessageList().add(new UserMessage(LoopDetector.CORRECTIVE_PROMPT));
+                return result + "\n检测到重复的步骤，已提示更换方法";
+            }
+            case STOP -> {
+                // 按已完成步骤的平均消耗估算剩余步骤本会消耗的 token
+                int avoidedSteps = Math.max(getMaxSteps() - agentRun.getCurrentStep(), 0);
+                long avoidedTokens = agentRun.getConsumedTokens() / Math.max(agentRun.getCurrentStep(), 1) * avoidedSteps;
+                agentRun.setLoopAvoidedSteps(avoidedSteps);
+                agentRun.setLoopAvoidedTokens(avoidedTokens);
+                agentRun.setState(AgentState.FINISHED);
+                if (getExecutionService() != null) {
+                    getExecutionService().recordLoopStop(avoidedSteps, avoidedTokens);
+                }
+                log.warn("运行 {} 在第 {} 步仍然重复，提前结束，避免了 {} 步，约 {} tokens",
+                        agentRun.getRunId(), agentRun.getCurrentStep(), avoidedSteps, avoidedTokens);
+                return result + "\n检测到重复的步骤，提前结束运行（避免了 " + avoidedSteps + " 步，约 " + avoidedTokens + " tokens）";
+            }
+            default -> {
+                return result;
+            }
+        }
+    }
 }
 
@@ -0,0 +1,134 @@
+package com.yunhao.superai.agent;
+
+import cn.hutool.core.util.StrUtil;
+import com.yunhao.superai.agent.model.TaskPlan;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 任务规划器
+ *
+ * 让大模型把用户目标拆分为子任务 DAG，并校验 ID 唯一、依赖存在、没有环。
+ * 规划失败或结果不合法时退化为只有一个子任务的规划，等价于单智能体执行。
+ */
+@Slf4j
+public class TaskPlanner {
+
+    private static final String PLANNER_PROMPT = """
+            You are a planner. Break the user's goal into independent subtasks that worker agents can execute in parallel.
+            Rules:
+            - Each subtask must be self-contained and executable with web search, web scraping, file and terminal tools.
+            - Only add a dependency when a subtask really needs another subtask's result; maximize parallelism.
+            - Do NOT include a final subtask for merging results, writing the final report or generating a PDF; \
+            that is done automatically after all subtasks finish.
+            - Use at most %d subtasks with ids t1, t2, ...; use an empty dependsOn list when there is no dependency.
+            """;
+
+    private final ChatClient chatClient;
+
+    private final int maxTasks;
+
+    public TaskPlanner(ChatClient chatClient, int maxTasks) {
+        this.chatClient = chatClient;
+        this.maxTasks = maxTasks;
+    }
+
+    /**
+     * 规划子任务
+     *
+     * @param goal 用户目标
+     * @return 按拓扑顺序排列的子任务规划
+     */
+    public TaskPlan plan(String goal) {
+        try {
+            TaskPlan plan = chatClient.prompt()
+                    .system(PLANNER_PROMPT.formatted(maxTasks))
+                    .user(goal)
+                    .call()
+                    .entity(TaskPlan.class);
+            TaskPlan sorted = sort(plan, maxTasks);
+            log.info("任务规划完成：{} 个子任务，关键路径长度 {}", sorted.tasks().size(), criticalPathLength(sorted));
+            return sorted;
+        } catch (Exception e) {
+            log.warn("任务规划失败，退化为单个子任务: {}", e.getMessage());
+            return new TaskPlan(List.of(new TaskPlan.SubTask("t1", goal, List.of())));
+        }
+    }
+
+    /**
+     * 校验规划并按拓扑顺序排序（依赖总是排在被依赖者之前）
+     *
+     * @throws IllegalArgumentException 规划为空、超出数量、ID 重复、依赖不存在或存在环
+     */
+    static TaskPlan sort(TaskPlan plan, int maxTasks) {
+        if (plan == null || plan.tasks() == null || plan.tasks().isEmpty()) {
+            throw new IllegalArgumentException("规划为空");
+        }
+        if (plan.tasks().size() > maxTasks) {
+            throw new IllegalArgumentException("子任务数量超出上限: " + plan.tasks().size());
+        }
+        Map<String, TaskPlan.SubTask> tasks = new LinkedHashMap<>();
+        for (TaskPlan.SubTask task : plan.tasks()) {
+            if (StrUtil.isBlank(task.id()) || StrUtil.isBlank(task.description())) {
+                throw new IllegalArgumentException("子任务缺少 ID 或描述");
+            }
+            List<String> dependsOn = task.dependsOn() == null ? List.of() : task.dependsOn();
+            if (tasks.put(task.id(), new TaskPlan.SubTask(task.id(), task.description(), dependsOn)) != null) {
+                throw new IllegalArgumentException("子任务 ID 重复: " + task.id());
+            }
+        }
+        // Kahn 算法拓扑排序
+        Map<String, Integer> inDegree = new HashMap<>();
+        Map<String, List<String>> dependents = new HashMap<>();
+        for (TaskPlan.SubTask task : tasks.values()) {
+            inDegree.putIfAbsent(task.id(), 0);
+            for (String dependency : task.dependsOn()) {
+                if (!tasks.containsKey(dependency)) {
+                    throw new IllegalArgumentException("子任务 " + task.id() + " 依赖不存在的子任务 " + dependency);
+                }
+                inDegree.merge(task.id(), 1, Integer::sum);
+                dependents.computeIfAbsent(dependency, k -> new ArrayList<>()).add(task.id());
+            }
+        }
+        Deque<String> ready = new ArrayDeque<>();
+        tasks.keySet().stream().filter(id -> inDegree.get(id) == 0).forEach(ready::add);
+        List<TaskPlan.SubTask> sorted = new ArrayList<>();
+        while (!ready.isEmpty()) {
+            String id = ready.poll();
+            sorted.add(tasks.get(id));
+            for (String dependent : dependents.getOrDefault(id, List.of())) {
+                if (inDegree.merge(dependent, -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        if (sorted.size() != tasks.size()) {
+            throw new IllegalArgumentException("子任务之间存在循环依赖");
+        }
+        return new TaskPlan(sorted);
+    }
+
+    /**
+     * 关键路径长度：最长的依赖链上的子任务数量，决定了多智能体模式的端到端耗时
+     *
+     * @param sortedPlan 按拓扑顺序排列的规划
+     */
+    static int criticalPathLength(TaskPlan sortedPlan) {
+        Map<String, Integer> depth = new HashMap<>();
+        int max = 0;
+        for (TaskPlan.SubTask task : sortedPlan.tasks()) {
+            int d = 1 + task.dependsOn().stream().mapToInt(depth::get).max().orElse(0);
+            depth.put(task.id(), d);
+            max = Math.max(max, d);
+        }
+        return max;
+    }
+}
@@ -0,0 +1,101 @@
+package com.yunhao.superai.agent;
+
+import cn.hutool.core.util.StrUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.ai.chat.messages.AssistantMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 流式响应中的工具调用累加器
+ *
+ * 模型流式输出时，一个工具调用的参数可能分散在多个片段中：第一个片段带有 ID 和名称，
+ * 后续片段只带参数的一部分；也可能已经由下层合并成完整的调用。这里把两种情况统一合并，
+ * 参数能解析为完整 JSON 时即认为该调用已经完整，可以提前开始执行。
+ */
+public class ToolCallAccumulator {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * 合并一个流式片段中的工具调用
+     */
+    public void add(List<AssistantMessage.ToolCall> fragments) {
+        for (AssistantMessage.ToolCall fragment : fragments) {
+            String arguments = StrUtil.nullToEmpty(fragment.arguments());
+            Entry entry = StrUtil.isEmpty(fragment.id()) ? last() : find(fragment.id());
+            if (entry == null) {
+                entries.add(new Entry(fragment.id(), fragment.type(), fragment.name(), arguments));
+            } else if (StrUtil.isNotEmpty(fragment.name()) && isCompleteJson(arguments)) {
+                // 已经合并好的完整调用，直接替换
+                entry.name = fragment.name();
+                entry.arguments = new StringBuilder(arguments);
+            } else {
+                if (StrUtil.isNotEmpty(fragment.name())) {
+                    entry.name = fragment.name();
+                }
+                entry.arguments.append(arguments);
+            }
+        }
+    }
+
+    /**
+     * 当前所有的工具调用，按出现顺序排列
+     */
+    public List<AssistantMessage.ToolCall> toolCalls() {
+        return entries.stream().map(Entry::toToolCall).toList();
+    }
+
+    /**
+     * 参数已经完整的工具调用
+     */
+    public List<AssistantMessage.ToolCall> completedToolCalls() {
+        return entries.stream()
+                .filter(entry -> StrUtil.isNotEmpty(entry.id) && StrUtil.isNotEmpty(entry.name)
+                        && isCompleteJson(entry.arguments.toString()))
+                .map(Entry::toToolCall)
+                .toList();
+    }
+
+    private Entry find(String id) {
+        return entries.stream().filter(entry -> id.equals(entry.id)).findFirst().orElse(null);
+    }
+
+    private Entry last() {
+        return entries.isEmpty() ? null : entries.get(entries.size() - 1);
+    }
+
+    private static boolean isCompleteJson(String arguments) {
+        if (StrUtil.isBlank(arguments)) {
+            return false;
+        }
+        try {
+            OBJECT_MAPPER.readTree(arguments);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static class Entry {
+
+        private final String id;
+        private final String type;
+        private String name;
+        private StringBuilder arguments;
+
+        private Entry(String id, String type, String name, String arguments) {
+            this.id = id;
+            this.type = type;
+            this.name = name;
+            this.arguments = new StringBuilder(arguments);
+        }
+
+        private AssistantMessage.ToolCall toToolCall() {
+            return new AssistantMessage.ToolCall(id, StrUtil.blankToDefault(type, "function"), name, arguments.toString());
+        }
+    }
+}
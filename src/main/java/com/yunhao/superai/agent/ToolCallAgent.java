@@ -1,8 +1,14 @@
 package com.yunhao.superai.agent;
 
-import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.StrUtil;
 import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
+import com.yunhao.superai.agent.model.AgentEvent;
+import com.yunhao.superai.agent.model.AgentEventType;
+import com.yunhao.superai.agent.model.AgentRun;
 import com.yunhao.superai.agent.model.AgentState;
+import com.yunhao.superai.tools.SpillingToolCallback;
+import com.yunhao.superai.tools.ToolResultCache;
+import com.yunhao.superai.utils.TokenEstimator;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.extern.slf4j.Slf4j;
@@ -10,18 +16,23 @@ import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.ToolResponseMessage;
 import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.metadata.Usage;
 import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
 import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.ai.chat.prompt.Prompt;
-import org.springframework.ai.model.tool.ToolCallingManager;
-import org.springframework.ai.model.tool.ToolExecutionResult;
 import org.springframework.ai.tool.ToolCallback;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 /**
  * 处理工具调用的基础代理类，具体实现了 think 和 act 方法，可以用作创建实例的父类
+ * 工具、执行器和对话选项只在构造时创建一次，之后在所有运行之间共享
  */
 @EqualsAndHashCode(callSuper = true)
 @Data
@@ -31,19 +42,29 @@ public class ToolCallAgent extends ReActAgent {
     // 可用的工具
     private final ToolCallback[] availableTools;
 
-    // 保存了工具调用信息的响应
-    private ChatResponse toolCallChatResponse;
-
-    // 工具调用管理者
-    private final ToolCallingManager toolCallingManager;
+    // 并行工具执行器，同一步中的多个工具调用同时执行
+    private final ParallelToolExecutor parallelToolExecutor;
 
     // 禁用内置的工具调用机制，自己维护上下文
     private final ChatOptions chatOptions;
 
+    // 上下文压缩器，控制每一步发送的提示词长度
+    private ContextCompactor contextCompactor = new ContextCompactor(ContextCompactor.DEFAULT_TOKEN_BUDGET);
+
+    // 模型不再调用工具、直接给出回答时结束运行（子任务的工作智能体使用，回答即为子任务结果）
+    private boolean finishWhenNoToolCall = false;
+
+    // 推送给前端的工具结果预览长度
+    private static final int TOOL_RESULT_PREVIEW_LENGTH = 500;
+
     public ToolCallAgent(ToolCallback[] availableTools) {
+        this(availableTools, ParallelToolExecutor.DEFAULT_TOOL_CALL_TIMEOUT);
+    }
+
+    public ToolCallAgent(ToolCallback[] availableTools, Duration toolCallTimeout) {
         super();
         this.availableTools = availableTools;
-        this.toolCallingManager = ToolCallingManager.builder().build();
+        this.parallelToolExecutor = new ParallelToolExecutor(availableTools, toolCallTimeout);
         // 禁用 Spring AI 内置的工具调用机制，自己维护选项和消息上下文
         this.chatOptions = DashScopeChatOptions.builder()
                 .withInternalToolExecutionEnabled(false)
@@ -54,29 +75,76 @@ public class ToolCallAgent extends ReActAgent {
     /**
      * 处理当前状态并决定下一步行动
      *
+     * @param agentRun 当前运行的上下文
      * @return 是否需要执行行动
      */
     @Override
-    public boolean think() {
+    public boolean think(AgentRun agentRun) {
+        // 压缩上下文，控制提示词长度
+        ContextCompactor.CompactionResult compaction = contextCompactor.compact(agentRun.getMessageList());
+        if (compaction.savedTokens() > 0) {
+            agentRun.setMessageList(compaction.messages());
+            agentRun.setCompactedTokens(agentRun.getCompactedTokens() + compaction.savedTokens());
+            log.info("上下文压缩：{} -> {} tokens", compaction.beforeTokens(), compaction.afterTokens());
+        }
+        agentRun.setCompactionSavedTokens(agentRun.getCompactionSavedTokens() + agentRun.getCompactedTokens());
+        // 下一步提示只追加到本次请求中，不写入上下文，避免每一步重复累积
+        List<Message> messageList = new ArrayList<>(agentRun.getMessageList());
         if (getNextStepPrompt() != null && !getNextStepPrompt().isEmpty()) {
-            UserMessage userMessage = new UserMessage(getNextStepPrompt());
-            getMessageList().add(userMessage);
+            messageList.add(new UserMessage(getNextStepPrompt()));
         }
-        List<Message> messageList = getMessageList();
         Prompt prompt = new Prompt(messageList, chatOptions);
+        getTracer().thinkStarted(agentRun);
         try {
-            // 获取带工具选项的响应
-            ChatResponse chatResponse = getChatClient().prompt(prompt)
+            // 流式获取带工具选项的响应，模型输出的文本片段实时推送
+            StringBuilder text = new StringBuilder();
+            ToolCallAccumulator toolCallAccumulator = new ToolCallAccumulator();
+            // 模型返回的 token 用量，通常在最后一个片段中
+            AtomicReference<Usage> usage = new AtomicReference<>();
+            ParallelToolExecutor.ToolCallListener toolCallListener = toolCallEventListener(agentRun);
+            getChatClient().prompt(prompt)
                     .system(getSystemPrompt())
                     .toolCallbacks(availableTools)
-                    .call()
-                    .chatResponse();
-            // 记录响应，用于 Act
-            this.toolCallChatResponse = chatResponse;
-            AssistantMessage assistantMessage = chatResponse.getResult().getOutput();
+                    .stream()
+                    .chatResponse()
+                    .doOnNext(chunk -> {
+                        if (chunk.getMetadata() != null && chunk.getMetadata().getUsage() != null
+                                && chunk.getMetadata().getUsage().getTotalTokens() != null
+                                && chunk.getMetadata().getUsage().getTotalTokens() > 0) {
+                            usage.set(chunk.getMetadata().getUsage());
+                        }
+                        if (chunk.getResult() == null) {
+                            return;
+                        }
+                        AssistantMessage output = chunk.getResult().getOutput();
+                        if (StrUtil.isNotEmpty(output.getText())) {
+                            text.append(output.getText());
+                            agentRun.emit(AgentEvent.of(AgentEventType.THINK_TOKEN, agentRun, output.getText()));
+                        }
+                        if (output.hasToolCalls()) {
+                            toolCallAccumulator.add(output.getToolCalls());
+                            // 参数已经完整的调用立即开始执行，和模型后续的输出重叠
+                            for (AssistantMessage.ToolCall toolCall : toolCallAccumulator.completedToolCalls()) {
+                                agentRun.getPendingToolCalls().computeIfAbsent(toolCall.id(),
+                                        id -> parallelToolExecutor.submit(toolCall, toolCallListener));
+                            }
+                        }
+                    })
+                    // 执行线程被中断（运行被取消）时，blockLast 会取消订阅，正在进行的 HTTP 请求随之中止
+                    .blockLast();
+            List<AssistantMessage.ToolCall> toolCallList = toolCallAccumulator.toolCalls();
+            // 聚合完整的助手消息，记录响应，用于 Act
+            AssistantMessage assistantMessage = new AssistantMessage(text.toString(), Map.of(), toolCallList);
+            // 优先使用模型返回的用量，没有时按估算值计算
+            long promptTokens = usage.get() != null && usage.get().getPromptTokens() != null
+                    ? usage.get().getPromptTokens() : TokenEstimator.estimate(messageList);
+            long completionTokens = usage.get() != null && usage.get().getCompletionTokens() != null
+                    ? usage.get().getCompletionTokens() : TokenEstimator.estimate(assistantMessage);
+            agentRun.setConsumedTokens(agentRun.getConsumedTokens() + promptTokens + completionTokens);
+            getTracer().thinkEnded(agentRun, promptTokens, completionTokens, null);
+            agentRun.setToolCallChatResponse(new ChatResponse(List.of(new Generation(assistantMessage))));
             // 输出提示信息
             String result = assistantMessage.getText();
-            List<AssistantMessage.ToolCall> toolCallList = assistantMessage.getToolCalls();
             log.info(getName() + "的思考: " + result);
             log.info(getName() + "选择了 " + toolCallList.size() + " 个工具来使用");
             String toolCallInfo = toolCallList.stream()
@@ -88,15 +156,21 @@ public class ToolCallAgent extends ReActAgent {
             log.info(toolCallInfo);
             if (toolCallList.isEmpty()) {
                 // 只有不调用工具时，才记录助手消息
-                getMessageList().add(assistantMessage);
+                agentRun.getMessageList().add(assistantMessage);
+                if (finishWhenNoToolCall && StrUtil.isNotBlank(assistantMessage.getText())) {
+                    agentRun.setState(AgentState.FINISHED);
+                }
                 return false;
             } else {
-                // 需要调用工具时，无需记录助手消息，因为调用工具时会自动记录
+                // 需要调用工具时，助手消息在 act 中和工具结果一起记录
                 return true;
             }
         } catch (Exception e) {
+            getTracer().thinkEnded(agentRun, 0, 0, e);
+            // 思考失败时，提前开始的工具调用不再需要
+            parallelToolExecutor.cancelAll(agentRun.getPendingToolCalls());
             log.error(getName() + "的思考过程遇到了问题: " + e.getMessage());
-            getMessageList().add(
+            agentRun.getMessageList().add(
                     new AssistantMessage("处理时遇到错误: " + e.getMessage()));
             return false;
         }
@@ -105,20 +179,22 @@ public class ToolCallAgent extends ReActAgent {
     /**
      * 执行工具调用并处理结果
      *
+     * @param agentRun 当前运行的上下文
      * @return 执行结果
      */
     @Override
-    public String act() {
+    public String act(AgentRun agentRun) {
+        ChatResponse toolCallChatResponse = agentRun.getToolCallChatResponse();
         if (!toolCallChatResponse.hasToolCalls()) {
             return "没有工具调用";
         }
-        // 调用工具
-        Prompt prompt = new Prompt(getMessageList(), chatOptions);
-        ToolExecutionResult toolExecutionResult = toolCallingManager.executeToolCalls(prompt, toolCallChatResponse);
-        // 记录消息上下文，conversationHistory 已经包含了助手消息和工具调用返回的结果
-        setMessageList(toolExecutionResult.conversationHistory());
-        // 当前工具调用的结果
-        ToolResponseMessage toolResponseMessage = (ToolResponseMessage) CollUtil.getLast(toolExecutionResult.conversationHistory());
+        // 并行调用工具（复用思考时已经开始的调用），结果按原始调用顺序返回
+        AssistantMessage assistantMessage = toolCallChatResponse.getResult().getOutput();
+        ToolResponseMessage toolResponseMessage = parallelToolExecutor.execute(
+                assistantMessage.getToolCalls(), agentRun.getPendingToolCalls(), toolCallEventListener(agentRun));
+        // 记录消息上下文：助手消息和工具调用返回的结果
+        agentRun.getMessageList().add(assistantMessage);
+        agentRun.getMessageList().add(toolResponseMessage);
         String results = toolResponseMessage.getResponses().stream()
                 .map(response -> "工具 " + response.name() + " 完成了它的任务！结果: " + response.responseData())
                 .collect(Collectors.joining("\n"));
@@ -126,11 +202,47 @@ public class ToolCallAgent extends ReActAgent {
         boolean terminateToolCalled = toolResponseMessage.getResponses().stream()
                 .anyMatch(response -> "doTerminate".equals(response.name()));
         if (terminateToolCalled) {
-            setState(AgentState.FINISHED);
+            agentRun.setState(AgentState.FINISHED);
         }
         log.info(results);
         return results;
 
     }
 
+    /**
+     * 步骤指纹：工具名称、规范化后的参数和工具结果（不比较溢出结果的句柄）
+     */
+    @Override
+    protected String stepFingerprint(AgentRun agentRun, String result) {
+        String toolCalls = agentRun.getToolCallChatResponse().getResult().getOutput().getToolCalls().stream()
+                .map(toolCall -> toolCall.name() + ":" + ToolResultCache.canonicalize(toolCall.arguments()))
+                .collect(Collectors.joining("\n"));
+        return toolCalls + "\n" + SpillingToolCallback.stripArtifactHandles(result);
+    }
+
+    /**
+     * 把工具调用的开始和结束发布为运行事件
+     */
+    private ParallelToolExecutor.ToolCallListener toolCallEventListener(AgentRun agentRun) {
+        return new ParallelToolExecutor.ToolCallListener() {
+            @Override
+            public void onStart(AssistantMessage.ToolCall toolCall) {
+                getTracer().toolStarted(agentRun, toolCall);
+                agentRun.emit(AgentEvent.ofTool(AgentEventType.TOOL_CALL_START, agentRun,
+                        toolCall.id(), toolCall.name(), toolCall.arguments()));
+            }
+
+            @Override
+            public void onEnd(AssistantMessage.ToolCall toolCall, String result, long costMs) {
+                getTracer().toolEnded(agentRun, toolCall, result, costMs);
+                agentRun.emit(AgentEvent.ofTool(AgentEventType.TOOL_CALL_END, agentRun,
+                        toolCall.id(), toolCall.name(), StrUtil.maxLength(result, TOOL_RESULT_PREVIEW_LENGTH)));
+            }
+
+            @Override
+            public void onAbort(AssistantMessage.ToolCall toolCall, String outcome, long costMs) {
+                getTracer().toolAborted(agentRun, toolCall, outcome, costMs);
+            }
+        };
+    }
 }
@@ -5,12 +5,19 @@ import com.yunhao.superai.advisor.MyLoggerAdvisor;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.tool.ToolCallback;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+/**
+ * YunManus 超级智能体
+ * 作为单例 Bean，ChatClient、工具和对话选项只构建一次，所有请求共享同一个实例
+ */
 @Component
 public class YunManus extends ToolCallAgent {
 
-    public YunManus(ToolCallback[] allTools, ChatModel dashscopeChatModel) {
+    public YunManus(ToolCallback[] allTools, ChatModel dashscopeChatModel, AgentExecutionService agentExecutionService,
+                    AgentCheckpointStore agentCheckpointStore, AgentTracer agentTracer,
+                    @Value("${agent.context.token-budget:24000}") int contextTokenBudget) {
         super(allTools);
         this.setName("yunManus");
         String SYSTEM_PROMPT = """  
@@ -26,11 +33,15 @@ public class YunManus extends ToolCallAgent {
                 """;
         this.setNextStepPrompt(NEXT_STEP_PROMPT);
         this.setMaxSteps(20);
+        this.setContextCompactor(new ContextCompactor(contextTokenBudget));
         // 初始化客户端
         ChatClient chatClient = ChatClient.builder(dashscopeChatModel)
                 .defaultAdvisors(new MyLoggerAdvisor())
                 .build();
         this.setChatClient(chatClient);
+        this.setExecutionService(agentExecutionService);
+        this.setCheckpointStore(agentCheckpointStore);
+        this.setTracer(agentTracer);
     }
 }
 
@@ -0,0 +1,35 @@
+package com.yunhao.superai.agent.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 代理运行的检查点，记录最后一个已完成步骤之后的状态
+ */
+@Data
+@NoArgsConstructor
+public class AgentCheckpoint {
+
+    // 运行 ID
+    private String runId;
+
+    // 代理名称，恢复时校验
+    private String agentName;
+
+    // 最后一个已完成的步骤
+    private int completedStep;
+
+    // 消息上下文
+    private List<Message> messageList = new ArrayList<>();
+
+    // 上下文压缩统计
+    private long compactedTokens;
+    private long compactionSavedTokens;
+
+    // 检查点时间
+    private long savedAt;
+}
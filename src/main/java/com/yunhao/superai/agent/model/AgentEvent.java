@@ -0,0 +1,58 @@
+package com.yunhao.superai.agent.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 代理运行过程中产生的事件，用于流式推送给前端
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class AgentEvent {
+
+    // 事件类型
+    private AgentEventType type;
+
+    // 运行 ID
+    private String runId;
+
+    // 所在步骤
+    private int step;
+
+    // 事件内容：文本片段、步骤结果、工具结果或错误信息
+    private String content;
+
+    // 工具调用 ID（仅工具事件）
+    private String toolCallId;
+
+    // 工具名称（仅工具事件）
+    private String toolName;
+
+    // 子任务 ID（仅多智能体模式下的子任务事件和子任务内部的事件）
+    private String taskId;
+
+    public static AgentEvent of(AgentEventType type, AgentRun agentRun, String content) {
+        return AgentEvent.builder()
+                .type(type)
+                .runId(agentRun.getRunId())
+                .step(agentRun.getCurrentStep())
+                .content(content)
+                .build();
+    }
+
+    public static AgentEvent ofTool(AgentEventType type, AgentRun agentRun,
+                                    String toolCallId, String toolName, String content) {
+        return AgentEvent.builder()
+                .type(type)
+                .runId(agentRun.getRunId())
+                .step(agentRun.getCurrentStep())
+                .content(content)
+                .toolCallId(toolCallId)
+                .toolName(toolName)
+                .build();
+    }
+}
@@ -0,0 +1,62 @@
+package com.yunhao.superai.agent.model;
+
+/**
+ * 代理运行事件类型的枚举类
+ */
+public enum AgentEventType {
+
+    /**
+     * 运行开始
+     */
+    RUN_START,
+
+    /**
+     * 步骤开始
+     */
+    STEP_START,
+
+    /**
+     * 思考过程中模型输出的文本片段
+     */
+    THINK_TOKEN,
+
+    /**
+     * 工具调用开始
+     */
+    TOOL_CALL_START,
+
+    /**
+     * 工具调用结束
+     */
+    TOOL_CALL_END,
+
+    /**
+     * 步骤结束
+     */
+    STEP_END,
+
+    /**
+     * 任务规划完成（多智能体模式），内容为子任务列表
+     */
+    PLAN,
+
+    /**
+     * 子任务开始（多智能体模式）
+     */
+    SUBTASK_START,
+
+    /**
+     * 子任务结束（多智能体模式），内容为子任务结果
+     */
+    SUBTASK_END,
+
+    /**
+     * 运行结束
+     */
+    RUN_END,
+
+    /**
+     * 运行出错
+     */
+    ERROR
+}
@@ -0,0 +1,106 @@
+package com.yunhao.superai.agent.model;
+
+import cn.hutool.core.util.IdUtil;
+import lombok.Data;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.model.ChatResponse;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 单次代理运行的上下文
+ *
+ * 代理本身只保存不可变的配置（提示词、ChatClient、工具等），可以被多个请求共享；
+ * 每次运行的可变状态（消息上下文、步骤、状态）都保存在这里。
+ */
+@Data
+public class AgentRun {
+
+    // 运行 ID
+    private final String runId;
+
+    // 状态
+    private volatile AgentState state = AgentState.IDLE;
+
+    // 当前步骤
+    private int currentStep = 0;
+
+    // Memory（需要自主维护会话上下文）
+    private List<Message> messageList = new ArrayList<>();
+
+    // 保存了工具调用信息的响应，由 think 写入、act 读取
+    private ChatResponse toolCallChatResponse;
+
+    // 模型流式输出期间已经提前开始执行的工具调用（工具调用 ID -> 调用），由 act 收集
+    private Map<String, PendingToolCall> pendingToolCalls = new ConcurrentHashMap<>();
+
+    // 当前已从上下文中压缩掉的 token 数
+    private long compactedTokens;
+
+    // 上下文压缩在整个运行中节省的提示词 token 数（之后的每一步都少发送 compactedTokens）
+    private long compactionSavedTokens;
+
+    // 运行中估算消耗的 token 数（每一步的提示词 + 模型输出），用于估算取消运行节省的 token
+    private long consumedTokens;
+
+    // 最近几步的指纹，用于循环检测
+    private Deque<String> recentStepFingerprints = new ArrayDeque<>();
+
+    // 循环检测已经发出的纠正提示次数
+    private int loopWarnings;
+
+    // 因检测到循环提前结束而避免的步骤数和 token 估算值
+    private int loopAvoidedSteps;
+    private long loopAvoidedTokens;
+
+    // 执行本次运行的线程，取消时中断它（正在进行的大模型请求和工具调用随之中止）
+    private volatile Thread runnerThread;
+
+    // 事件监听器，不同的运行方式（同步、SSE、Flux）在这里接收运行过程中的事件
+    private Consumer<AgentEvent> eventListener = event -> {
+    };
+
+    public AgentRun() {
+        this(IdUtil.fastSimpleUUID());
+    }
+
+    public AgentRun(String runId) {
+        this.runId = runId;
+    }
+
+    /**
+     * 取消运行：标记为已取消，中断执行线程，并取消所有尚未完成的工具调用
+     *
+     * @return 是否由本次调用完成取消（已结束或已取消的运行返回 false）
+     */
+    public synchronized boolean cancel() {
+        if (state != AgentState.IDLE && state != AgentState.RUNNING) {
+            return false;
+        }
+        state = AgentState.CANCELLED;
+        Thread thread = runnerThread;
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.interrupt();
+        }
+        pendingToolCalls.values().forEach(pending -> pending.future().cancel(true));
+        pendingToolCalls.clear();
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return state == AgentState.CANCELLED;
+    }
+
+    /**
+     * 发布运行事件
+     */
+    public void emit(AgentEvent event) {
+        eventListener.accept(event);
+    }
+}
@@ -0,0 +1,76 @@
+package com.yunhao.superai.agent.model;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 单次代理运行的追踪记录：每一步的耗时、思考耗时和 token 数，以及每个工具调用的参数大小、结果大小和耗时
+ */
+@Data
+public class AgentTrace {
+
+    private String runId;
+
+    private String agentName;
+
+    // 开始时间（毫秒时间戳）
+    private long startedAt;
+
+    // 总耗时（毫秒），运行中为 0
+    private long totalMs;
+
+    // 运行状态
+    private AgentState state;
+
+    // 整个运行的提示词和输出 token 数
+    private long promptTokens;
+    private long completionTokens;
+
+    private List<StepSpan> steps = new CopyOnWriteArrayList<>();
+
+    /**
+     * 单步的追踪记录
+     */
+    @Data
+    public static class StepSpan {
+
+        private int step;
+
+        // 相对运行开始的偏移（毫秒）
+        private long startOffsetMs;
+
+        private long durationMs;
+
+        // 思考（大模型调用）耗时
+        private long thinkMs;
+
+        private long promptTokens;
+        private long completionTokens;
+
+        // 步骤结果预览
+        private String result;
+
+        private List<ToolSpan> toolCalls = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * 单个工具调用的追踪记录
+     */
+    @Data
+    public static class ToolSpan {
+
+        private String toolCallId;
+
+        private String toolName;
+
+        // 参数和结果的长度（字符）
+        private int argumentsChars;
+        private int resultChars;
+
+        private long durationMs;
+
+        private boolean error;
+    }
+}
@@ -0,0 +1,18 @@
+package com.yunhao.superai.agent.model;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+
+import java.util.concurrent.Future;
+
+/**
+ * 已经提交、尚未收集结果的工具调用
+ *
+ * @param toolCall   工具调用
+ * @param future     执行结果
+ * @param startNanos 提交时间，超时从这里开始计算
+ */
+public record PendingToolCall(AssistantMessage.ToolCall toolCall,
+                              Future<ToolResponseMessage.ToolResponse> future,
+                              long startNanos) {
+}
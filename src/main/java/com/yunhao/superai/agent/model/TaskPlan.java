@@ -0,0 +1,21 @@
+package com.yunhao.superai.agent.model;
+
+import java.util.List;
+
+/**
+ * 任务规划：把用户目标拆分为子任务组成的有向无环图
+ *
+ * @param tasks 子任务列表
+ */
+public record TaskPlan(List<SubTask> tasks) {
+
+    /**
+     * 子任务
+     *
+     * @param id          子任务 ID，如 t1
+     * @param description 子任务描述，需要能够独立执行
+     * @param dependsOn   依赖的子任务 ID，没有依赖时为空列表
+     */
+    public record SubTask(String id, String description, List<String> dependsOn) {
+    }
+}
@@ -1,6 +1,9 @@
 package com.yunhao.superai.app;
 
 import com.yunhao.superai.advisor.MyLoggerAdvisor;
+import com.yunhao.superai.chatmemory.ChatMemoryProperties;
+import com.yunhao.superai.chatmemory.ChatModelConversationSummarizer;
+import com.yunhao.superai.chatmemory.TokenWindowChatMemory;
 import com.yunhao.superai.rag.QueryRewriter;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
@@ -9,8 +12,7 @@ import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.client.advisor.api.Advisor;
 import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvisor;
 import org.springframework.ai.chat.memory.ChatMemory;
-import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
-import org.springframework.ai.chat.memory.MessageWindowChatMemory;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.tool.ToolCallback;
@@ -58,13 +60,16 @@ public class FitnessApp {
      * 初始化 ChatClient
      *
      * @param dashscopeChatModel
+     * @param chatMemoryRepository 对话记忆存储，由 chat-memory.store 选择
+     * @param chatMemoryProperties 对话记忆配置
      */
-    public FitnessApp(ChatModel dashscopeChatModel) {
-        // 初始化基于内存的对话记忆 - 使用新的构建方式
-        MessageWindowChatMemory chatMemory = MessageWindowChatMemory.builder()
-                .chatMemoryRepository(new InMemoryChatMemoryRepository())
-                .maxMessages(20)
-                .build();
+    public FitnessApp(ChatModel dashscopeChatModel, ChatMemoryRepository chatMemoryRepository,
+                      ChatMemoryProperties chatMemoryProperties) {
+        // 初始化对话记忆 - 按 token 预算裁剪，较早的消息合并为摘要
+        ChatMemoryProperties.Summary summary = chatMemoryProperties.getSummary();
+        TokenWindowChatMemory chatMemory = new TokenWindowChatMemory(chatMemoryRepository,
+                chatMemoryProperties.getTokenBudget(), chatMemoryProperties.getMaxMessages(), summary.getEveryTurns(),
+                summary.isEnabled() ? new ChatModelConversationSummarizer(dashscopeChatModel, summary.getMaxChars()) : null);
 
         // 修改ChatClient构建方式 - 使用新的Advisor构建模式
         chatClient = ChatClient.builder(dashscopeChatModel)
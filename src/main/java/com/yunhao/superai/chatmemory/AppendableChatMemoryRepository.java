@@ -0,0 +1,22 @@
+package com.yunhao.superai.chatmemory;
+
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 可以直接追加消息的对话记忆存储
+ *
+ * 调用方已经知道哪些消息是新增的（例如上一级存储比对窗口后返回的消息），直接追加，不需要再读取尾部比对
+ */
+public interface AppendableChatMemoryRepository extends ChatMemoryRepository {
+
+    /**
+     * 按顺序追加各会话的新增消息，所有会话在一次写入中完成
+     *
+     * @param batches 会话 ID -> 新增的消息
+     */
+    void appendAll(Map<String, List<Message>> batches);
+}
@@ -0,0 +1,397 @@
+package com.yunhao.superai.chatmemory;
+
+import com.yunhao.superai.utils.KryoSerializer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 有界的内存对话记忆存储
+ *
+ * 替代会无限增长的 InMemoryChatMemoryRepository：堆内按 LRU 保存会话，会话数或估算的堆内字节数超出上限、
+ * 或会话空闲超过 idleTimeout 时，把最久未访问的会话用 Kryo 序列化后移入内存映射的溢出文件（{@link MappedSpillFile}），
+ * 之后访问时再读回堆内。溢出文件不占用 Java 堆，由操作系统按需换页。
+ *
+ * 并发：heap 上的锁只保护几个 Map 的簿记，序列化、反序列化和溢出文件的读写（包括扩大映射和压缩）都在锁外进行。
+ * 淘汰时会话先移入 evicting，由触发淘汰的线程在锁外序列化并写入溢出文件，写入期间仍可以从 evicting 读到；
+ * 每次写入使用新的槽位键，写入期间会话被读回、覆盖或删除时丢弃这次写入，过期的副本不会覆盖较新的数据。
+ *
+ * 与 InMemoryChatMemoryRepository 一样不做持久化，重启后数据丢失。
+ */
+@Slf4j
+public class BoundedInMemoryChatMemoryRepository implements ChatMemoryRepository, AutoCloseable {
+
+    // 溢出文件的初始映射大小
+    private static final long INITIAL_SPILL_CAPACITY = 16L * 1024 * 1024;
+
+    // 每条消息的固定开销估算（对象头、元数据 Map、消息类型等）
+    private static final long MESSAGE_OVERHEAD_BYTES = 256;
+
+    private final int maxConversations;
+
+    private final long maxHeapBytes;
+
+    private final long idleTimeoutNanos;
+
+    // 会话 ID -> 堆内条目，按访问顺序排列；以下几个 Map 和计数都在 heap 上同步
+    private final LinkedHashMap<String, Entry> heap = new LinkedHashMap<>(16, 0.75f, true);
+
+    // 已从堆内淘汰、正在写入溢出文件的会话
+    private final Map<String, Entry> evicting = new HashMap<>();
+
+    // 等待写入溢出文件的会话 ID，按淘汰顺序
+    private final ArrayDeque<String> spillQueue = new ArrayDeque<>();
+
+    // 会话 ID -> 溢出文件中的槽位键
+    private final Map<String, String> spilled = new HashMap<>();
+
+    private long nextSlot;
+
+    private long heapBytes;
+
+    private final MappedSpillFile spillFile;
+
+    private final ScheduledExecutorService idleEvictor =
+            Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("chat-memory-idle-evictor").daemon().factory());
+
+    private final MeterRegistry meterRegistry;
+    private final Counter spillCounter;
+    private final Counter reloadCounter;
+    private final Counter droppedCounter;
+
+    public BoundedInMemoryChatMemoryRepository(int maxConversations, long maxHeapBytes, Duration idleTimeout,
+                                               Path spillPath, MeterRegistry meterRegistry) {
+        this(maxConversations, maxHeapBytes, idleTimeout, spillPath, MappedSpillFile.MAX_CAPACITY, meterRegistry);
+    }
+
+    /**
+     * @param maxSpillBytes 溢出文件的大小上限，写满后淘汰的会话直接丢弃
+     */
+    BoundedInMemoryChatMemoryRepository(int maxConversations, long maxHeapBytes, Duration idleTimeout,
+                                        Path spillPath, long maxSpillBytes, MeterRegistry meterRegistry) {
+        this.maxConversations = maxConversations;
+        this.maxHeapBytes = maxHeapBytes;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        try {
+            this.spillFile = new MappedSpillFile(spillPath, INITIAL_SPILL_CAPACITY, maxSpillBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("创建溢出文件失败: " + spillPath, e);
+        }
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("chat.memory.heap.bytes", this, BoundedInMemoryChatMemoryRepository::heapBytes)
+                .description("堆内会话的估算字节数")
+                .register(meterRegistry);
+        Gauge.builder("chat.memory.heap.entries", this, BoundedInMemoryChatMemoryRepository::heapEntries)
+                .description("堆内的会话数")
+                .register(meterRegistry);
+        Gauge.builder("chat.memory.spill.entries", spillFile, MappedSpillFile::size)
+                .description("溢出文件中的会话数")
+                .register(meterRegistry);
+        Gauge.builder("chat.memory.spill.bytes", spillFile, MappedSpillFile::liveBytes)
+                .description("溢出文件中存活数据的字节数")
+                .register(meterRegistry);
+        this.spillCounter = Counter.builder("chat.memory.spills")
+                .description("移入溢出文件的会话数")
+                .register(meterRegistry);
+        this.reloadCounter = Counter.builder("chat.memory.reloads")
+                .description("从溢出文件读回堆内的会话数")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("chat.memory.evictions")
+                .tag("reason", "dropped")
+                .description("从堆内淘汰的会话数")
+                .register(meterRegistry);
+        long sweepMillis = Math.max(1000, idleTimeout.toMillis() / 2);
+        idleEvictor.scheduleWithFixedDelay(this::evictIdle, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public List<String> findConversationIds() {
+        synchronized (heap) {
+            Set<String> ids = new LinkedHashSet<>(heap.keySet());
+            ids.addAll(evicting.keySet());
+            ids.addAll(spilled.keySet());
+            return new ArrayList<>(ids);
+        }
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        while (true) {
+            Entry evicted;
+            String slot;
+            synchronized (heap) {
+                Entry entry = heap.get(conversationId);
+                if (entry != null) {
+                    entry.lastAccessNanos = System.nanoTime();
+                    return entry.messages;
+                }
+                // 还没写完溢出文件的会话直接放回堆内，进行中的写入会被丢弃
+                evicted = evicting.remove(conversationId);
+                if (evicted != null) {
+                    putEntry(conversationId, evicted.messages);
+                }
+                slot = spilled.get(conversationId);
+            }
+            if (evicted != null) {
+                spillEvicted();
+                return evicted.messages;
+            }
+            if (slot == null) {
+                return List.of();
+            }
+            // 读取和反序列化在锁外进行
+            byte[] bytes = spillFile.get(slot);
+            List<Message> messages = bytes == null ? null : List.copyOf(KryoSerializer.<List<Message>>deserialize(bytes));
+            synchronized (heap) {
+                Entry current = heap.get(conversationId);
+                if (current != null) {
+                    // 读回期间被并发写入或读回时以堆内的为准
+                    return current.messages;
+                }
+                if (!slot.equals(spilled.get(conversationId))) {
+                    // 读回期间会话被删除或重新溢出，重新查找
+                    continue;
+                }
+                spilled.remove(conversationId);
+                if (messages == null) {
+                    return List.of();
+                }
+                putEntry(conversationId, messages);
+                reloadCounter.increment();
+            }
+            spillFile.remove(slot);
+            spillEvicted();
+            return messages;
+        }
+    }
+
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        List<Message> copy = List.copyOf(messages);
+        String staleSlot;
+        synchronized (heap) {
+            evicting.remove(conversationId);
+            staleSlot = spilled.remove(conversationId);
+            putEntry(conversationId, copy);
+        }
+        if (staleSlot != null) {
+            spillFile.remove(staleSlot);
+        }
+        spillEvicted();
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        String staleSlot;
+        synchronized (heap) {
+            Entry entry = heap.remove(conversationId);
+            if (entry != null) {
+                heapBytes -= entry.bytes;
+            }
+            evicting.remove(conversationId);
+            staleSlot = spilled.remove(conversationId);
+        }
+        if (staleSlot != null) {
+            spillFile.remove(staleSlot);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        idleEvictor.shutdownNow();
+        synchronized (heap) {
+            heap.clear();
+            evicting.clear();
+            spillQueue.clear();
+            spilled.clear();
+            heapBytes = 0;
+        }
+        spillFile.close();
+    }
+
+    /**
+     * 写入堆内条目，超出会话数或字节数上限时把最久未访问的会话移入 evicting（至少保留刚写入的会话），
+     * 调用方需持有锁，并在释放锁后调用 {@link #spillEvicted()}
+     */
+    private void putEntry(String conversationId, List<Message> messages) {
+        Entry entry = new Entry(messages, estimateBytes(messages));
+        Entry previous = heap.put(conversationId, entry);
+        heapBytes += entry.bytes - (previous == null ? 0 : previous.bytes);
+        Iterator<Map.Entry<String, Entry>> iterator = heap.entrySet().iterator();
+        while (heap.size() > 1 && (heap.size() > maxConversations || heapBytes > maxHeapBytes)) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            evict(eldest.getKey(), eldest.getValue(), heap.size() > maxConversations ? "size" : "bytes");
+            iterator.remove();
+        }
+    }
+
+    /**
+     * 把空闲超时的会话移入溢出文件，由后台线程定期执行
+     */
+    void evictIdle() {
+        try {
+            long now = System.nanoTime();
+            synchronized (heap) {
+                Iterator<Map.Entry<String, Entry>> iterator = heap.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<String, Entry> eldest = iterator.next();
+                    // 按访问顺序排列，遇到第一个未超时的即可停止
+                    if (now - eldest.getValue().lastAccessNanos <= idleTimeoutNanos) {
+                        break;
+                    }
+                    evict(eldest.getKey(), eldest.getValue(), "idle");
+                    iterator.remove();
+                }
+            }
+            spillEvicted();
+        } catch (Exception e) {
+            log.warn("淘汰空闲会话失败", e);
+        }
+    }
+
+    /**
+     * 把会话移入 evicting 等待写入溢出文件，调用方负责从 heap 中移除
+     */
+    private void evict(String conversationId, Entry entry, String reason) {
+        heapBytes -= entry.bytes;
+        Counter.builder("chat.memory.evictions")
+                .tag("reason", reason)
+                .description("从堆内淘汰的会话数")
+                .register(meterRegistry)
+                .increment();
+        evicting.put(conversationId, entry);
+        spillQueue.add(conversationId);
+    }
+
+    /**
+     * 在锁外把 evicting 中的会话序列化并写入溢出文件；溢出文件写满时会话直接丢弃
+     */
+    private void spillEvicted() {
+        while (true) {
+            String conversationId;
+            Entry entry;
+            String slot;
+            synchronized (heap) {
+                conversationId = spillQueue.poll();
+                if (conversationId == null) {
+                    return;
+                }
+                entry = evicting.get(conversationId);
+                if (entry == null || entry.spilling) {
+                    continue;
+                }
+                entry.spilling = true;
+                slot = Long.toString(nextSlot++);
+            }
+            Exception failure = null;
+            try {
+                spillFile.put(slot, KryoSerializer.serialize(new ArrayList<>(entry.messages)));
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+            }
+            boolean current;
+            synchronized (heap) {
+                current = evicting.get(conversationId) == entry;
+                if (current) {
+                    evicting.remove(conversationId);
+                    if (failure == null) {
+                        spilled.put(conversationId, slot);
+                    }
+                }
+            }
+            if (!current) {
+                // 写入期间会话被读回、覆盖或删除，这次写入的副本已经过期
+                if (failure == null) {
+                    spillFile.remove(slot);
+                }
+            } else if (failure == null) {
+                spillCounter.increment();
+            } else {
+                droppedCounter.increment();
+                log.warn("会话 {} 写入溢出文件失败，已丢弃: {}", conversationId, failure.getMessage());
+            }
+        }
+    }
+
+    private long heapBytes() {
+        synchronized (heap) {
+            return heapBytes;
+        }
+    }
+
+    private int heapEntries() {
+        synchronized (heap) {
+            return heap.size();
+        }
+    }
+
+    /**
+     * 估算消息占用的堆内字节数：固定开销加上文本按每字符 2 字节计算
+     */
+    static long estimateBytes(List<Message> messages) {
+        long bytes = 0;
+        for (Message message : messages) {
+            bytes += MESSAGE_OVERHEAD_BYTES + chars(message.getText());
+            if (message instanceof AssistantMessage assistantMessage && assistantMessage.hasToolCalls()) {
+                for (AssistantMessage.ToolCall toolCall : assistantMessage.getToolCalls()) {
+                    bytes += chars(toolCall.id()) + chars(toolCall.name()) + chars(toolCall.arguments());
+                }
+            }
+            if (message instanceof ToolResponseMessage toolResponseMessage) {
+                for (ToolResponseMessage.ToolResponse response : toolResponseMessage.getResponses()) {
+                    bytes += chars(response.id()) + chars(response.name()) + chars(response.responseData());
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private static long chars(String text) {
+        return text == null ? 0 : 2L * text.length();
+    }
+
+    /**
+     * 堆内条目
+     */
+    private static final class Entry {
+
+        // 消息（不可变列表）
+        private final List<Message> messages;
+
+        // 估算的堆内字节数
+        private final long bytes;
+
+        // 最后一次访问的时间（System.nanoTime）
+        private long lastAccessNanos = System.nanoTime();
+
+        // 已有线程在把它写入溢出文件
+        private boolean spilling;
+
+        private Entry(List<Message> messages, long bytes) {
+            this.messages = messages;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.yunhao.superai.chatmemory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 带写回缓存的对话记忆存储
+ *
+ * 热点会话保存在按 LRU 淘汰的堆内缓存中，读取命中时不访问底层存储；
+ * 写入只更新缓存并把会话标记为脏，由后台线程按固定间隔批量写入底层存储，
+ * 同一会话在一个间隔内的多次写入只会落盘最后一次。关闭时把剩余的脏数据全部写入。
+ * 脏数据单独保存，不受 LRU 淘汰影响，写入底层存储失败时保留到下一次重试。
+ * 脏会话数达到上限的 2 倍时（底层存储写不过来或一直失败），新的会话改为直接写入底层存储，
+ * 写入失败的异常抛给调用方，脏数据不会无限增长。
+ *
+ * 未命中时读取底层存储期间会话可能被写入、甚至已经写入底层存储，读取前后比较会话所在分段的写入序号，
+ * 序号变化时不用读到的旧数据填充缓存。
+ */
+@Slf4j
+public class CachingChatMemoryRepository implements ChatMemoryRepository, AutoCloseable {
+
+    // 脏会话数达到 maxDirty 的该倍数时，新的会话直接写入底层存储
+    private static final int DIRTY_LIMIT_FACTOR = 2;
+
+    // 写入序号的分段数
+    private static final int WRITE_SEQUENCE_STRIPES = 256;
+
+    private final ChatMemoryRepository delegate;
+
+    private final int maxDirty;
+
+    // 会话 ID -> 消息（不可变列表），按访问顺序淘汰，访问需要在 cache 上同步
+    private final LinkedHashMap<String, List<Message>> cache;
+
+    // 尚未写入底层存储的会话
+    private final Map<String, DirtyEntry> dirty = new ConcurrentHashMap<>();
+
+    // 按会话 ID 哈希分段的写入序号，每次写入或删除时递增，访问需要在 cache 上同步
+    private final long[] writeSequences = new long[WRITE_SEQUENCE_STRIPES];
+
+    // 同一时间只有一次写入在进行，保证同一会话的写入顺序
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private final ScheduledExecutorService flusher =
+            Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("chat-memory-flusher").daemon().factory());
+
+    private volatile boolean closed;
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter coalescedCounter;
+    private final Counter flushFailureCounter;
+    private final Counter writeThroughCounter;
+    private final Timer flushTimer;
+
+    public CachingChatMemoryRepository(ChatMemoryRepository delegate, int maxConversations, Duration flushInterval,
+                                       int maxDirty, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.maxDirty = maxDirty;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Message>> eldest) {
+                return size() > maxConversations;
+            }
+        };
+        this.hitCounter = Counter.builder("chat.memory.cache.hits")
+                .description("对话记忆缓存命中次数")
+                .register(meterRegistry);
+        this.missCounter = Counter.builder("chat.memory.cache.misses")
+                .description("对话记忆缓存未命中、需要读取底层存储的次数")
+                .register(meterRegistry);
+        Gauge.builder("chat.memory.cache.hit.ratio", this, CachingChatMemoryRepository::hitRatio)
+                .description("对话记忆缓存命中率")
+                .register(meterRegistry);
+        Gauge.builder("chat.memory.cache.size", this, CachingChatMemoryRepository::size)
+                .description("缓存中的会话数")
+                .register(meterRegistry);
+        Gauge.builder("chat.memory.cache.dirty", dirty, Map::size)
+                .description("等待写入底层存储的会话数")
+                .register(meterRegistry);
+        this.coalescedCounter = Counter.builder("chat.memory.cache.writes.coalesced")
+                .description("写入底层存储前被同一会话后续写入覆盖的次数")
+                .register(meterRegistry);
+        this.flushFailureCounter = Counter.builder("chat.memory.cache.flush.failures")
+                .description("写入底层存储失败的会话数")
+                .register(meterRegistry);
+        this.writeThroughCounter = Counter.builder("chat.memory.cache.writes.through")
+                .description("脏会话过多时直接写入底层存储的次数")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("chat.memory.cache.flush")
+                .description("一次批量写入底层存储的耗时")
+                .register(meterRegistry);
+        long intervalMs = flushInterval.toMillis();
+        flusher.scheduleWithFixedDelay(this::flushQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public List<String> findConversationIds() {
+        Set<String> ids = new LinkedHashSet<>(delegate.findConversationIds());
+        dirty.forEach((id, entry) -> {
+            if (entry.messages() == null) {
+                ids.remove(id);
+            } else {
+                ids.add(id);
+            }
+        });
+        return new ArrayList<>(ids);
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        DirtyEntry entry = dirty.get(conversationId);
+        if (entry != null) {
+            hitCounter.increment();
+            return entry.messages() == null ? List.of() : entry.messages();
+        }
+        long sequence;
+        synchronized (cache) {
+            List<Message> messages = cache.get(conversationId);
+            if (messages != null) {
+                hitCounter.increment();
+                return messages;
+            }
+            sequence = writeSequences[stripe(conversationId)];
+        }
+        missCounter.increment();
+        List<Message> messages = List.copyOf(delegate.findByConversationId(conversationId));
+        synchronized (cache) {
+            // 读取底层存储期间会话被写入过，以新写入的为准
+            DirtyEntry written = dirty.get(conversationId);
+            if (written != null) {
+                return written.messages() == null ? List.of() : written.messages();
+            }
+            if (writeSequences[stripe(conversationId)] != sequence) {
+                // 写入可能已经落到底层存储，读到的可能是旧数据，不填充缓存
+                List<Message> cached = cache.get(conversationId);
+                return cached != null ? cached : messages;
+            }
+            cache.put(conversationId, messages);
+        }
+        return messages;
+    }
+
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        List<Message> snapshot = List.copyOf(messages);
+        if (closed) {
+            delegate.saveAll(conversationId, snapshot);
+            return;
+        }
+        synchronized (cache) {
+            if (!overDirtyLimit(conversationId)) {
+                writeSequences[stripe(conversationId)]++;
+                cache.put(conversationId, snapshot);
+                markDirty(conversationId, new DirtyEntry(snapshot));
+                return;
+            }
+        }
+        writeThrough(conversationId, snapshot, () -> delegate.saveAll(conversationId, snapshot));
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        if (closed) {
+            delegate.deleteByConversationId(conversationId);
+            return;
+        }
+        synchronized (cache) {
+            if (!overDirtyLimit(conversationId)) {
+                writeSequences[stripe(conversationId)]++;
+                cache.remove(conversationId);
+                markDirty(conversationId, new DirtyEntry(null));
+                return;
+            }
+        }
+        writeThrough(conversationId, null, () -> delegate.deleteByConversationId(conversationId));
+    }
+
+    /**
+     * 脏会话已达上限且该会话不在其中，调用方需在 cache 上同步；已经是脏会话的写入只覆盖原有条目，不增加脏数据
+     */
+    private boolean overDirtyLimit(String conversationId) {
+        return dirty.size() >= maxDirty * DIRTY_LIMIT_FACTOR && !dirty.containsKey(conversationId);
+    }
+
+    /**
+     * 直接写入底层存储，持有写入锁，与后台写入互斥并保证顺序；底层存储不可用时异常抛给调用方
+     *
+     * @param messages 写入后的消息，null 表示会话已删除
+     */
+    private void writeThrough(String conversationId, List<Message> messages, Runnable write) {
+        writeThroughCounter.increment();
+        flushLock.lock();
+        try {
+            synchronized (cache) {
+                writeSequences[stripe(conversationId)]++;
+                cache.remove(conversationId);
+            }
+            write.run();
+            synchronized (cache) {
+                writeSequences[stripe(conversationId)]++;
+                // 写入期间会话又被标记为脏时，以脏数据为准
+                if (messages != null && !dirty.containsKey(conversationId)) {
+                    cache.put(conversationId, messages);
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private static int stripe(String conversationId) {
+        return Math.floorMod(conversationId.hashCode(), WRITE_SEQUENCE_STRIPES);
+    }
+
+    private void markDirty(String conversationId, DirtyEntry entry) {
+        if (dirty.put(conversationId, entry) != null) {
+            coalescedCounter.increment();
+        }
+        if (dirty.size() >= maxDirty) {
+            try {
+                flusher.execute(this::flushQuietly);
+            } catch (RejectedExecutionException e) {
+                // 正在关闭，关闭时会写入剩余的脏数据
+            }
+        }
+    }
+
+    /**
+     * 把所有脏会话写入底层存储，失败的会话保留到下一次
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            if (dirty.isEmpty()) {
+                return;
+            }
+            flushTimer.record(() -> dirty.forEach((conversationId, entry) -> {
+                try {
+                    if (entry.messages() == null) {
+                        delegate.deleteByConversationId(conversationId);
+                    } else {
+                        delegate.saveAll(conversationId, entry.messages());
+                    }
+                    // 写入期间会话又被修改时保留新的脏数据
+                    dirty.remove(conversationId, entry);
+                } catch (RuntimeException e) {
+                    flushFailureCounter.increment();
+                    log.error("写入会话 {} 的对话记忆失败，下次重试", conversationId, e);
+                }
+            }));
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("写入对话记忆失败", e);
+        }
+    }
+
+    /**
+     * 停止后台写入并写入剩余的脏数据，之后的写入直接落到底层存储
+     */
+    @Override
+    public void close() {
+        closed = true;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        log.info("对话记忆缓存已关闭，脏数据已写入底层存储");
+    }
+
+    private double hitRatio() {
+        double hits = hitCounter.count();
+        double total = hits + missCounter.count();
+        return total == 0 ? 0 : hits / total;
+    }
+
+    private int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * 脏数据，messages 为 null 表示会话已删除；按引用比较，用于判断写入期间是否又被修改
+     */
+    private static final class DirtyEntry {
+
+        private final List<Message> messages;
+
+        private DirtyEntry(List<Message> messages) {
+            this.messages = messages;
+        }
+
+        List<Message> messages() {
+            return messages;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.yunhao.superai.chatmemory;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 对话记忆配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "chat-memory")
+public class ChatMemoryProperties {
+
+    // 存储方式：memory / file / jpa / redis / tiered
+    private ChatMemoryStoreType store = ChatMemoryStoreType.MEMORY;
+
+    // 每个会话在存储中保留的最大消息数（含待摘要的消息），通常先达到 token 预算
+    private int maxMessages = 40;
+
+    // 每次发给模型的对话记忆（摘要 + 最近的消息）的估算 token 预算
+    private int tokenBudget = 4000;
+
+    private Summary summary = new Summary();
+
+    private Memory memory = new Memory();
+
+    private File file = new File();
+
+    private Redis redis = new Redis();
+
+    private Cache cache = new Cache();
+
+    private Tiered tiered = new Tiered();
+
+    @Data
+    public static class Memory {
+
+        // 堆内保留的最大会话数，超出后最久未访问的会话移入溢出文件
+        private int maxConversations = 10000;
+
+        // 堆内会话的估算字节数上限（MB）
+        private long maxHeapMb = 256;
+
+        // 会话空闲超过该时间（秒）后移入溢出文件
+        private long idleSeconds = 1800;
+
+        // 溢出文件目录，默认 tmp/chat-memory-spill
+        private String spillDir = "";
+    }
+
+    @Data
+    public static class File {
+
+        // 会话文件目录，默认 tmp/chat-memory
+        private String dir = "";
+
+        // 每次追加后是否 fsync
+        private boolean fsync = false;
+
+        // 日志记录数超过该值时触发后台压缩
+        private int compactionThreshold = FileBasedChatMemory.DEFAULT_COMPACTION_THRESHOLD;
+    }
+
+    @Data
+    public static class Redis {
+
+        // 键前缀
+        private String keyPrefix = "chat:memory:";
+
+        // 会话的过期时间（秒），每次写入时续期
+        private long ttlSeconds = 7 * 24 * 3600;
+    }
+
+    @Data
+    public static class Cache {
+
+        // 是否在本地文件前加一层写回缓存
+        private boolean enabled = true;
+
+        // 缓存的最大会话数，超出后按 LRU 淘汰
+        private int maxConversations = 10000;
+
+        // 后台把脏数据写入存储的间隔（毫秒）
+        private long flushIntervalMs = 1000;
+
+        // 脏会话数达到该值时立即触发一次写入，不等下一个间隔
+        private int maxDirty = 1000;
+    }
+
+    @Data
+    public static class Tiered {
+
+        // L1 缓存的最大会话数
+        private int l1MaxConversations = 10000;
+
+        // L1 条目的最长存活时间（秒），失效通知丢失时的兜底
+        private long l1MaxAgeSeconds = 60;
+
+        // 跨节点失效通知的 Redis 频道
+        private String invalidationChannel = "chat:memory:invalidate";
+
+        // 后台把新增消息批量写入 L3 的间隔（毫秒）
+        private long l3FlushIntervalMs = 1000;
+
+        // 等待写入 L3 的消息数达到该值时立即触发一次写入，达到 2 倍时由请求线程直接写入
+        private int l3MaxPending = 1000;
+    }
+
+    @Data
+    public static class Summary {
+
+        // 是否把超出预算的较早消息合并为摘要，关闭时直接丢弃
+        private boolean enabled = true;
+
+        // 待摘要的消息积累到多少轮后更新一次摘要
+        private int everyTurns = 4;
+
+        // 摘要的最大长度（字）
+        private int maxChars = 500;
+    }
+}
@@ -0,0 +1,32 @@
+package com.yunhao.superai.chatmemory;
+
+/**
+ * 对话记忆的存储方式
+ */
+public enum ChatMemoryStoreType {
+
+    /**
+     * 保存在进程内存中，超出上限的会话移入内存映射的溢出文件（{@link BoundedInMemoryChatMemoryRepository}），重启后丢失
+     */
+    MEMORY,
+
+    /**
+     * 保存在本地文件中（{@link FileBasedChatMemory}）
+     */
+    FILE,
+
+    /**
+     * 保存在 MySQL 的 chat_messages 表中（{@link JpaChatMemoryRepository}）
+     */
+    JPA,
+
+    /**
+     * 保存在 Redis 中（{@link RedisChatMemoryRepository}），多个节点共享
+     */
+    REDIS,
+
+    /**
+     * 三级存储：进程内缓存 + Redis + MySQL（{@link TieredChatMemoryRepository}）
+     */
+    TIERED
+}
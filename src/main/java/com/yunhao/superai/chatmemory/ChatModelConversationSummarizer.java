@@ -0,0 +1,58 @@
+package com.yunhao.superai.chatmemory;
+
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.model.ChatModel;
+
+import java.util.List;
+
+/**
+ * 调用大模型更新对话摘要
+ *
+ * 只把已有摘要和新移出窗口的消息发给模型，不会重新处理整段历史，每次调用的输入大小与会话长度无关。
+ */
+public class ChatModelConversationSummarizer implements ConversationSummarizer {
+
+    private static final String SUMMARY_PROMPT = """
+            你负责维护一段对话的摘要。把新增的对话内容合并进已有摘要，输出更新后的完整摘要。
+            要求：
+            - 保留用户的身体状况、目标、偏好、限制和已经给出的关键建议，删去寒暄和重复内容；
+            - 只输出摘要正文，不要解释，不超过 %d 字。
+            """;
+
+    private final ChatClient chatClient;
+
+    private final int maxChars;
+
+    public ChatModelConversationSummarizer(ChatModel chatModel, int maxChars) {
+        this.chatClient = ChatClient.create(chatModel);
+        this.maxChars = maxChars;
+    }
+
+    @Override
+    public String summarize(String previousSummary, List<Message> messages) {
+        StringBuilder user = new StringBuilder();
+        user.append("已有摘要：\n").append(previousSummary == null ? "（无）" : previousSummary).append("\n\n新增对话：\n");
+        for (Message message : messages) {
+            String text = message instanceof ToolResponseMessage toolResponseMessage
+                    ? toolResponseMessage.getResponses().stream().map(ToolResponseMessage.ToolResponse::responseData).toList().toString()
+                    : message.getText();
+            if (text == null || text.isBlank()) {
+                // 只有工具调用没有文本的助手消息
+                if (message instanceof AssistantMessage assistantMessage && assistantMessage.hasToolCalls()) {
+                    text = "调用工具 " + assistantMessage.getToolCalls().stream().map(AssistantMessage.ToolCall::name).toList();
+                } else {
+                    continue;
+                }
+            }
+            user.append(message.getMessageType().getValue()).append(": ").append(text).append('\n');
+        }
+        return chatClient.prompt()
+                .system(SUMMARY_PROMPT.formatted(maxChars))
+                .user(user.toString())
+                .call()
+                .content();
+    }
+}
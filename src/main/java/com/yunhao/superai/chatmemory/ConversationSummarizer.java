@@ -0,0 +1,21 @@
+package com.yunhao.superai.chatmemory;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+
+/**
+ * 对话摘要器，把移出窗口的较早消息合并进已有摘要
+ */
+@FunctionalInterface
+public interface ConversationSummarizer {
+
+    /**
+     * 增量更新摘要
+     *
+     * @param previousSummary 已有摘要，没有时为 null
+     * @param messages        需要合并进摘要的消息（按时间顺序）
+     * @return 新的摘要
+     */
+    String summarize(String previousSummary, List<Message> messages);
+}
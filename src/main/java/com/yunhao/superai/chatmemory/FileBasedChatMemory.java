@@ -1,94 +1,788 @@
 package com.yunhao.superai.chatmemory;
 
-import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.ByteBufferInput;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
-import org.objenesis.strategy.StdInstantiatorStrategy;
+import com.yunhao.superai.utils.KryoSerializer;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
 import org.springframework.ai.chat.messages.Message;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 
 /**
  * 基于文件持久化的对话记忆
+ *
+ * 每个会话一个只追加的日志文件（{conversationId}.log）：文件头是 4 字节魔数，
+ * 之后每次 add 追加一条记录 [长度 int][CRC32 int][Kryo 序列化的消息列表]，
+ * add 的开销只与本次新增的消息有关，与会话长度无关。
+ * 写入过程中崩溃只会留下不完整的尾部记录，读取时按长度和 CRC 校验，从第一条损坏的记录处截断。
+ * 记录数超过阈值后，在后台把整个日志重写为每条 32 条消息的记录（写临时文件后原子替换）。
+ * 旧版本的整文件格式（{conversationId}.kryo）在首次访问时迁移为日志格式。
+ * 会话 ID 来自请求参数，不直接拼接为文件名，见 {@link #fileName(String)}。
+ *
+ * 每个日志旁边有一个索引文件（{conversationId}.idx），按顺序保存每条记录的 [偏移 long][消息数 int]。
+ * {@link #get(String, int)} 从索引末尾向前找到覆盖最后 N 条消息的记录，只映射并解码日志的这一段，
+ * 读取窗口的开销与会话总长度无关。索引与日志不一致时（如崩溃发生在两次写入之间）从日志重建。
+ *
+ * 并发：会话 ID 按哈希分配到固定数量的读写锁上，同一会话的写入互斥、按调用顺序追加，
+ * 读取之间可以并行，不同会话大多落在不同的锁上，互不阻塞；Kryo 实例从 {@link KryoSerializer} 的对象池借用。
+ *
+ * 同时实现 {@link ChatMemoryRepository}，可以作为 MessageWindowChatMemory 的底层存储；
+ * 指定了读取窗口时，findByConversationId 通过 {@link #get(String, int)} 只读取最后 windowSize 条消息；
+ * saveAll 收到的是整个窗口，与已存储的尾部比对后只把新增的消息作为一条记录追加（见 {@link MessageWindowDiff}），
+ * 只有窗口与已存储的尾部对不上（较早的消息被修改）时才整体重写。
  */
-public class FileBasedChatMemory implements ChatMemory {
+@Slf4j
+public class FileBasedChatMemory implements ChatMemory, ChatMemoryRepository {
+
+    // 日志文件魔数 "CMLG"
+    private static final int MAGIC = 0x434D4C47;
+
+    // 记录头：长度 + CRC32
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    // 索引项：记录偏移 + 消息数
+    private static final int INDEX_ENTRY_SIZE = 12;
+
+    // 压缩后每条记录包含的消息数，读取最后 N 条消息时最多多解码这么多条
+    private static final int MESSAGES_PER_COMPACTED_RECORD = 32;
+
+    // 默认在记录数超过 64 条时压缩
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 64;
+
+    // 锁分段数，远大于 CPU 核数，不同会话落在同一把锁上的概率很小
+    private static final int LOCK_STRIPES = 64;
+
+    // 可以直接作为文件名的会话 ID
+    private static final Pattern PLAIN_FILE_NAME = Pattern.compile("[a-z0-9_-]{1,64}");
+
+    // 旧版本文件名中可以出现的会话 ID
+    private static final Pattern LEGACY_FILE_NAME = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    // Windows 保留的设备名，不能作为文件名
+    private static final Pattern RESERVED_FILE_NAME =
+            Pattern.compile("con|prn|aux|nul|com[0-9]|lpt[0-9]", Pattern.CASE_INSENSITIVE);
+
+    // 编码后的文件名前缀，不在 PLAIN_FILE_NAME 的字符集中，两类文件名不会重叠
+    private static final String ENCODED_FILE_NAME_PREFIX = "=";
+
+    private static final int MAX_FILE_NAME_LENGTH = 200;
 
     private final String BASE_DIR;
-    private static final Kryo kryo = new Kryo();
 
-    static {
-        kryo.setRegistrationRequired(false);
-        // 设置实例化策略
-        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
-    }
+    // 会话读写锁，按会话 ID 的哈希分段
+    private final ReadWriteLock[] locks = new ReadWriteLock[LOCK_STRIPES];
+
+    // 每次追加后是否 fsync，开启后掉电也不会丢失已返回的写入，但每次 add 都要等待磁盘
+    private final boolean fsync;
+
+    // 日志记录数超过该值时触发后台压缩
+    private final int compactionThreshold;
+
+    // findByConversationId 读取的尾部消息条数，应不小于对话记忆保留的消息数；0 表示读取全部
+    private final int windowSize;
+
+    // 会话 ID -> 日志的记录数和消息数，首次完整读取、且确认索引与日志一致后才记录
+    private final Map<String, LogStats> logStats = new ConcurrentHashMap<>();
+
+    // 已经排队等待压缩的会话
+    private final Set<String> compactionQueued = ConcurrentHashMap.newKeySet();
+
+    // 后台压缩线程，虚拟线程不会阻止 JVM 退出
+    private final ExecutorService compactionExecutor =
+            Executors.newSingleThreadExecutor(Thread.ofVirtual().name("chat-memory-compaction").factory());
 
     // 构造对象时，指定文件保存目录
     public FileBasedChatMemory(String dir) {
+        this(dir, false, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * @param dir                 文件保存目录
+     * @param fsync               每次追加后是否 fsync
+     * @param compactionThreshold 日志记录数超过该值时触发后台压缩
+     */
+    public FileBasedChatMemory(String dir, boolean fsync, int compactionThreshold) {
+        this(dir, fsync, compactionThreshold, 0);
+    }
+
+    /**
+     * @param dir                 文件保存目录
+     * @param fsync               每次追加后是否 fsync
+     * @param compactionThreshold 日志记录数超过该值时触发后台压缩
+     * @param windowSize          findByConversationId 读取的尾部消息条数，0 表示读取全部
+     */
+    public FileBasedChatMemory(String dir, boolean fsync, int compactionThreshold, int windowSize) {
         this.BASE_DIR = dir;
+        this.fsync = fsync;
+        this.compactionThreshold = compactionThreshold;
+        this.windowSize = windowSize;
         File baseDir = new File(dir);
         if (!baseDir.exists()) {
             baseDir.mkdirs();
         }
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
     }
 
     @Override
     public void add(String conversationId, List<Message> messages) {
-        List<Message> conversationMessages = getOrCreateConversation(conversationId);
-        conversationMessages.addAll(messages);
-        saveConversation(conversationId, conversationMessages);
-    }
-
-//    @Override
-//    public List<Message> get(String conversationId, int lastN) {
-//        List<Message> allMessages = getOrCreateConversation(conversationId);
-//        return allMessages.stream()
-//                .skip(Math.max(0, allMessages.size() - lastN))
-//                .toList();
-//    }
+        if (messages.isEmpty()) {
+            return;
+        }
+        // 序列化不需要持有锁
+        byte[] payload = serialize(new ArrayList<>(messages));
+        ReadWriteLock lock = lockFor(conversationId);
+        lock.writeLock().lock();
+        try {
+            append(conversationId, payload, messages.size());
+        } catch (IOException e) {
+            log.error("追加会话 {} 的消息失败", conversationId, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 追加一条记录，调用方需持有写锁
+     */
+    private void append(String conversationId, byte[] payload, int messageCount) throws IOException {
+        // 本进程内第一次写入该会话时先校验尾部和索引，避免把新记录追加在损坏的记录之后
+        if (!logStats.containsKey(conversationId)) {
+            readConversation(conversationId);
+        }
+        try (FileChannel channel = FileChannel.open(getConversationFile(conversationId).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+             FileChannel index = FileChannel.open(getIndexFile(conversationId).toPath(),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long offset = channel.size();
+            ByteBuffer buffer;
+            if (offset == 0) {
+                buffer = ByteBuffer.allocate(4 + RECORD_HEADER_SIZE + payload.length).putInt(MAGIC);
+                offset = 4;
+            } else {
+                buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+            }
+            buffer.putInt(payload.length).putInt(crc(payload, 0, payload.length)).put(payload).flip();
+            writeFully(channel, buffer);
+            // 先写日志再写索引，崩溃时索引只可能落后于日志
+            writeFully(index, ByteBuffer.allocate(INDEX_ENTRY_SIZE).putLong(offset).putInt(messageCount).flip());
+            if (fsync) {
+                channel.force(false);
+                index.force(false);
+            }
+        } catch (IOException e) {
+            // 日志和索引可能已经不一致，下次访问时重新校验
+            logStats.remove(conversationId);
+            throw e;
+        }
+        LogStats stats = logStats.merge(conversationId, new LogStats(1, messageCount), LogStats::plus);
+        if (needsCompaction(stats)) {
+            scheduleCompaction(conversationId);
+        }
+    }
+
     @Override
     public List<Message> get(String conversationId) {
-        return getOrCreateConversation(conversationId);
+        ReadWriteLock lock = lockFor(conversationId);
+        List<Message> messages = null;
+        lock.readLock().lock();
+        try {
+            if (!getLegacyConversationFile(conversationId).exists()) {
+                LogScan scan = scan(conversationId);
+                if (scan.validLength() == scan.fileLength() && indexMatches(conversationId, scan)) {
+                    logStats.put(conversationId, new LogStats(scan.records(), scan.messages().size()));
+                    messages = scan.messages();
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (messages == null) {
+            // 需要迁移旧格式、截断损坏的尾部或重建索引，改为持有写锁重新读取
+            lock.writeLock().lock();
+            try {
+                messages = readConversation(conversationId);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        LogStats stats = logStats.get(conversationId);
+        if (stats != null && needsCompaction(stats)) {
+            scheduleCompaction(conversationId);
+        }
+        return messages;
+    }
+
+    /**
+     * 读取最后 N 条消息，通过索引只映射和解码日志末尾覆盖这 N 条消息的记录
+     *
+     * @param conversationId 会话 ID
+     * @param lastN          消息条数
+     * @return 最后 N 条消息，按原始顺序排列
+     */
+    public List<Message> get(String conversationId, int lastN) {
+        if (lastN <= 0) {
+            return new ArrayList<>();
+        }
+        ReadWriteLock lock = lockFor(conversationId);
+        lock.readLock().lock();
+        try {
+            List<Message> messages = readTail(conversationId, lastN);
+            if (messages != null) {
+                return messages;
+            }
+        } catch (IOException e) {
+            log.warn("按索引读取会话 {} 的最后 {} 条消息失败，改为完整读取", conversationId, lastN, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+        // 索引缺失或与日志不一致：完整读取一次，顺带修复尾部并重建索引
+        List<Message> allMessages;
+        lock.writeLock().lock();
+        try {
+            allMessages = readConversation(conversationId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return new ArrayList<>(allMessages.subList(Math.max(0, allMessages.size() - lastN), allMessages.size()));
     }
 
 
     @Override
     public void clear(String conversationId) {
-        File file = getConversationFile(conversationId);
-        if (file.exists()) {
-            file.delete();
+        ReadWriteLock lock = lockFor(conversationId);
+        lock.writeLock().lock();
+        try {
+            File file = getConversationFile(conversationId);
+            if (file.exists()) {
+                file.delete();
+            }
+            File indexFile = getIndexFile(conversationId);
+            if (indexFile.exists()) {
+                indexFile.delete();
+            }
+            File legacyFile = getLegacyConversationFile(conversationId);
+            if (legacyFile.exists()) {
+                legacyFile.delete();
+            }
+            logStats.remove(conversationId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> findConversationIds() {
+        String[] names = new File(BASE_DIR).list((dir, name) -> name.endsWith(".log") || name.endsWith(".kryo"));
+        if (names == null) {
+            return new ArrayList<>();
+        }
+        return Arrays.stream(names)
+                .map(name -> conversationId(name.substring(0, name.lastIndexOf('.'))))
+                .filter(Objects::nonNull)
+                .distinct()
+                .sorted()
+                .toList();
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        return windowSize > 0 ? get(conversationId, windowSize) : get(conversationId);
+    }
+
+    /**
+     * 保存消息窗口：与已存储的尾部比对，只追加新增的消息；
+     * 已存储的尾部与窗口没有重叠时（较早的消息被修改），用窗口整体替换会话，写临时文件后原子替换
+     *
+     * 与 add 不同，写入失败时抛出异常，调用方（如写回缓存）据此保留数据并重试
+     */
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        if (messages.isEmpty()) {
+            clear(conversationId);
+            return;
+        }
+        ReadWriteLock lock = lockFor(conversationId);
+        lock.writeLock().lock();
+        try {
+            List<Message> storedTail = readTailForWrite(conversationId, messages.size());
+            int overlap = MessageWindowDiff.overlap(storedTail, messages);
+            if (overlap == 0 && !storedTail.isEmpty()) {
+                log.debug("会话 {} 已存储的尾部与窗口不一致，整体重写", conversationId);
+                writeCompacted(conversationId, messages);
+            } else if (overlap < messages.size()) {
+                List<Message> newMessages = new ArrayList<>(messages.subList(overlap, messages.size()));
+                append(conversationId, serialize(newMessages), newMessages.size());
+            }
+        } catch (IOException e) {
+            logStats.remove(conversationId);
+            throw new UncheckedIOException("保存会话 " + conversationId + " 失败", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        clear(conversationId);
+    }
+
+    /**
+     * 把会话的所有记录重写为每条 32 条消息的记录，写临时文件后原子替换，压缩过程中崩溃不影响原日志
+     *
+     * @param conversationId 会话 ID
+     */
+    public void compact(String conversationId) {
+        ReadWriteLock lock = lockFor(conversationId);
+        lock.writeLock().lock();
+        try {
+            if (!getConversationFile(conversationId).exists()) {
+                return;
+            }
+            List<Message> messages = readConversation(conversationId);
+            LogStats stats = logStats.get(conversationId);
+            if (stats == null || stats.records() <= compactedRecords(messages.size())) {
+                return;
+            }
+            writeCompacted(conversationId, messages);
+            log.info("会话 {} 已压缩，{} 条记录合并为 {} 条，共 {} 条消息",
+                    conversationId, stats.records(), compactedRecords(messages.size()), messages.size());
+        } catch (IOException e) {
+            log.error("压缩会话 {} 失败", conversationId, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 记录数超过阈值，并且压缩至少能把记录数减半时才压缩，避免很长的会话压缩后仍超过阈值而反复压缩
+     */
+    private boolean needsCompaction(LogStats stats) {
+        return stats.records() > compactionThreshold
+                && stats.records() > 2 * compactedRecords(stats.messages());
+    }
+
+    private static int compactedRecords(int messages) {
+        return Math.ceilDiv(messages, MESSAGES_PER_COMPACTED_RECORD);
+    }
+
+    private void scheduleCompaction(String conversationId) {
+        if (compactionQueued.add(conversationId)) {
+            compactionExecutor.execute(() -> {
+                compactionQueued.remove(conversationId);
+                compact(conversationId);
+            });
+        }
+    }
+
+    /**
+     * 读取最后 N 条消息用于比对，索引不可用时完整读取（同时迁移旧格式、修复尾部和索引），调用方需持有写锁
+     */
+    private List<Message> readTailForWrite(String conversationId, int lastN) {
+        try {
+            List<Message> messages = readTail(conversationId, lastN);
+            if (messages != null) {
+                return messages;
+            }
+        } catch (IOException e) {
+            log.warn("按索引读取会话 {} 的最后 {} 条消息失败，改为完整读取", conversationId, lastN, e);
         }
+        List<Message> allMessages = readConversation(conversationId);
+        return allMessages.subList(Math.max(0, allMessages.size() - lastN), allMessages.size());
     }
 
-    private List<Message> getOrCreateConversation(String conversationId) {
+    /**
+     * 读取会话的全部消息，遇到不完整或校验失败的尾部记录时截断到最后一条完整记录，
+     * 索引与日志不一致时重建索引，调用方需持有写锁
+     */
+    private List<Message> readConversation(String conversationId) {
+        migrateLegacyConversation(conversationId);
+        LogScan scan = scan(conversationId);
+        if (scan.validLength() < scan.fileLength()) {
+            if (scan.validLength() == 0) {
+                // 连文件头都不完整，说明第一次写入就中断了
+                log.warn("会话 {} 的日志文件头损坏，已丢弃", conversationId);
+            } else {
+                log.warn("会话 {} 的日志在偏移 {} 处存在不完整的记录，已截断（丢弃 {} 字节）",
+                        conversationId, scan.validLength(), scan.fileLength() - scan.validLength());
+            }
+            truncate(getConversationFile(conversationId), scan.validLength());
+        }
+        if (!indexMatches(conversationId, scan)) {
+            try {
+                writeIndex(conversationId, scan.offsets(), scan.counts());
+                log.info("会话 {} 的索引与日志不一致，已重建（{} 条记录）", conversationId, scan.records());
+            } catch (IOException e) {
+                log.error("重建会话 {} 的索引失败", conversationId, e);
+                logStats.remove(conversationId);
+                return scan.messages();
+            }
+        }
+        logStats.put(conversationId, new LogStats(scan.records(), scan.messages().size()));
+        return scan.messages();
+    }
+
+    /**
+     * 扫描日志，只读不修改文件，调用方至少需持有读锁
+     */
+    private LogScan scan(String conversationId) {
         File file = getConversationFile(conversationId);
         List<Message> messages = new ArrayList<>();
-        if (file.exists()) {
-            try (Input input = new Input(new FileInputStream(file))) {
-                messages = kryo.readObject(input, ArrayList.class);
-            } catch (IOException e) {
-                e.printStackTrace();
+        List<Long> offsets = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        if (!file.exists()) {
+            return new LogScan(messages, offsets, counts, 0, 0);
+        }
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            log.error("读取会话 {} 失败", conversationId, e);
+            return new LogScan(messages, offsets, counts, 0, 0);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < 4 || buffer.getInt() != MAGIC) {
+            return new LogScan(messages, offsets, counts, 0, bytes.length);
+        }
+        while (buffer.hasRemaining()) {
+            int recordStart = buffer.position();
+            List<Message> batch = readRecord(buffer);
+            if (batch == null) {
+                return new LogScan(messages, offsets, counts, recordStart, bytes.length);
             }
+            messages.addAll(batch);
+            offsets.add((long) recordStart);
+            counts.add(batch.size());
         }
-        return messages;
+        return new LogScan(messages, offsets, counts, bytes.length, bytes.length);
     }
 
-    private void saveConversation(String conversationId, List<Message> messages) {
+    /**
+     * 通过索引读取最后 N 条消息，索引缺失或与日志不一致时返回 null，调用方至少需持有读锁
+     */
+    private List<Message> readTail(String conversationId, int lastN) throws IOException {
+        if (getLegacyConversationFile(conversationId).exists()) {
+            return null;
+        }
         File file = getConversationFile(conversationId);
-        try (Output output = new Output(new FileOutputStream(file))) {
-            kryo.writeObject(output, messages);
+        File indexFile = getIndexFile(conversationId);
+        if (!file.exists()) {
+            return indexFile.exists() ? null : new ArrayList<>();
+        }
+        if (!indexFile.exists()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             FileChannel index = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            long indexSize = index.size();
+            long logSize = channel.size();
+            if (indexSize == 0) {
+                // 空会话只有文件头
+                return logSize <= 4 ? new ArrayList<>() : null;
+            }
+            if (indexSize % INDEX_ENTRY_SIZE != 0) {
+                return null;
+            }
+            int entries = (int) (indexSize / INDEX_ENTRY_SIZE);
+            // 映射是惰性的，只有从末尾向前访问到的索引页才会被读入
+            MappedByteBuffer indexBuffer = index.map(FileChannel.MapMode.READ_ONLY, 0, indexSize);
+            int first = entries;
+            int count = 0;
+            while (first > 0 && count < lastN) {
+                first--;
+                count += indexBuffer.getInt(first * INDEX_ENTRY_SIZE + 8);
+            }
+            long start = indexBuffer.getLong(first * INDEX_ENTRY_SIZE);
+            // 用到了第一条索引项时，它必须紧跟在文件头之后，否则索引缺少前面的记录
+            if (start < 4 || start > logSize || (first == 0 && start != 4)) {
+                return null;
+            }
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, start, logSize - start);
+            List<Message> messages = new ArrayList<>(count);
+            for (int i = first; i < entries; i++) {
+                // 每条记录必须恰好从索引记录的偏移开始，且消息数一致
+                if (start + region.position() != indexBuffer.getLong(i * INDEX_ENTRY_SIZE)) {
+                    return null;
+                }
+                List<Message> batch = readRecord(region);
+                if (batch == null || batch.size() != indexBuffer.getInt(i * INDEX_ENTRY_SIZE + 8)) {
+                    return null;
+                }
+                messages.addAll(batch);
+            }
+            // 最后一条索引项之后还有数据，说明索引落后于日志
+            if (region.hasRemaining()) {
+                return null;
+            }
+            return new ArrayList<>(messages.subList(Math.max(0, messages.size() - lastN), messages.size()));
+        }
+    }
+
+    /**
+     * 读取一条记录，记录不完整或校验失败时返回 null
+     */
+    @SuppressWarnings("unchecked")
+    private List<Message> readRecord(ByteBuffer buffer) {
+        if (buffer.remaining() < RECORD_HEADER_SIZE) {
+            return null;
+        }
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            return null;
+        }
+        ByteBuffer payload = buffer.slice(buffer.position(), length);
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload.duplicate());
+        if ((int) crc32.getValue() != checksum) {
+            return null;
+        }
+        buffer.position(buffer.position() + length);
+        try (ByteBufferInput input = new ByteBufferInput(payload)) {
+            return KryoSerializer.execute(kryo -> kryo.readObject(input, ArrayList.class));
+        }
+    }
+
+    /**
+     * 索引是否与扫描到的日志记录完全一致
+     */
+    private boolean indexMatches(String conversationId, LogScan scan) {
+        File indexFile = getIndexFile(conversationId);
+        if (!indexFile.exists()) {
+            return scan.records() == 0;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(indexFile.toPath()));
+            if (buffer.remaining() != scan.records() * INDEX_ENTRY_SIZE) {
+                return false;
+            }
+            for (int i = 0; i < scan.records(); i++) {
+                if (buffer.getLong() != scan.offsets().get(i) || buffer.getInt() != scan.counts().get(i)) {
+                    return false;
+                }
+            }
+            return true;
         } catch (IOException e) {
-            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 旧格式的整文件会话迁移为日志格式
+     */
+    @SuppressWarnings("unchecked")
+    private void migrateLegacyConversation(String conversationId) {
+        File legacyFile = getLegacyConversationFile(conversationId);
+        if (!legacyFile.exists()) {
+            return;
+        }
+        if (getConversationFile(conversationId).exists()) {
+            // 已经迁移过，只是旧文件没来得及删除
+            legacyFile.delete();
+            return;
+        }
+        try (Input input = new Input(new FileInputStream(legacyFile))) {
+            List<Message> messages = KryoSerializer.execute(kryo -> kryo.readObject(input, ArrayList.class));
+            writeCompacted(conversationId, messages);
+        } catch (Exception e) {
+            log.error("迁移会话 {} 的旧格式文件失败", conversationId, e);
+            return;
+        }
+        legacyFile.delete();
+        log.info("会话 {} 已从旧格式迁移为日志格式", conversationId);
+    }
+
+    /**
+     * 把消息按每条记录 32 条消息写成新的日志和索引，先写临时文件再原子替换；
+     * 先替换日志再替换索引，两次替换之间崩溃时索引与日志不一致，下次读取时重建
+     */
+    private void writeCompacted(String conversationId, List<Message> messages) throws IOException {
+        List<byte[]> payloads = new ArrayList<>();
+        List<Long> offsets = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        long offset = 4;
+        for (int from = 0; from < messages.size(); from += MESSAGES_PER_COMPACTED_RECORD) {
+            List<Message> chunk = new ArrayList<>(messages.subList(from,
+                    Math.min(from + MESSAGES_PER_COMPACTED_RECORD, messages.size())));
+            byte[] payload = serialize(chunk);
+            payloads.add(payload);
+            offsets.add(offset);
+            counts.add(chunk.size());
+            offset += RECORD_HEADER_SIZE + payload.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) offset).putInt(MAGIC);
+        for (byte[] payload : payloads) {
+            buffer.putInt(payload.length).putInt(crc(payload, 0, payload.length)).put(payload);
         }
+        replace(getConversationFile(conversationId), buffer.flip());
+        writeIndex(conversationId, offsets, counts);
+        logStats.put(conversationId, new LogStats(payloads.size(), messages.size()));
+    }
+
+    private void writeIndex(String conversationId, List<Long> offsets, List<Integer> counts) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(offsets.size() * INDEX_ENTRY_SIZE);
+        for (int i = 0; i < offsets.size(); i++) {
+            buffer.putLong(offsets.get(i)).putInt(counts.get(i));
+        }
+        replace(getIndexFile(conversationId), buffer.flip());
+    }
+
+    /**
+     * 写临时文件后原子替换目标文件
+     */
+    private void replace(File file, ByteBuffer buffer) throws IOException {
+        Path tempPath = new File(BASE_DIR, file.getName() + ".tmp").toPath();
+        try (FileChannel channel = FileChannel.open(tempPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, buffer);
+            if (fsync) {
+                channel.force(false);
+            }
+        }
+        Files.move(tempPath, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void truncate(File file, long size) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+            if (fsync) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            log.error("截断文件 {} 失败", file, e);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static byte[] serialize(List<Message> messages) {
+        try (Output output = new Output(256, -1)) {
+            KryoSerializer.execute(kryo -> {
+                kryo.writeObject(output, messages);
+                return null;
+            });
+            return output.toBytes();
+        }
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, offset, length);
+        return (int) crc32.getValue();
+    }
+
+    private ReadWriteLock lockFor(String conversationId) {
+        return locks[Math.floorMod(conversationId.hashCode(), LOCK_STRIPES)];
     }
 
     private File getConversationFile(String conversationId) {
-        return new File(BASE_DIR, conversationId + ".kryo");
+        return new File(BASE_DIR, fileName(conversationId) + ".log");
+    }
+
+    private File getIndexFile(String conversationId) {
+        return new File(BASE_DIR, fileName(conversationId) + ".idx");
+    }
+
+    private File getLegacyConversationFile(String conversationId) {
+        // 旧版本直接用会话 ID 作为文件名，只认不会越出目录的 ID
+        String name = LEGACY_FILE_NAME.matcher(conversationId).matches() ? conversationId : fileName(conversationId);
+        return new File(BASE_DIR, name + ".kryo");
+    }
+
+    /**
+     * 会话 ID 对应的文件名（不含扩展名）
+     * 只含小写字母、数字、下划线和连字符的 ID 直接使用，其余的（包括 Windows 保留的设备名）编码为 "=" 加 UTF-8 的十六进制，
+     * 会话 ID 来自请求参数，不能让它指向目录之外的文件，也不能在大小写不敏感的文件系统上与其他 ID 冲突
+     *
+     * @throws IllegalArgumentException 会话 ID 为空或过长
+     */
+    static String fileName(String conversationId) {
+        if (conversationId == null || conversationId.isEmpty()) {
+            throw new IllegalArgumentException("会话 ID 不能为空");
+        }
+        if (PLAIN_FILE_NAME.matcher(conversationId).matches() && !RESERVED_FILE_NAME.matcher(conversationId).matches()) {
+            return conversationId;
+        }
+        String encoded = ENCODED_FILE_NAME_PREFIX + HexFormat.of().formatHex(conversationId.getBytes(StandardCharsets.UTF_8));
+        if (encoded.length() > MAX_FILE_NAME_LENGTH) {
+            throw new IllegalArgumentException("会话 ID 过长: " + conversationId.length() + " 个字符");
+        }
+        return encoded;
+    }
+
+    /**
+     * 文件名（不含扩展名）对应的会话 ID，不是本类生成的文件名时返回 null
+     */
+    static String conversationId(String fileName) {
+        if (!fileName.startsWith(ENCODED_FILE_NAME_PREFIX)) {
+            // 旧版本的文件名可能含有大写字母
+            return LEGACY_FILE_NAME.matcher(fileName).matches() ? fileName : null;
+        }
+        try {
+            return new String(HexFormat.of().parseHex(fileName, 1, fileName.length()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 日志扫描结果
+     *
+     * @param messages    完整记录中的消息
+     * @param offsets     每条完整记录在日志中的偏移
+     * @param counts      每条完整记录中的消息数
+     * @param validLength 最后一条完整记录的结束位置，小于文件长度说明尾部损坏
+     * @param fileLength  文件长度
+     */
+    private record LogScan(List<Message> messages, List<Long> offsets, List<Integer> counts,
+                           long validLength, long fileLength) {
+
+        int records() {
+            return offsets.size();
+        }
+    }
+
+    /**
+     * 日志的记录数和消息数
+     */
+    private record LogStats(int records, int messages) {
+
+        LogStats plus(LogStats other) {
+            return new LogStats(records + other.records, messages + other.messages);
+        }
     }
 }
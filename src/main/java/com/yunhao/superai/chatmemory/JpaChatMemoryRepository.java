@@ -0,0 +1,216 @@
+package com.yunhao.superai.chatmemory;
+
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.yunhao.superai.entity.ChatMessage;
+import com.yunhao.superai.repository.ChatMessageRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于 chat_messages / chat_sessions 表的对话记忆存储
+ *
+ * 表中保存完整的历史，读取时只用尾部查询取最后 windowSize 条；
+ * saveAll 收到的是整个窗口，与已存储的尾部比对后只追加新增的消息（见 {@link MessageWindowDiff}）；
+ * 尾部与窗口冲突时（例如其他节点在此期间追加了消息）重新读取更长的尾部合并，不会重复写入窗口中已有的消息。
+ * 每轮对话固定 3 次数据库往返：一次尾部查询、一次 JDBC 批量插入、一次 chat_sessions 的原地累加更新，
+ * 三者在同一个事务中完成，与会话长度无关。
+ * 已知新增消息时（作为 {@link TieredChatMemoryRepository} 的 L3）用 appendAll 直接批量追加，不读取尾部。
+ */
+@Slf4j
+public class JpaChatMemoryRepository implements AppendableChatMemoryRepository {
+
+    private static final String INSERT_SQL = "INSERT INTO chat_messages "
+            + "(session_id, message_type, content, metadata, created_at) VALUES (?, ?, ?, ?, ?)";
+
+    // 直接在数据库中累加，不需要先读出会话再写回；会话不存在（未通过会话接口创建）时不影响任何行
+    private static final String UPDATE_SESSION_SQL = "UPDATE chat_sessions "
+            + "SET message_count = COALESCE(message_count, 0) + ?, last_message_at = ?, updated_at = ? WHERE id = ?";
+
+    private static final String RESET_SESSION_SQL = "UPDATE chat_sessions SET message_count = 0, updated_at = ? WHERE id = ?";
+
+    private final ChatMessageRepository chatMessageRepository;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    // 读取的尾部消息条数，应不小于对话记忆在存储中保留的消息数
+    private final int windowSize;
+
+    public JpaChatMemoryRepository(ChatMessageRepository chatMessageRepository, JdbcTemplate jdbcTemplate,
+                                   PlatformTransactionManager transactionManager, int windowSize) {
+        this.chatMessageRepository = chatMessageRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    public List<String> findConversationIds() {
+        return jdbcTemplate.queryForList("SELECT DISTINCT session_id FROM chat_messages", String.class);
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        return readTail(conversationId, windowSize);
+    }
+
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        transactionTemplate.executeWithoutResult(status -> {
+            List<Message> storedTail = readTail(conversationId, windowSize);
+            if (MessageWindowDiff.conflicts(storedTail, messages)) {
+                // 多读一个窗口的长度，找到窗口前缀在已存储消息中的位置
+                storedTail = readTail(conversationId, windowSize + messages.size());
+                log.info("会话 {} 的窗口与已存储的消息冲突，重新读取后合并", conversationId);
+            }
+            List<Message> newMessages = MessageWindowDiff.newMessages(storedTail, messages);
+            if (newMessages.isEmpty()) {
+                return;
+            }
+            insert(Map.of(conversationId, newMessages));
+            log.debug("会话 {} 追加 {} 条消息", conversationId, newMessages.size());
+        });
+    }
+
+    /**
+     * 一个事务内批量插入所有会话的消息，每个会话的 chat_sessions 计数在同一次批量更新中累加
+     */
+    @Override
+    public void appendAll(Map<String, List<Message>> batches) {
+        if (batches.isEmpty()) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> insert(batches));
+        log.debug("{} 个会话批量追加消息", batches.size());
+    }
+
+    private void insert(Map<String, List<Message>> batches) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> rows = new ArrayList<>();
+        List<Object[]> sessions = new ArrayList<>(batches.size());
+        batches.forEach((conversationId, messages) -> {
+            for (Message message : messages) {
+                rows.add(new Object[]{conversationId, toMessageType(message).name(), toContent(message),
+                        toMetadata(message), now});
+            }
+            sessions.add(new Object[]{messages.size(), now, now, conversationId});
+        });
+        jdbcTemplate.batchUpdate(INSERT_SQL, rows);
+        jdbcTemplate.batchUpdate(UPDATE_SESSION_SQL, sessions);
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.update("DELETE FROM chat_messages WHERE session_id = ?", conversationId);
+            jdbcTemplate.update(RESET_SESSION_SQL, Timestamp.valueOf(LocalDateTime.now()), conversationId);
+        });
+    }
+
+    /**
+     * 尾部查询：按时间倒序取最后 limit 条，再恢复为正序
+     */
+    private List<Message> readTail(String conversationId, int limit) {
+        List<ChatMessage> latest = new ArrayList<>(chatMessageRepository.findLatestMessagesBySessionId(
+                conversationId, PageRequest.of(0, limit)));
+        Collections.reverse(latest);
+        List<Message> messages = new ArrayList<>(latest.size());
+        for (ChatMessage chatMessage : latest) {
+            messages.add(toMessage(chatMessage));
+        }
+        return messages;
+    }
+
+    private static ChatMessage.MessageType toMessageType(Message message) {
+        return switch (message.getMessageType()) {
+            case USER -> ChatMessage.MessageType.USER;
+            case ASSISTANT -> ChatMessage.MessageType.ASSISTANT;
+            case SYSTEM -> ChatMessage.MessageType.SYSTEM;
+            case TOOL -> ChatMessage.MessageType.TOOL;
+        };
+    }
+
+    /**
+     * 工具结果以 JSON 数组保存在 content 中，其余消息保存文本
+     */
+    private static String toContent(Message message) {
+        if (message instanceof ToolResponseMessage toolResponseMessage) {
+            JSONArray responses = new JSONArray();
+            for (ToolResponseMessage.ToolResponse response : toolResponseMessage.getResponses()) {
+                responses.add(new JSONObject()
+                        .set("id", response.id())
+                        .set("name", response.name())
+                        .set("responseData", response.responseData()));
+            }
+            return responses.toString();
+        }
+        return message.getText();
+    }
+
+    /**
+     * 助手消息的工具调用保存在 metadata 中
+     */
+    private static String toMetadata(Message message) {
+        if (message instanceof AssistantMessage assistantMessage && assistantMessage.hasToolCalls()) {
+            JSONArray toolCalls = new JSONArray();
+            for (AssistantMessage.ToolCall toolCall : assistantMessage.getToolCalls()) {
+                toolCalls.add(new JSONObject()
+                        .set("id", toolCall.id())
+                        .set("type", toolCall.type())
+                        .set("name", toolCall.name())
+                        .set("arguments", toolCall.arguments()));
+            }
+            return new JSONObject().set("toolCalls", toolCalls).toString();
+        }
+        return null;
+    }
+
+    private static Message toMessage(ChatMessage chatMessage) {
+        String content = chatMessage.getContent() == null ? "" : chatMessage.getContent();
+        return switch (chatMessage.getMessageType()) {
+            case USER -> new UserMessage(content);
+            case SYSTEM -> new SystemMessage(content);
+            case ASSISTANT -> {
+                List<AssistantMessage.ToolCall> toolCalls = new ArrayList<>();
+                if (chatMessage.getMetadataJson() != null && JSONUtil.isTypeJSONObject(chatMessage.getMetadataJson())) {
+                    JSONArray array = JSONUtil.parseObj(chatMessage.getMetadataJson()).getJSONArray("toolCalls");
+                    if (array != null) {
+                        for (JSONObject toolCall : array.jsonIter()) {
+                            toolCalls.add(new AssistantMessage.ToolCall(toolCall.getStr("id"), toolCall.getStr("type"),
+                                    toolCall.getStr("name"), toolCall.getStr("arguments")));
+                        }
+                    }
+                }
+                yield new AssistantMessage(content, Map.of(), toolCalls);
+            }
+            case TOOL -> {
+                List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>();
+                if (JSONUtil.isTypeJSONArray(content)) {
+                    for (JSONObject response : JSONUtil.parseArray(content).jsonIter()) {
+                        responses.add(new ToolResponseMessage.ToolResponse(response.getStr("id"),
+                                response.getStr("name"), response.getStr("responseData")));
+                    }
+                }
+                yield new ToolResponseMessage(responses, Map.of());
+            }
+        };
+    }
+}
@@ -0,0 +1,188 @@
+package com.yunhao.superai.chatmemory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 内存映射的溢出文件
+ *
+ * 按键保存字节数组，数据写入映射区域（位于页缓存，不占用 Java 堆），堆内只保留每个键的偏移和长度。
+ * 写入总是追加到末尾，删除和覆盖只留下空洞；空间不足时，空洞占一半以上先原地压缩，否则按倍数扩大映射。
+ * 文件只是堆的延伸，不做持久化：创建时清空，关闭时删除。
+ * 所有方法在自身上同步，扩大映射和压缩只阻塞对溢出文件的访问。
+ */
+final class MappedSpillFile implements AutoCloseable {
+
+    // 单个映射区域的上限
+    static final long MAX_CAPACITY = Integer.MAX_VALUE;
+
+    private final Path path;
+
+    private final FileChannel channel;
+
+    private MappedByteBuffer buffer;
+
+    private long capacity;
+
+    private final long maxCapacity;
+
+    // 下一次写入的位置，之前的区域由存活数据和空洞组成
+    private long writePosition;
+
+    private long liveBytes;
+
+    private final Map<String, Slot> slots = new HashMap<>();
+
+    MappedSpillFile(Path path, long initialCapacity) throws IOException {
+        this(path, initialCapacity, MAX_CAPACITY);
+    }
+
+    /**
+     * @param maxCapacity 映射区域的上限，不超过 {@link #MAX_CAPACITY}
+     */
+    MappedSpillFile(Path path, long initialCapacity, long maxCapacity) throws IOException {
+        this.path = path;
+        Files.createDirectories(path.getParent());
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.maxCapacity = Math.min(maxCapacity, MAX_CAPACITY);
+        this.capacity = Math.min(initialCapacity, this.maxCapacity);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * 写入（覆盖）一个键
+     *
+     * @throws IOException 扩大映射失败，或超出映射区域的上限
+     */
+    synchronized void put(String key, byte[] bytes) throws IOException {
+        remove(key);
+        ensureCapacity(bytes.length);
+        buffer.put((int) writePosition, bytes);
+        slots.put(key, new Slot(writePosition, bytes.length));
+        writePosition += bytes.length;
+        liveBytes += bytes.length;
+    }
+
+    /**
+     * 读出一个键
+     *
+     * @return 不存在时为 null
+     */
+    synchronized byte[] get(String key) {
+        Slot slot = slots.get(key);
+        if (slot == null) {
+            return null;
+        }
+        byte[] bytes = new byte[slot.length()];
+        buffer.get((int) slot.offset(), bytes);
+        return bytes;
+    }
+
+    /**
+     * 读出并删除一个键
+     *
+     * @return 不存在时为 null
+     */
+    synchronized byte[] take(String key) {
+        Slot slot = slots.remove(key);
+        if (slot == null) {
+            return null;
+        }
+        byte[] bytes = new byte[slot.length()];
+        buffer.get((int) slot.offset(), bytes);
+        liveBytes -= slot.length();
+        resetIfEmpty();
+        return bytes;
+    }
+
+    synchronized boolean remove(String key) {
+        Slot slot = slots.remove(key);
+        if (slot == null) {
+            return false;
+        }
+        liveBytes -= slot.length();
+        resetIfEmpty();
+        return true;
+    }
+
+    synchronized int size() {
+        return slots.size();
+    }
+
+    synchronized long liveBytes() {
+        return liveBytes;
+    }
+
+    synchronized long capacity() {
+        return capacity;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        slots.clear();
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+
+    private void resetIfEmpty() {
+        if (slots.isEmpty()) {
+            writePosition = 0;
+        }
+    }
+
+    private void ensureCapacity(int length) throws IOException {
+        if (writePosition + length <= capacity) {
+            return;
+        }
+        if (writePosition - liveBytes >= writePosition / 2) {
+            compact();
+            if (writePosition + length <= capacity) {
+                return;
+            }
+        }
+        long required = writePosition + length;
+        if (required > maxCapacity) {
+            throw new IOException("溢出文件超出上限: " + required + " 字节");
+        }
+        long newCapacity = Math.min(Math.max(capacity * 2, required), maxCapacity);
+        // 映射更大的区域时文件随之扩大，旧的映射由 GC 释放
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, newCapacity);
+        capacity = newCapacity;
+    }
+
+    /**
+     * 按偏移顺序把存活数据前移，消除空洞
+     */
+    private void compact() {
+        List<Map.Entry<String, Slot>> entries = new ArrayList<>(slots.entrySet());
+        entries.sort(Comparator.comparingLong(entry -> entry.getValue().offset()));
+        long position = 0;
+        for (Map.Entry<String, Slot> entry : entries) {
+            Slot slot = entry.getValue();
+            if (slot.offset() != position) {
+                byte[] bytes = new byte[slot.length()];
+                buffer.get((int) slot.offset(), bytes);
+                buffer.put((int) position, bytes);
+                entry.setValue(new Slot(position, slot.length()));
+            }
+            position += slot.length();
+        }
+        writePosition = position;
+    }
+
+    /**
+     * 数据在映射区域中的位置
+     */
+    private record Slot(long offset, int length) {
+    }
+}
@@ -0,0 +1,102 @@
+package com.yunhao.superai.chatmemory;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 消息窗口差分
+ *
+ * MessageWindowChatMemory 每次 saveAll 传入的是整个窗口（已存储的最后若干条 + 本轮新增的消息，超出窗口的旧消息被裁掉），
+ * 只追加不删除的存储只需要写入其中真正新增的部分：找到已存储尾部的最长后缀，使其等于窗口的前缀，窗口剩下的部分就是新消息。
+ *
+ * 尾部非空却与窗口没有重叠时视为冲突：通常是读取窗口之后其他节点又追加了消息，或者窗口基于旧数据生成。
+ * 这时整个窗口都追加会写入重复的消息，调用方应重新读取尾部再计算，按窗口前缀在尾部中出现的位置合并。
+ */
+public final class MessageWindowDiff {
+
+    private MessageWindowDiff() {
+    }
+
+    /**
+     * 计算窗口中尚未存储的消息
+     *
+     * @param storedTail 已存储的最后若干条消息（条数不少于窗口长度时结果最准确）
+     * @param window     要保存的消息窗口
+     * @return 窗口中需要追加的消息
+     */
+    public static List<Message> newMessages(List<Message> storedTail, List<Message> window) {
+        int overlap = overlap(storedTail, window);
+        if (overlap > 0 || storedTail.isEmpty()) {
+            return window.subList(overlap, window.size());
+        }
+        return merge(storedTail, window);
+    }
+
+    /**
+     * 已存储的尾部非空且与窗口没有重叠，调用方应重新读取尾部后再计算新消息
+     */
+    public static boolean conflicts(List<Message> storedTail, List<Message> window) {
+        return !storedTail.isEmpty() && !window.isEmpty() && overlap(storedTail, window) == 0;
+    }
+
+    /**
+     * 冲突时合并：在尾部中找到与窗口最长前缀相同的一段（取最后一次出现），
+     * 窗口剩下的部分再与尾部这段之后的消息合并；窗口与尾部没有任何相同的部分时整个窗口都是新消息
+     */
+    private static List<Message> merge(List<Message> storedTail, List<Message> window) {
+        for (int length = Math.min(storedTail.size(), window.size()); length > 0; length--) {
+            for (int start = storedTail.size() - length; start >= 0; start--) {
+                if (matches(storedTail.subList(start, start + length), window.subList(0, length))) {
+                    return merge(storedTail.subList(start + length, storedTail.size()),
+                            window.subList(length, window.size()));
+                }
+            }
+        }
+        return window;
+    }
+
+    /**
+     * 已存储尾部的后缀与窗口前缀最长的重叠条数
+     *
+     * @param storedTail 已存储的最后若干条消息
+     * @param window     要保存的消息窗口
+     * @return 重叠的消息条数，0 表示没有重叠
+     */
+    public static int overlap(List<Message> storedTail, List<Message> window) {
+        for (int overlap = Math.min(storedTail.size(), window.size()); overlap > 0; overlap--) {
+            if (matches(storedTail.subList(storedTail.size() - overlap, storedTail.size()), window.subList(0, overlap))) {
+                return overlap;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean matches(List<Message> a, List<Message> b) {
+        for (int i = 0; i < a.size(); i++) {
+            if (!sameMessage(a.get(i), b.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按类型、文本和工具调用比较消息，不比较元数据（存储往返后元数据可能不同）
+     */
+    static boolean sameMessage(Message a, Message b) {
+        if (a.getMessageType() != b.getMessageType() || !Objects.equals(a.getText(), b.getText())) {
+            return false;
+        }
+        if (a instanceof AssistantMessage assistantA && b instanceof AssistantMessage assistantB) {
+            return Objects.equals(assistantA.getToolCalls(), assistantB.getToolCalls());
+        }
+        if (a instanceof ToolResponseMessage toolA && b instanceof ToolResponseMessage toolB) {
+            return Objects.equals(toolA.getResponses(), toolB.getResponses());
+        }
+        return true;
+    }
+}
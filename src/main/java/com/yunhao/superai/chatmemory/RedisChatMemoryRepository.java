@@ -0,0 +1,183 @@
+package com.yunhao.superai.chatmemory;
+
+import com.yunhao.superai.utils.KryoSerializer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 基于 Redis 的对话记忆存储
+ *
+ * 每个会话一个列表（{keyPrefix}{conversationId}），元素是 Kryo 序列化的单条消息，
+ * 列表长度上限为窗口大小并带有过期时间，会话 ID 另外记录在一个集合中。
+ * 追加、裁剪、续期和登记会话在一个 pipeline 中发送，只需一次往返；
+ * saveAll 需要先读出列表再比对，读取和追加之间列表可能被其他节点修改，因此用 WATCH + MULTI/EXEC 执行，
+ * 列表在此期间被修改时事务不执行，重新读取后重试。
+ * 多个节点共享同一个 Redis，同一个会话的请求落到任何节点都能读到完整的窗口，不需要会话粘滞。
+ */
+@Slf4j
+public class RedisChatMemoryRepository implements ChatMemoryRepository {
+
+    // saveAll 因并发修改而重试的最大次数
+    private static final int MAX_SAVE_ATTEMPTS = 5;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final String keyPrefix;
+
+    // 每个会话列表的长度上限
+    private final int maxMessages;
+
+    private final Duration ttl;
+
+    private final byte[] idsKey;
+
+    public RedisChatMemoryRepository(StringRedisTemplate redisTemplate, String keyPrefix, int maxMessages, Duration ttl) {
+        this.redisTemplate = redisTemplate;
+        this.keyPrefix = keyPrefix;
+        this.maxMessages = maxMessages;
+        this.ttl = ttl;
+        this.idsKey = bytes(keyPrefix + "ids");
+    }
+
+    @Override
+    public List<String> findConversationIds() {
+        Set<byte[]> members = redisTemplate.execute((RedisCallback<Set<byte[]>>) connection ->
+                connection.setCommands().sMembers(idsKey));
+        if (members == null || members.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<String> ids = members.stream().map(member -> new String(member, StandardCharsets.UTF_8)).toList();
+        // 会话列表过期后集合中的 ID 不会自动删除，这里顺带清理
+        List<Object> exists = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String id : ids) {
+                connection.keyCommands().exists(key(id));
+            }
+            return null;
+        });
+        List<String> alive = new ArrayList<>();
+        List<byte[]> expired = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            if (Boolean.TRUE.equals(exists.get(i))) {
+                alive.add(ids.get(i));
+            } else {
+                expired.add(bytes(ids.get(i)));
+            }
+        }
+        if (!expired.isEmpty()) {
+            redisTemplate.execute((RedisCallback<Long>) connection ->
+                    connection.setCommands().sRem(idsKey, expired.toArray(new byte[0][])));
+        }
+        return alive;
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        List<Message> messages = redisTemplate.execute((RedisCallback<List<Message>>) connection ->
+                read(connection, key(conversationId)));
+        return messages == null ? new ArrayList<>() : messages;
+    }
+
+    /**
+     * 保存窗口：与当前列表比对后只追加新增的消息
+     */
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        saveWindow(conversationId, messages);
+    }
+
+    /**
+     * 保存窗口：WATCH 会话列表后读取并比对，在 MULTI/EXEC 中追加新增的消息；
+     * 列表在读取之后被修改时 EXEC 不执行任何命令，重新读取后重试
+     *
+     * @param conversationId 会话 ID
+     * @param messages       消息窗口
+     * @return 实际追加的消息
+     */
+    public List<Message> saveWindow(String conversationId, List<Message> messages) {
+        byte[] key = key(conversationId);
+        for (int attempt = 1; attempt <= MAX_SAVE_ATTEMPTS; attempt++) {
+            List<Message> appended = redisTemplate.execute((RedisCallback<List<Message>>) connection -> {
+                connection.watch(key);
+                List<Message> newMessages = new ArrayList<>(MessageWindowDiff.newMessages(read(connection, key), messages));
+                byte[][] values = newMessages.stream().map(KryoSerializer::serialize).toArray(byte[][]::new);
+                connection.multi();
+                queueAppend(connection, key, conversationId, values);
+                List<Object> results = connection.exec();
+                // 事务被放弃时没有任何结果
+                return results == null || results.isEmpty() ? null : newMessages;
+            });
+            if (appended != null) {
+                return appended;
+            }
+            log.debug("会话 {} 的列表在保存期间被修改，重试（第 {} 次）", conversationId, attempt);
+        }
+        throw new IllegalStateException("会话 " + conversationId + " 的并发写入过多，重试 " + MAX_SAVE_ATTEMPTS + " 次后仍未保存");
+    }
+
+    /**
+     * 追加消息，RPUSH、LTRIM、EXPIRE、SADD 在同一个 pipeline 中一次往返完成
+     *
+     * @param conversationId 会话 ID
+     * @param messages       新增的消息
+     */
+    public void append(String conversationId, List<Message> messages) {
+        byte[] key = key(conversationId);
+        byte[][] values = messages.stream().map(KryoSerializer::serialize).toArray(byte[][]::new);
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            queueAppend(connection, key, conversationId, values);
+            return null;
+        });
+    }
+
+    /**
+     * 在 pipeline 或事务中追加、裁剪、续期并登记会话
+     */
+    private void queueAppend(RedisConnection connection, byte[] key, String conversationId, byte[][] values) {
+        if (values.length > 0) {
+            connection.listCommands().rPush(key, values);
+            connection.listCommands().lTrim(key, -maxMessages, -1);
+        }
+        // 每次写入都会续期，活跃的会话不会过期
+        connection.keyCommands().expire(key, ttl.toSeconds());
+        connection.setCommands().sAdd(idsKey, bytes(conversationId));
+    }
+
+    private static List<Message> read(RedisConnection connection, byte[] key) {
+        List<byte[]> values = connection.listCommands().lRange(key, 0, -1);
+        List<Message> messages = new ArrayList<>();
+        if (values == null) {
+            return messages;
+        }
+        for (byte[] value : values) {
+            messages.add(KryoSerializer.deserialize(value));
+        }
+        return messages;
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.keyCommands().del(key(conversationId));
+            connection.setCommands().sRem(idsKey, bytes(conversationId));
+            return null;
+        });
+    }
+
+    private byte[] key(String conversationId) {
+        return bytes(keyPrefix + conversationId);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
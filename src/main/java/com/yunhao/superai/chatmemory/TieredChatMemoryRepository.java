@@ -0,0 +1,430 @@
+package com.yunhao.superai.chatmemory;
+
+import cn.hutool.core.util.IdUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * 三级对话记忆存储
+ *
+ * L1：进程内按 LRU 淘汰的缓存，热点会话读取不需要任何网络往返；
+ * L2：Redis（{@link RedisChatMemoryRepository}），所有节点共享的窗口；
+ * L3：MySQL chat_messages（{@link JpaChatMemoryRepository}），持久保存完整历史。
+ *
+ * 读取逐级穿透，下级命中后回填上级；写入同步更新 L1 和 L2（与 L1 中的上一个窗口比对，只追加新增消息，一次往返），
+ * L1 未命中、或 L1 中的窗口与要保存的窗口冲突时（其他节点已经追加过），改为在 L2 上用 WATCH + MULTI/EXEC 原子地比对合并。
+ * L2 是同步写入的权威窗口；L2 比对得到的新增消息放入队列，由后台线程按固定间隔批量追加到 L3，L3 不需要再读取尾部比对，
+ * 请求线程不等待数据库。队列中的消息数达到上限时立即触发一次写入，达到上限的 2 倍时（L3 写不过来或一直失败）
+ * 由调用方直接写入，失败的异常抛给调用方；写入失败的消息放回队列重试，关闭时写入剩余的消息。
+ * 写入后通过 Redis pub/sub 通知其他节点淘汰各自的 L1；pub/sub 消息可能丢失，L1 条目另有最长存活时间作为兜底。
+ */
+@Slf4j
+public class TieredChatMemoryRepository implements ChatMemoryRepository, AutoCloseable {
+
+    // 队列中的消息数达到 l3MaxPending 的该倍数时，调用方直接写入 L3
+    private static final int PENDING_LIMIT_FACTOR = 2;
+
+    private final RedisChatMemoryRepository l2;
+
+    private final AppendableChatMemoryRepository l3;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final String invalidationChannel;
+
+    // 节点 ID，收到自己发出的失效通知时忽略
+    private final String nodeId = IdUtil.fastSimpleUUID();
+
+    private final long l1MaxAgeNanos;
+
+    // 会话 ID -> L1 条目，按访问顺序淘汰，访问需要在 l1 上同步
+    private final LinkedHashMap<String, L1Entry> l1;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Counter invalidationCounter;
+
+    private final int l3MaxPending;
+
+    // 会话 ID -> 尚未写入 L3 的消息（按追加顺序），访问需要在 pending 上同步
+    private final LinkedHashMap<String, List<Message>> pending = new LinkedHashMap<>();
+
+    // pending 中的消息总数，访问需要在 pending 上同步
+    private int pendingCount;
+
+    // 同一时间只有一次 L3 写入在进行，保证同一会话的追加顺序
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private final ScheduledExecutorService flusher =
+            Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("chat-memory-l3-writer").daemon().factory());
+
+    private volatile boolean closed;
+
+    private final Counter flushFailureCounter;
+
+    private final Counter writeThroughCounter;
+
+    private final Timer flushTimer;
+
+    public TieredChatMemoryRepository(RedisChatMemoryRepository l2, AppendableChatMemoryRepository l3,
+                                      StringRedisTemplate redisTemplate, RedisConnectionFactory connectionFactory,
+                                      String invalidationChannel, int l1MaxConversations, Duration l1MaxAge,
+                                      Duration l3FlushInterval, int l3MaxPending, MeterRegistry meterRegistry) {
+        this.l2 = l2;
+        this.l3 = l3;
+        this.l3MaxPending = l3MaxPending;
+        this.redisTemplate = redisTemplate;
+        this.invalidationChannel = invalidationChannel;
+        this.l1MaxAgeNanos = l1MaxAge.toNanos();
+        this.l1 = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, L1Entry> eldest) {
+                return size() > l1MaxConversations;
+            }
+        };
+        this.meterRegistry = meterRegistry;
+        for (String tier : List.of("l1", "l2", "l3")) {
+            Gauge.builder("chat.memory.tier.hit.ratio", () -> hitRatio(tier))
+                    .tag("tier", tier)
+                    .description("各级对话记忆存储的命中率")
+                    .register(meterRegistry);
+        }
+        Gauge.builder("chat.memory.tier.l1.size", this, TieredChatMemoryRepository::l1Size)
+                .description("L1 中的会话数")
+                .register(meterRegistry);
+        this.invalidationCounter = Counter.builder("chat.memory.tier.invalidations")
+                .description("收到其他节点的失效通知而淘汰的 L1 条目数")
+                .register(meterRegistry);
+        Gauge.builder("chat.memory.tier.l3.pending", this, TieredChatMemoryRepository::pendingCount)
+                .description("等待写入 L3 的消息数")
+                .register(meterRegistry);
+        this.flushFailureCounter = Counter.builder("chat.memory.tier.l3.flush.failures")
+                .description("批量写入 L3 失败的次数")
+                .register(meterRegistry);
+        this.writeThroughCounter = Counter.builder("chat.memory.tier.l3.writes.through")
+                .description("队列中的消息过多时由调用方直接写入 L3 的次数")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("chat.memory.tier.l3.flush")
+                .description("一次批量写入 L3 的耗时")
+                .register(meterRegistry);
+        long intervalMs = l3FlushInterval.toMillis();
+        flusher.scheduleWithFixedDelay(this::flushQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+
+        listenerContainer = new RedisMessageListenerContainer();
+        listenerContainer.setConnectionFactory(connectionFactory);
+        listenerContainer.addMessageListener((message, pattern) ->
+                onInvalidation(new String(message.getBody(), StandardCharsets.UTF_8)), new ChannelTopic(invalidationChannel));
+        listenerContainer.afterPropertiesSet();
+        listenerContainer.start();
+    }
+
+    @Override
+    public List<String> findConversationIds() {
+        Set<String> ids = new LinkedHashSet<>(l3.findConversationIds());
+        synchronized (pending) {
+            ids.addAll(pending.keySet());
+        }
+        return new ArrayList<>(ids);
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        L1Entry entry = getL1(conversationId);
+        if (entry != null) {
+            record("l1", true, 0);
+            return entry.messages();
+        }
+        record("l1", false, 0);
+        List<Message> messages = timed("l2", () -> l2.findByConversationId(conversationId));
+        if (!messages.isEmpty()) {
+            putL1(conversationId, messages);
+            return List.copyOf(messages);
+        }
+        messages = timed("l3", () -> readL3(conversationId));
+        if (!messages.isEmpty()) {
+            // 回填 L2，其他节点之后也能直接从 L2 读到
+            l2.saveAll(conversationId, messages);
+        }
+        putL1(conversationId, messages);
+        return List.copyOf(messages);
+    }
+
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        L1Entry entry = getL1(conversationId);
+        List<Message> newMessages;
+        if (entry != null && !MessageWindowDiff.conflicts(entry.messages(), messages)) {
+            newMessages = MessageWindowDiff.newMessages(entry.messages(), messages);
+            if (!newMessages.isEmpty()) {
+                l2.append(conversationId, newMessages);
+            }
+        } else {
+            // L1 未命中或其中的窗口已经过期，在 L2 上原子地比对并追加
+            newMessages = l2.saveWindow(conversationId, messages);
+        }
+        putL1(conversationId, messages);
+        if (!newMessages.isEmpty()) {
+            enqueueL3(conversationId, newMessages);
+            publishInvalidation(conversationId);
+        }
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        synchronized (l1) {
+            l1.remove(conversationId);
+        }
+        l2.deleteByConversationId(conversationId);
+        // 与后台写入互斥，已经出队、正在写入的消息不会在删除之后落到 L3
+        flushLock.lock();
+        try {
+            synchronized (pending) {
+                List<Message> queued = pending.remove(conversationId);
+                if (queued != null) {
+                    pendingCount -= queued.size();
+                }
+            }
+            l3.deleteByConversationId(conversationId);
+        } finally {
+            flushLock.unlock();
+        }
+        publishInvalidation(conversationId);
+    }
+
+    /**
+     * 把队列中的消息批量写入 L3，失败时放回队列并把异常抛给调用方
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            Map<String, List<Message>> batches;
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batches = new LinkedHashMap<>(pending);
+                pending.clear();
+                pendingCount = 0;
+            }
+            try {
+                flushTimer.record(() -> l3.appendAll(batches));
+            } catch (RuntimeException e) {
+                flushFailureCounter.increment();
+                requeue(batches);
+                throw e;
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 停止接收失效通知和后台写入，写入队列中剩余的消息，之后的写入直接落到 L3
+     */
+    @Override
+    public void close() throws Exception {
+        listenerContainer.stop();
+        listenerContainer.destroy();
+        closed = true;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        log.info("三级对话记忆存储已关闭，剩余消息已写入 L3");
+    }
+
+    private void enqueueL3(String conversationId, List<Message> newMessages) {
+        int count;
+        synchronized (pending) {
+            pending.computeIfAbsent(conversationId, id -> new ArrayList<>()).addAll(newMessages);
+            pendingCount += newMessages.size();
+            count = pendingCount;
+        }
+        if (closed) {
+            flush();
+        } else if (count >= l3MaxPending * PENDING_LIMIT_FACTOR) {
+            writeThroughCounter.increment();
+            flush();
+        } else if (count >= l3MaxPending) {
+            try {
+                flusher.execute(this::flushQuietly);
+            } catch (RejectedExecutionException e) {
+                // 正在关闭，关闭时会写入剩余的消息
+            }
+        }
+    }
+
+    /**
+     * 写入失败的消息放回队列，排在写入期间新入队的同一会话消息之前
+     */
+    private void requeue(Map<String, List<Message>> batches) {
+        synchronized (pending) {
+            LinkedHashMap<String, List<Message>> merged = new LinkedHashMap<>(batches);
+            pending.forEach((conversationId, messages) ->
+                    merged.merge(conversationId, messages, (failed, queued) -> {
+                        failed.addAll(queued);
+                        return failed;
+                    }));
+            pending.clear();
+            pending.putAll(merged);
+            pendingCount = merged.values().stream().mapToInt(List::size).sum();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("写入 L3 失败，下次重试", e);
+        }
+    }
+
+    /**
+     * 读取 L3；会话还有未写入的消息时持有写入锁读取并拼上这些消息，避免和正在进行的写入重复或遗漏
+     */
+    private List<Message> readL3(String conversationId) {
+        boolean queued;
+        synchronized (pending) {
+            queued = pending.containsKey(conversationId);
+        }
+        if (!queued) {
+            return l3.findByConversationId(conversationId);
+        }
+        flushLock.lock();
+        try {
+            List<Message> messages = new ArrayList<>(l3.findByConversationId(conversationId));
+            synchronized (pending) {
+                messages.addAll(pending.getOrDefault(conversationId, List.of()));
+            }
+            return messages;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private int pendingCount() {
+        synchronized (pending) {
+            return pendingCount;
+        }
+    }
+
+    private void publishInvalidation(String conversationId) {
+        try {
+            redisTemplate.convertAndSend(invalidationChannel, nodeId + ":" + conversationId);
+        } catch (RuntimeException e) {
+            // 通知失败时其他节点的 L1 最多在最长存活时间后过期
+            log.warn("发布会话 {} 的失效通知失败", conversationId, e);
+        }
+    }
+
+    private void onInvalidation(String payload) {
+        int separator = payload.indexOf(':');
+        if (separator < 0 || payload.substring(0, separator).equals(nodeId)) {
+            return;
+        }
+        String conversationId = payload.substring(separator + 1);
+        synchronized (l1) {
+            if (l1.remove(conversationId) != null) {
+                invalidationCounter.increment();
+            }
+        }
+    }
+
+    private L1Entry getL1(String conversationId) {
+        synchronized (l1) {
+            L1Entry entry = l1.get(conversationId);
+            if (entry != null && System.nanoTime() - entry.loadedAt() > l1MaxAgeNanos) {
+                l1.remove(conversationId);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    private void putL1(String conversationId, List<Message> messages) {
+        synchronized (l1) {
+            l1.put(conversationId, new L1Entry(List.copyOf(messages), System.nanoTime()));
+        }
+    }
+
+    private int l1Size() {
+        synchronized (l1) {
+            return l1.size();
+        }
+    }
+
+    /**
+     * 读取下一级存储并记录耗时和是否命中（空会话视为未命中）
+     */
+    private List<Message> timed(String tier, Supplier<List<Message>> reader) {
+        long start = System.nanoTime();
+        List<Message> messages = reader.get();
+        record(tier, !messages.isEmpty(), System.nanoTime() - start);
+        return messages;
+    }
+
+    private void record(String tier, boolean hit, long nanos) {
+        Counter.builder("chat.memory.tier.requests")
+                .tag("tier", tier)
+                .tag("result", hit ? "hit" : "miss")
+                .description("各级对话记忆存储的读取次数")
+                .register(meterRegistry)
+                .increment();
+        if (!"l1".equals(tier)) {
+            Timer.builder("chat.memory.tier.latency")
+                    .tag("tier", tier)
+                    .description("各级对话记忆存储的读取耗时")
+                    .register(meterRegistry)
+                    .record(Duration.ofNanos(nanos));
+        }
+    }
+
+    private double hitRatio(String tier) {
+        double hits = count(tier, "hit");
+        double total = hits + count(tier, "miss");
+        return total == 0 ? 0 : hits / total;
+    }
+
+    private double count(String tier, String result) {
+        Counter counter = meterRegistry.find("chat.memory.tier.requests").tag("tier", tier).tag("result", result).counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    /**
+     * L1 条目
+     *
+     * @param messages 消息（不可变列表）
+     * @param loadedAt 写入 L1 的时间（System.nanoTime）
+     */
+    private record L1Entry(List<Message> messages, long loadedAt) {
+    }
+}
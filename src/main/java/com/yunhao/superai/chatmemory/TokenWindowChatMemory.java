@@ -0,0 +1,259 @@
+package com.yunhao.superai.chatmemory;
+
+import cn.hutool.crypto.SecureUtil;
+import com.yunhao.superai.utils.TokenEstimator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 按 token 预算裁剪的对话记忆
+ *
+ * 读取时返回"摘要 + 最近的消息"：从最新的消息往前取，直到估算 token 数（{@link TokenEstimator}）用完预算，
+ * 摘要以一条系统消息放在最前面，同样计入预算。
+ *
+ * 超出预算的较早消息不会立即丢弃，先作为待摘要消息留在存储中，读取时不返回；
+ * 积累到 summaryEveryTurns 轮（或存储的消息数超过 maxMessages）后调用 {@link ConversationSummarizer}
+ * 把它们合并进已有摘要。摘要按增量更新，每次只处理新移出窗口的消息，不重新处理整段历史。
+ * 摘要需要一次完整的模型调用，在后台虚拟线程上执行，不阻塞 add（它在请求线程上被 MessageChatMemoryAdvisor 调用）；
+ * 同一会话同时只有一个摘要在进行，新摘要保存之前读取仍使用上一份摘要。
+ *
+ * 摘要保存在同一个存储的另一个会话中（ID 由会话 ID 的哈希得到，见 {@link #summaryKey(String)}），
+ * 每次更新保存 [已摘要的最后几条消息..., 摘要]。
+ * 读取时按摘要旁记录的这几条消息定位已摘要的位置，跳过它及之前的消息，不会重复摘要；
+ * 消息窗口本身只在头部裁剪、尾部追加，与 {@link MessageWindowDiff} 配合的只追加存储（数据库、Redis、分层）
+ * 不会因为摘要变化而重复写入消息，但也不会删除已经合并进摘要的消息。
+ */
+@Slf4j
+public class TokenWindowChatMemory implements ChatMemory {
+
+    // 摘要会话 ID 的前缀，加上 32 位十六进制哈希后共 40 个字符，不超过数据库 session_id 列的长度，也可以直接作为文件名
+    private static final String SUMMARY_KEY_PREFIX = "summary-";
+
+    // 返回给模型的摘要消息前缀
+    static final String SUMMARY_PREFIX = "以下是本次对话较早内容的摘要：\n";
+
+    // 与摘要一起保存的已摘要的最后几条消息，用于在只追加的存储中定位已摘要的位置
+    private static final int SUMMARIZED_THROUGH_MESSAGES = 2;
+
+    private final ChatMemoryRepository repository;
+
+    private final int tokenBudget;
+
+    // 存储中消息窗口（待摘要消息 + 最近的消息）的最大条数，不应超过存储的尾部读取条数
+    private final int maxMessages;
+
+    private final int summaryEveryTurns;
+
+    // 为 null 时不生成摘要，超出预算的消息直接丢弃
+    private final ConversationSummarizer summarizer;
+
+    // 执行摘要的线程
+    private final Executor summaryExecutor;
+
+    // 正在摘要的会话
+    private final Set<String> summarizing = ConcurrentHashMap.newKeySet();
+
+    public TokenWindowChatMemory(ChatMemoryRepository repository, int tokenBudget, int maxMessages,
+                                 int summaryEveryTurns, ConversationSummarizer summarizer) {
+        this(repository, tokenBudget, maxMessages, summaryEveryTurns, summarizer,
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-memory-summary-", 0).factory()));
+    }
+
+    TokenWindowChatMemory(ChatMemoryRepository repository, int tokenBudget, int maxMessages,
+                          int summaryEveryTurns, ConversationSummarizer summarizer, Executor summaryExecutor) {
+        this.repository = repository;
+        this.tokenBudget = tokenBudget;
+        this.maxMessages = maxMessages;
+        this.summaryEveryTurns = summaryEveryTurns;
+        this.summarizer = summarizer;
+        this.summaryExecutor = summaryExecutor;
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        Summary summary = summarizer == null ? Summary.NONE : findSummary(conversationId);
+        List<Message> window = new ArrayList<>(unsummarized(repository.findByConversationId(conversationId), summary));
+        window.addAll(messages);
+        int tailStart = tailStart(window, summary.text());
+        List<Message> pending = window.subList(0, tailStart);
+        if (summarizer == null) {
+            // 不生成摘要时直接丢弃超出预算的消息
+            pending.clear();
+        } else if (!pending.isEmpty() && (countTurns(pending) >= summaryEveryTurns || window.size() > maxMessages)
+                && summarizing.add(conversationId)) {
+            // 待摘要消息留在窗口中，摘要保存后由 unsummarized 跳过；摘要失败时下一轮重试
+            summarizeAsync(conversationId, summary.text(), List.copyOf(pending));
+        }
+        if (window.size() > maxMessages) {
+            // 最早的消息已经交给摘要（或摘要一直失败），超出条数上限的部分不再保留
+            window.subList(0, window.size() - maxMessages).clear();
+        }
+        repository.saveAll(conversationId, window);
+    }
+
+    /**
+     * 在后台把待摘要消息合并进摘要，调用方已把会话加入 summarizing
+     */
+    private void summarizeAsync(String conversationId, String previousSummary, List<Message> pending) {
+        try {
+            summaryExecutor.execute(() -> {
+                try {
+                    String newSummary = summarizer.summarize(previousSummary, pending);
+                    List<Message> summaryRecord = new ArrayList<>(summarizedThrough(pending));
+                    summaryRecord.add(new SystemMessage(newSummary));
+                    repository.saveAll(summaryKey(conversationId), summaryRecord);
+                    log.debug("会话 {} 的 {} 条较早消息已合并进摘要", conversationId, pending.size());
+                } catch (Exception e) {
+                    log.warn("会话 {} 更新摘要失败: {}", conversationId, e.getMessage());
+                } finally {
+                    summarizing.remove(conversationId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            summarizing.remove(conversationId);
+            log.warn("会话 {} 的摘要任务被拒绝: {}", conversationId, e.getMessage());
+        }
+    }
+
+    @Override
+    public List<Message> get(String conversationId) {
+        Summary summary = summarizer == null ? Summary.NONE : findSummary(conversationId);
+        List<Message> window = unsummarized(repository.findByConversationId(conversationId), summary);
+        List<Message> result = new ArrayList<>();
+        if (summary.text() != null) {
+            result.add(summaryMessage(summary.text()));
+        }
+        result.addAll(window.subList(tailStart(window, summary.text()), window.size()));
+        return result;
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        repository.deleteByConversationId(conversationId);
+        repository.deleteByConversationId(summaryKey(conversationId));
+    }
+
+    /**
+     * 计算预算内最近消息的起始下标：从后往前累加，至少保留最后一条，且不超过 maxMessages 条；
+     * 起点对齐到用户消息，按整轮保留和摘要，没有用户消息时至少不落在工具结果上
+     */
+    private int tailStart(List<Message> window, String summary) {
+        int budget = tokenBudget - (summary == null ? 0 : TokenEstimator.estimate(summaryMessage(summary)));
+        int start = window.size();
+        int tokens = 0;
+        while (start > 0 && window.size() - start < maxMessages) {
+            int messageTokens = TokenEstimator.estimate(window.get(start - 1));
+            if (start < window.size() && tokens + messageTokens > budget) {
+                break;
+            }
+            tokens += messageTokens;
+            start--;
+        }
+        for (int i = start; i < window.size(); i++) {
+            if (window.get(i) instanceof UserMessage) {
+                return i;
+            }
+        }
+        while (start < window.size() - 1 && window.get(start) instanceof ToolResponseMessage) {
+            start++;
+        }
+        return start;
+    }
+
+    private Summary findSummary(String conversationId) {
+        List<Message> records = repository.findByConversationId(summaryKey(conversationId));
+        if (records.isEmpty()) {
+            return Summary.NONE;
+        }
+        // 只追加的存储中会保留历次记录，最后一条是最新的摘要，它与上一条摘要之间是已摘要的最后几条消息
+        int last = records.size() - 1;
+        int from = last;
+        while (from > 0 && !(records.get(from - 1) instanceof SystemMessage)) {
+            from--;
+        }
+        return new Summary(records.get(last).getText(), List.copyOf(records.subList(from, last)));
+    }
+
+    /**
+     * 保存摘要的会话 ID：会话 ID 的 SHA-256 的前 32 位十六进制，长度固定，不受会话 ID 长度和字符的影响
+     */
+    static String summaryKey(String conversationId) {
+        return SUMMARY_KEY_PREFIX + SecureUtil.sha256(conversationId).substring(0, 32);
+    }
+
+    /**
+     * 待摘要消息的最后几条，遇到系统消息为止（系统消息用来分隔摘要记录）
+     */
+    private static List<Message> summarizedThrough(List<Message> pending) {
+        int from = pending.size();
+        while (from > 0 && pending.size() - from < SUMMARIZED_THROUGH_MESSAGES
+                && !(pending.get(from - 1) instanceof SystemMessage)) {
+            from--;
+        }
+        return pending.subList(from, pending.size());
+    }
+
+    /**
+     * 跳过存储中已经合并进摘要的消息：找到最后一次出现的已摘要的最后几条消息，返回其后的部分；
+     * 找不到时（已经被存储裁掉，或存储会删除已摘要的消息）整个窗口都未摘要
+     */
+    private static List<Message> unsummarized(List<Message> window, Summary summary) {
+        List<Message> through = summary.summarizedThrough();
+        if (through.isEmpty()) {
+            return window;
+        }
+        for (int end = window.size(); end >= through.size(); end--) {
+            if (matches(window.subList(end - through.size(), end), through)) {
+                return window.subList(end, window.size());
+            }
+        }
+        return window;
+    }
+
+    private static boolean matches(List<Message> a, List<Message> b) {
+        for (int i = 0; i < a.size(); i++) {
+            if (!MessageWindowDiff.sameMessage(a.get(i), b.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Message summaryMessage(String summary) {
+        return new SystemMessage(SUMMARY_PREFIX + summary);
+    }
+
+    /**
+     * 最新的摘要和已摘要的最后几条消息
+     *
+     * @param text              摘要，没有时为 null
+     * @param summarizedThrough 已摘要的最后几条消息，旧格式的记录中为空
+     */
+    private record Summary(String text, List<Message> summarizedThrough) {
+
+        static final Summary NONE = new Summary(null, List.of());
+    }
+
+    private static int countTurns(List<Message> messages) {
+        int turns = 0;
+        for (Message message : messages) {
+            if (message instanceof UserMessage) {
+                turns++;
+            }
+        }
+        return turns;
+    }
+}
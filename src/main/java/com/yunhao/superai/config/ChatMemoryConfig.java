@@ -0,0 +1,101 @@
+package com.yunhao.superai.config;
+
+import com.yunhao.superai.chatmemory.BoundedInMemoryChatMemoryRepository;
+import com.yunhao.superai.chatmemory.CachingChatMemoryRepository;
+import com.yunhao.superai.chatmemory.ChatMemoryProperties;
+import com.yunhao.superai.chatmemory.FileBasedChatMemory;
+import com.yunhao.superai.chatmemory.JpaChatMemoryRepository;
+import com.yunhao.superai.chatmemory.RedisChatMemoryRepository;
+import com.yunhao.superai.chatmemory.TieredChatMemoryRepository;
+import com.yunhao.superai.constant.FileConstant;
+import com.yunhao.superai.repository.ChatMessageRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * 对话记忆存储配置
+ *
+ * 按 chat-memory.store 选择存储方式；本地文件默认在前面加一层写回缓存，关闭应用时缓存中的脏数据会被写入存储。
+ * 数据库和 Redis 由多个节点共享，进程内缓存会基于其他节点已经改写过的尾部计算差分，不加缓存
+ */
+@Configuration
+@Slf4j
+public class ChatMemoryConfig {
+
+    @Bean
+    public ChatMemoryRepository chatMemoryRepository(ChatMemoryProperties properties, MeterRegistry meterRegistry,
+                                                     ObjectProvider<ChatMessageRepository> chatMessageRepository,
+                                                     ObjectProvider<JdbcTemplate> jdbcTemplate,
+                                                     ObjectProvider<PlatformTransactionManager> transactionManager,
+                                                     ObjectProvider<StringRedisTemplate> redisTemplate,
+                                                     ObjectProvider<RedisConnectionFactory> redisConnectionFactory) {
+        log.info("对话记忆存储：{}", properties.getStore());
+        return switch (properties.getStore()) {
+            case MEMORY -> {
+                ChatMemoryProperties.Memory memory = properties.getMemory();
+                String dir = memory.getSpillDir().isBlank() ? FileConstant.FILE_SAVE_DIR + "/chat-memory-spill" : memory.getSpillDir();
+                yield new BoundedInMemoryChatMemoryRepository(memory.getMaxConversations(),
+                        memory.getMaxHeapMb() * 1024 * 1024, Duration.ofSeconds(memory.getIdleSeconds()),
+                        Path.of(dir, "spill-" + ProcessHandle.current().pid() + ".bin"), meterRegistry);
+            }
+            case FILE -> {
+                ChatMemoryProperties.File file = properties.getFile();
+                String dir = file.getDir().isBlank() ? FileConstant.FILE_SAVE_DIR + "/chat-memory" : file.getDir();
+                yield withCache(new FileBasedChatMemory(dir, file.isFsync(), file.getCompactionThreshold(),
+                                properties.getMaxMessages()),
+                        properties, meterRegistry);
+            }
+            case JPA -> jpa(properties, chatMessageRepository, jdbcTemplate, transactionManager);
+            case REDIS -> redis(properties, redisTemplate);
+            case TIERED -> {
+                ChatMemoryProperties.Tiered tiered = properties.getTiered();
+                yield new TieredChatMemoryRepository(
+                        redis(properties, redisTemplate),
+                        jpa(properties, chatMessageRepository, jdbcTemplate, transactionManager),
+                        redisTemplate.getObject(),
+                        redisConnectionFactory.getObject(),
+                        tiered.getInvalidationChannel(),
+                        tiered.getL1MaxConversations(),
+                        Duration.ofSeconds(tiered.getL1MaxAgeSeconds()),
+                        Duration.ofMillis(tiered.getL3FlushIntervalMs()),
+                        tiered.getL3MaxPending(),
+                        meterRegistry);
+            }
+        };
+    }
+
+    private static JpaChatMemoryRepository jpa(ChatMemoryProperties properties,
+                                            ObjectProvider<ChatMessageRepository> chatMessageRepository,
+                                            ObjectProvider<JdbcTemplate> jdbcTemplate,
+                                            ObjectProvider<PlatformTransactionManager> transactionManager) {
+        return new JpaChatMemoryRepository(chatMessageRepository.getObject(), jdbcTemplate.getObject(),
+                transactionManager.getObject(), properties.getMaxMessages());
+    }
+
+    private static RedisChatMemoryRepository redis(ChatMemoryProperties properties,
+                                                   ObjectProvider<StringRedisTemplate> redisTemplate) {
+        return new RedisChatMemoryRepository(redisTemplate.getObject(), properties.getRedis().getKeyPrefix(),
+                properties.getMaxMessages(), Duration.ofSeconds(properties.getRedis().getTtlSeconds()));
+    }
+
+    private static ChatMemoryRepository withCache(ChatMemoryRepository repository, ChatMemoryProperties properties,
+                                                  MeterRegistry meterRegistry) {
+        ChatMemoryProperties.Cache cache = properties.getCache();
+        if (!cache.isEnabled()) {
+            return repository;
+        }
+        return new CachingChatMemoryRepository(repository, cache.getMaxConversations(),
+                Duration.ofMillis(cache.getFlushIntervalMs()), cache.getMaxDirty(), meterRegistry);
+    }
+}
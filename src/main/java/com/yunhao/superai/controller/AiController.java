@@ -1,10 +1,10 @@
 package com.yunhao.superai.controller;
 
+import com.yunhao.superai.agent.MultiAgentOrchestrator;
 import com.yunhao.superai.agent.YunManus;
+import com.yunhao.superai.agent.model.AgentEvent;
 import com.yunhao.superai.app.FitnessApp;
 import jakarta.annotation.Resource;
-import org.springframework.ai.chat.model.ChatModel;
-import org.springframework.ai.tool.ToolCallback;
 import org.springframework.http.MediaType;
 import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -23,10 +23,10 @@ public class AiController {
     private FitnessApp FitnessApp;
 
     @Resource
-    private ToolCallback[] allTools;
+    private YunManus yunManus;
 
     @Resource
-    private ChatModel dashscopeChatModel;
+    private MultiAgentOrchestrator multiAgentOrchestrator;
 
 
     @GetMapping("/love_app/chat/sync")
@@ -73,14 +73,71 @@ public class AiController {
 
     /**
      * 流式调用 Manus 超级智能体
+     * YunManus 是单例，只持有不可变配置，每次请求的运行状态由 AgentRun 单独保存
      *
      * @param message
      * @return
      */
     @GetMapping("/manus/chat")
     public SseEmitter doChatWithManus(String message) {
-        YunManus yunManus = new YunManus(allTools, dashscopeChatModel);
         return yunManus.runStream(message);
     }
 
+    /**
+     * 流式调用 Manus 超级智能体（事件流）
+     * 思考过程的文本片段、工具调用的开始和结束、步骤边界在发生时立即推送
+     *
+     * @param message
+     * @return
+     */
+    @GetMapping(value = "/manus/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<AgentEvent>> doChatWithManusStream(String message) {
+        return yunManus.runFlux(message)
+                .map(event -> ServerSentEvent.<AgentEvent>builder()
+                        .event(event.getType().name())
+                        .data(event)
+                        .build());
+    }
+
+    /**
+     * 多智能体模式：规划子任务 DAG，并行执行相互独立的子任务，最后由 Manus 合并结果
+     *
+     * @param message
+     * @return
+     */
+    @GetMapping(value = "/manus/plan/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<AgentEvent>> doChatWithManusMultiAgent(String message) {
+        return multiAgentOrchestrator.runFlux(message)
+                .map(event -> ServerSentEvent.<AgentEvent>builder()
+                        .event(event.getType().name())
+                        .data(event)
+                        .build());
+    }
+
+    /**
+     * 从检查点恢复 Manus 超级智能体的运行，从最后一个已完成的步骤继续
+     *
+     * @param runId 运行 ID（开始运行时通过 run 事件返回）
+     * @return
+     */
+    @GetMapping("/manus/resume")
+    public SseEmitter resumeChatWithManus(String runId) {
+        return yunManus.resumeStream(runId);
+    }
+
+    /**
+     * 从检查点恢复 Manus 超级智能体的运行（事件流）
+     *
+     * @param runId 运行 ID
+     * @return
+     */
+    @GetMapping(value = "/manus/resume/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<AgentEvent>> resumeChatWithManusStream(String runId) {
+        return yunManus.resumeFlux(runId)
+                .map(event -> ServerSentEvent.<AgentEvent>builder()
+                        .event(event.getType().name())
+                        .data(event)
+                        .build());
+    }
+
 }
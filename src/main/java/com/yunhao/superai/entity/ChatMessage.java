@@ -10,7 +10,10 @@ import org.hibernate.annotations.CreationTimestamp;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "chat_messages")
+@Table(name = "chat_messages", indexes = {
+        // 对话记忆的尾部查询：按会话取最新的 N 条
+        @Index(name = "idx_chat_messages_session_created", columnList = "session_id, created_at, id")
+})
 @Data
 @Builder
 @NoArgsConstructor
@@ -52,7 +55,8 @@ public class ChatMessage {
     public enum MessageType {
         USER("用户消息"),
         ASSISTANT("助手回复"),
-        SYSTEM("系统消息");
+        SYSTEM("系统消息"),
+        TOOL("工具结果");
 
         private final String displayName;
 
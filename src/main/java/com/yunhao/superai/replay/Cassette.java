@@ -0,0 +1,17 @@
+package com.yunhao.superai.replay;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 录像带文件：按录制顺序排列的交互
+ */
+@Data
+public class Cassette {
+
+    private int version = 1;
+
+    private List<CassetteEntry> entries = new ArrayList<>();
+}
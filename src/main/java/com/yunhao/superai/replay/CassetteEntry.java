@@ -0,0 +1,78 @@
+package com.yunhao.superai.replay;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 录像带中的一次交互
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CassetteEntry {
+
+    // 交互类型：chat、chat-stream、embedding、http、download
+    private String kind;
+
+    // 请求指纹（规范化请求的 SHA-256），回放时按指纹匹配
+    private String key;
+
+    // 请求预览，方便人工查看录像带
+    private String request;
+
+    // 录制时的耗时（毫秒）
+    private long latencyMs;
+
+    // 对话响应
+    private ChatRecord chat;
+
+    // 流式对话的各个片段，以及每个片段距上一个片段的间隔（毫秒）
+    private List<ChatRecord> chunks;
+    private List<Long> chunkDelaysMs;
+
+    // 向量
+    private List<float[]> embeddings;
+
+    // HTTP 响应正文
+    private String body;
+
+    // 下载的文件内容（Base64）
+    private String bodyBase64;
+
+    // 录制时请求失败的错误信息，回放时同样抛出
+    private String error;
+
+    /**
+     * 对话响应（助手消息、工具调用和用量）
+     */
+    @Data
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class ChatRecord {
+
+        private String text;
+
+        private List<ToolCallRecord> toolCalls;
+
+        private String finishReason;
+
+        private Integer promptTokens;
+
+        private Integer completionTokens;
+    }
+
+    /**
+     * 工具调用
+     */
+    @Data
+    public static class ToolCallRecord {
+
+        private String id;
+
+        private String type;
+
+        private String name;
+
+        private String arguments;
+    }
+}
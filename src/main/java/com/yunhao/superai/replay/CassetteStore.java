@@ -0,0 +1,154 @@
+package com.yunhao.superai.replay;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.crypto.SecureUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 录像带存储
+ *
+ * 录制模式下按顺序追加交互，关闭时写入 JSON 文件；回放模式下启动时读取文件，
+ * 按交互类型和请求指纹匹配，同一个请求出现多次时按录制顺序依次返回，用完后重复返回最后一次。
+ */
+@Component
+@Slf4j
+public class CassetteStore {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .enable(SerializationFeature.INDENT_OUTPUT);
+
+    @Getter
+    private final ReplayMode mode;
+
+    private final File file;
+
+    private final double latencyFactor;
+
+    private final Cassette cassette;
+
+    // 回放索引：类型 + 指纹 -> 按录制顺序排列的交互
+    private final Map<String, List<CassetteEntry>> index;
+
+    // 回放游标：类型 + 指纹 -> 下一次返回的位置
+    private final Map<String, Integer> cursors = new HashMap<>();
+
+    @Autowired
+    public CassetteStore(ReplayProperties replayProperties) {
+        this(new File(replayProperties.getCassetteDir(), replayProperties.getCassette() + ".json"),
+                replayProperties.getMode(), replayProperties.getLatencyFactor());
+    }
+
+    public CassetteStore(File file, ReplayMode mode, double latencyFactor) {
+        this.file = file;
+        this.mode = mode;
+        this.latencyFactor = latencyFactor;
+        this.cassette = mode == ReplayMode.REPLAY ? read(file) : new Cassette();
+        this.index = cassette.getEntries().stream()
+                .collect(Collectors.groupingBy(entry -> entry.getKind() + ":" + entry.getKey()));
+        if (mode != ReplayMode.OFF) {
+            log.info("录制回放模式 {}，录像带 {}（{} 条交互）", mode, file.getAbsolutePath(), cassette.getEntries().size());
+        }
+    }
+
+    /**
+     * 计算请求指纹
+     *
+     * @param canonicalRequest 规范化后的请求
+     */
+    public static String key(String canonicalRequest) {
+        return SecureUtil.sha256(canonicalRequest);
+    }
+
+    /**
+     * 录制一次交互
+     */
+    public synchronized void record(CassetteEntry entry) {
+        cassette.getEntries().add(entry);
+    }
+
+    /**
+     * 取出下一次匹配的交互
+     *
+     * @throws IllegalStateException 录像带中没有匹配的请求
+     */
+    public synchronized CassetteEntry next(String kind, String key, String requestPreview) {
+        String indexKey = kind + ":" + key;
+        List<CassetteEntry> entries = index.get(indexKey);
+        if (entries == null || entries.isEmpty()) {
+            throw new IllegalStateException("录像带 " + file.getName() + " 中没有匹配的 " + kind + " 请求: " + requestPreview);
+        }
+        int cursor = cursors.getOrDefault(indexKey, 0);
+        cursors.put(indexKey, cursor + 1);
+        return entries.get(Math.min(cursor, entries.size() - 1));
+    }
+
+    /**
+     * 按录制时的延迟等待，使回放的耗时稳定可复现
+     */
+    public void simulateLatency(long recordedMs) {
+        long delay = scaledDelay(recordedMs);
+        if (delay <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long scaledDelay(long recordedMs) {
+        return Math.round(recordedMs * latencyFactor);
+    }
+
+    /**
+     * 写入录像带文件，先写临时文件再原子替换
+     */
+    public synchronized void save() {
+        if (mode != ReplayMode.RECORD) {
+            return;
+        }
+        try {
+            FileUtil.mkParentDirs(file);
+            File tempFile = new File(file.getPath() + ".tmp");
+            MAPPER.writeValue(tempFile, cassette);
+            Files.move(tempFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("录像带已写入 {}（{} 条交互）", file.getAbsolutePath(), cassette.getEntries().size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("写入录像带失败: " + file, e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        save();
+    }
+
+    private static Cassette read(File file) {
+        if (!file.exists()) {
+            throw new IllegalStateException("录像带不存在: " + file.getAbsolutePath() + "，请先以 replay.mode=record 录制");
+        }
+        try {
+            return MAPPER.readValue(file, Cassette.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取录像带失败: " + file, e);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.yunhao.superai.replay;
+
+import cn.hutool.core.util.StrUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.yunhao.superai.replay.CassetteEntry.ChatRecord;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.metadata.ChatGenerationMetadata;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.tool.ToolCallback;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 录制回放的 ChatModel 包装
+ *
+ * 录制模式下调用真实模型，并把响应（包括流式响应的每个片段和间隔）写入录像带；
+ * 回放模式下按请求指纹（消息列表和可用工具）从录像带返回响应，并按录制时的延迟输出。
+ */
+public class RecordReplayChatModel implements ChatModel {
+
+    private static final ObjectMapper CANONICAL_MAPPER = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private static final int REQUEST_PREVIEW_LENGTH = 200;
+
+    private final ChatModel delegate;
+
+    private final CassetteStore cassetteStore;
+
+    public RecordReplayChatModel(ChatModel delegate, CassetteStore cassetteStore) {
+        this.delegate = delegate;
+        this.cassetteStore = cassetteStore;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        String key = CassetteStore.key(canonicalize(prompt));
+        if (cassetteStore.getMode() == ReplayMode.REPLAY) {
+            CassetteEntry entry = cassetteStore.next("chat", key, preview(prompt));
+            cassetteStore.simulateLatency(entry.getLatencyMs());
+            if (entry.getError() != null) {
+                throw new IllegalStateException(entry.getError());
+            }
+            return toChatResponse(entry.getChat());
+        }
+        long start = System.currentTimeMillis();
+        CassetteEntry entry = newEntry("chat", key, prompt);
+        try {
+            ChatResponse response = delegate.call(prompt);
+            entry.setChat(toRecord(response));
+            return response;
+        } catch (RuntimeException e) {
+            entry.setError(e.getMessage());
+            throw e;
+        } finally {
+            entry.setLatencyMs(System.currentTimeMillis() - start);
+            cassetteStore.record(entry);
+        }
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        String key = CassetteStore.key(canonicalize(prompt));
+        if (cassetteStore.getMode() == ReplayMode.REPLAY) {
+            return Flux.defer(() -> {
+                CassetteEntry entry = cassetteStore.next("chat-stream", key, preview(prompt));
+                List<ChatRecord> chunks = entry.getChunks() == null ? List.of() : entry.getChunks();
+                Flux<ChatResponse> replay = Flux.range(0, chunks.size())
+                        .concatMap(i -> Mono.just(toChatResponse(chunks.get(i)))
+                                .delayElement(Duration.ofMillis(cassetteStore.scaledDelay(entry.getChunkDelaysMs().get(i)))));
+                return entry.getError() == null ? replay
+                        : replay.concatWith(Flux.error(new IllegalStateException(entry.getError())));
+            });
+        }
+        return Flux.defer(() -> {
+            CassetteEntry entry = newEntry("chat-stream", key, prompt);
+            List<ChatRecord> chunks = new ArrayList<>();
+            List<Long> delays = new ArrayList<>();
+            long start = System.currentTimeMillis();
+            long[] last = {start};
+            return delegate.stream(prompt)
+                    .doOnNext(response -> {
+                        long now = System.currentTimeMillis();
+                        chunks.add(toRecord(response));
+                        delays.add(now - last[0]);
+                        last[0] = now;
+                    })
+                    .doOnError(e -> entry.setError(e.getMessage()))
+                    .doFinally(signal -> {
+                        entry.setChunks(chunks);
+                        entry.setChunkDelaysMs(delays);
+                        entry.setLatencyMs(System.currentTimeMillis() - start);
+                        cassetteStore.record(entry);
+                    });
+        });
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+
+    private CassetteEntry newEntry(String kind, String key, Prompt prompt) {
+        CassetteEntry entry = new CassetteEntry();
+        entry.setKind(kind);
+        entry.setKey(key);
+        entry.setRequest(preview(prompt));
+        return entry;
+    }
+
+    /**
+     * 规范化请求：消息类型、文本、工具调用、工具结果，以及可用工具的名称
+     */
+    static String canonicalize(Prompt prompt) {
+        List<Map<String, Object>> messages = new ArrayList<>();
+        for (Message message : prompt.getInstructions()) {
+            Map<String, Object> canonical = new LinkedHashMap<>();
+            canonical.put("type", message.getMessageType().name());
+            canonical.put("text", StrUtil.nullToEmpty(message.getText()));
+            if (message instanceof AssistantMessage assistantMessage && assistantMessage.hasToolCalls()) {
+                canonical.put("toolCalls", assistantMessage.getToolCalls().stream()
+                        .map(toolCall -> List.of(toolCall.name(), toolCall.arguments()))
+                        .toList());
+            }
+            if (message instanceof ToolResponseMessage toolResponseMessage) {
+                canonical.put("toolResponses", toolResponseMessage.getResponses().stream()
+                        .map(response -> List.of(response.name(), StrUtil.nullToEmpty(response.responseData())))
+                        .toList());
+            }
+            messages.add(canonical);
+        }
+        TreeSet<String> tools = new TreeSet<>();
+        if (prompt.getOptions() instanceof ToolCallingChatOptions options) {
+            options.getToolCallbacks().stream()
+                    .map(ToolCallback::getToolDefinition)
+                    .forEach(definition -> tools.add(definition.name()));
+            tools.addAll(options.getToolNames());
+        }
+        try {
+            return CANONICAL_MAPPER.writeValueAsString(Map.of("messages", messages, "tools", tools));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String preview(Prompt prompt) {
+        List<Message> instructions = prompt.getInstructions();
+        if (instructions.isEmpty()) {
+            return "";
+        }
+        return StrUtil.maxLength(instructions.get(instructions.size() - 1).getText(), REQUEST_PREVIEW_LENGTH);
+    }
+
+    private static ChatRecord toRecord(ChatResponse response) {
+        ChatRecord record = new ChatRecord();
+        if (response.getResult() != null) {
+            AssistantMessage output = response.getResult().getOutput();
+            record.setText(output.getText());
+            if (output.hasToolCalls()) {
+                record.setToolCalls(output.getToolCalls().stream().map(toolCall -> {
+                    CassetteEntry.ToolCallRecord toolCallRecord = new CassetteEntry.ToolCallRecord();
+                    toolCallRecord.setId(toolCall.id());
+                    toolCallRecord.setType(toolCall.type());
+                    toolCallRecord.setName(toolCall.name());
+                    toolCallRecord.setArguments(toolCall.arguments());
+                    return toolCallRecord;
+                }).toList());
+            }
+            if (response.getResult().getMetadata() != null) {
+                record.setFinishReason(response.getResult().getMetadata().getFinishReason());
+            }
+        }
+        if (response.getMetadata() != null && response.getMetadata().getUsage() != null) {
+            Usage usage = response.getMetadata().getUsage();
+            record.setPromptTokens(usage.getPromptTokens());
+            record.setCompletionTokens(usage.getCompletionTokens());
+        }
+        return record;
+    }
+
+    private static ChatResponse toChatResponse(ChatRecord record) {
+        List<AssistantMessage.ToolCall> toolCalls = record.getToolCalls() == null ? List.of()
+                : record.getToolCalls().stream()
+                .map(toolCall -> new AssistantMessage.ToolCall(
+                        toolCall.getId(), toolCall.getType(), toolCall.getName(), toolCall.getArguments()))
+                .toList();
+        AssistantMessage message = new AssistantMessage(StrUtil.nullToEmpty(record.getText()), Map.of(), toolCalls);
+        ChatGenerationMetadata generationMetadata = ChatGenerationMetadata.builder()
+                .finishReason(record.getFinishReason())
+                .build();
+        ChatResponseMetadata.Builder metadata = ChatResponseMetadata.builder();
+        if (record.getPromptTokens() != null || record.getCompletionTokens() != null) {
+            metadata.usage(new DefaultUsage(record.getPromptTokens(), record.getCompletionTokens()));
+        }
+        return new ChatResponse(List.of(new Generation(message, generationMetadata)), metadata.build());
+    }
+}
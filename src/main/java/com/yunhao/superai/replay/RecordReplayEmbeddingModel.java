@@ -0,0 +1,79 @@
+package com.yunhao.superai.replay;
+
+import cn.hutool.core.util.StrUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 录制回放的 EmbeddingModel 包装
+ *
+ * 按输入文本列表匹配，录制时保存返回的向量，回放时原样返回，RAG 的加载和检索都可以离线运行
+ */
+public class RecordReplayEmbeddingModel implements EmbeddingModel {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final EmbeddingModel delegate;
+
+    private final CassetteStore cassetteStore;
+
+    public RecordReplayEmbeddingModel(EmbeddingModel delegate, CassetteStore cassetteStore) {
+        this.delegate = delegate;
+        this.cassetteStore = cassetteStore;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        String canonical;
+        try {
+            canonical = MAPPER.writeValueAsString(request.getInstructions());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+        String key = CassetteStore.key(canonical);
+        String preview = request.getInstructions().isEmpty() ? ""
+                : StrUtil.maxLength(request.getInstructions().get(0), 100);
+        if (cassetteStore.getMode() == ReplayMode.REPLAY) {
+            CassetteEntry entry = cassetteStore.next("embedding", key, preview);
+            cassetteStore.simulateLatency(entry.getLatencyMs());
+            if (entry.getError() != null) {
+                throw new IllegalStateException(entry.getError());
+            }
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < entry.getEmbeddings().size(); i++) {
+                embeddings.add(new Embedding(entry.getEmbeddings().get(i), i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+        CassetteEntry entry = new CassetteEntry();
+        entry.setKind("embedding");
+        entry.setKey(key);
+        entry.setRequest(preview);
+        long start = System.currentTimeMillis();
+        try {
+            EmbeddingResponse response = delegate.call(request);
+            entry.setEmbeddings(response.getResults().stream().map(Embedding::getOutput).toList());
+            return response;
+        } catch (RuntimeException e) {
+            entry.setError(e.getMessage());
+            throw e;
+        } finally {
+            entry.setLatencyMs(System.currentTimeMillis() - start);
+            cassetteStore.record(entry);
+        }
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        // 经过 call 录制或回放，不直接调用被包装的模型
+        return embed(document.getText());
+    }
+}
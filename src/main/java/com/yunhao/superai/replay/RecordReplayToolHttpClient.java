@@ -0,0 +1,137 @@
+package com.yunhao.superai.replay;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.io.StreamProgress;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.yunhao.superai.tools.ToolHttpClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/**
+ * 录制回放的工具 HTTP 客户端
+ *
+ * 请求指纹由地址和查询参数组成，其中的密钥参数（如 api_key）不参与指纹，也不会写入录像带
+ */
+public class RecordReplayToolHttpClient implements ToolHttpClient {
+
+    private static final ObjectMapper CANONICAL_MAPPER = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    // 不参与指纹的密钥参数
+    private static final Set<String> SECRET_PARAMS = Set.of("api_key", "apikey", "key", "token", "access_token");
+
+    private final ToolHttpClient delegate;
+
+    private final CassetteStore cassetteStore;
+
+    public RecordReplayToolHttpClient(ToolHttpClient delegate, CassetteStore cassetteStore) {
+        this.delegate = delegate;
+        this.cassetteStore = cassetteStore;
+    }
+
+    @Override
+    public String get(String url, Map<String, Object> params) {
+        String request = canonicalize(url, params);
+        return exchange("http", request, () -> delegate.get(url, params));
+    }
+
+    @Override
+    public String fetchPage(String url) throws IOException {
+        try {
+            return exchange("http", url, () -> {
+                try {
+                    return delegate.fetchPage(url);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e.getMessage(), e);
+                }
+            });
+        } catch (IllegalStateException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public long download(String url, File file, StreamProgress progress) {
+        String key = CassetteStore.key(url);
+        if (cassetteStore.getMode() == ReplayMode.REPLAY) {
+            CassetteEntry entry = cassetteStore.next("download", key, url);
+            cassetteStore.simulateLatency(entry.getLatencyMs());
+            if (entry.getError() != null) {
+                throw new IllegalStateException(entry.getError());
+            }
+            byte[] bytes = Base64.decode(entry.getBodyBase64());
+            FileUtil.writeBytes(bytes, file);
+            return bytes.length;
+        }
+        CassetteEntry entry = newEntry("download", key, url);
+        long start = System.currentTimeMillis();
+        try {
+            long size = delegate.download(url, file, progress);
+            entry.setBodyBase64(Base64.encode(FileUtil.readBytes(file)));
+            return size;
+        } catch (RuntimeException e) {
+            entry.setError(e.getMessage());
+            throw e;
+        } finally {
+            entry.setLatencyMs(System.currentTimeMillis() - start);
+            cassetteStore.record(entry);
+        }
+    }
+
+    private String exchange(String kind, String request, Supplier<String> call) {
+        String key = CassetteStore.key(request);
+        if (cassetteStore.getMode() == ReplayMode.REPLAY) {
+            CassetteEntry entry = cassetteStore.next(kind, key, request);
+            cassetteStore.simulateLatency(entry.getLatencyMs());
+            if (entry.getError() != null) {
+                throw new IllegalStateException(entry.getError());
+            }
+            return entry.getBody();
+        }
+        CassetteEntry entry = newEntry(kind, key, request);
+        long start = System.currentTimeMillis();
+        try {
+            String body = call.get();
+            entry.setBody(body);
+            return body;
+        } catch (RuntimeException e) {
+            entry.setError(e.getMessage());
+            throw e;
+        } finally {
+            entry.setLatencyMs(System.currentTimeMillis() - start);
+            cassetteStore.record(entry);
+        }
+    }
+
+    private CassetteEntry newEntry(String kind, String key, String request) {
+        CassetteEntry entry = new CassetteEntry();
+        entry.setKind(kind);
+        entry.setKey(key);
+        entry.setRequest(request);
+        return entry;
+    }
+
+    static String canonicalize(String url, Map<String, Object> params) {
+        Map<String, Object> canonical = new TreeMap<>();
+        if (params != null) {
+            params.forEach((name, value) -> {
+                if (!SECRET_PARAMS.contains(name.toLowerCase())) {
+                    canonical.put(name, String.valueOf(value));
+                }
+            });
+        }
+        try {
+            return url + " " + CANONICAL_MAPPER.writeValueAsString(canonical);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
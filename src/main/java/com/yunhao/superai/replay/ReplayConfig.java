@@ -0,0 +1,50 @@
+package com.yunhao.superai.replay;
+
+import com.yunhao.superai.tools.ToolHttpClient;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+/**
+ * 录制回放配置
+ *
+ * replay.mode 为 record 或 replay 时，所有 ChatModel、EmbeddingModel 和工具的 HTTP 客户端都包装为录制回放实现，
+ * 例如测试中使用 @SpringBootTest(properties = "replay.mode=replay") 即可离线运行智能体、RAG 和对话记忆
+ */
+@Configuration
+public class ReplayConfig {
+
+    @Bean
+    public static BeanPostProcessor recordReplayModelPostProcessor(Environment environment,
+                                                                   ObjectProvider<CassetteStore> cassetteStore) {
+        ReplayMode mode = Binder.get(environment).bind("replay.mode", ReplayMode.class).orElse(ReplayMode.OFF);
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (mode == ReplayMode.OFF) {
+                    return bean;
+                }
+                if (bean instanceof ChatModel chatModel && !(bean instanceof RecordReplayChatModel)) {
+                    return new RecordReplayChatModel(chatModel, cassetteStore.getObject());
+                }
+                if (bean instanceof EmbeddingModel embeddingModel && !(bean instanceof RecordReplayEmbeddingModel)) {
+                    return new RecordReplayEmbeddingModel(embeddingModel, cassetteStore.getObject());
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Bean
+    public ToolHttpClient toolHttpClient(CassetteStore cassetteStore) {
+        if (cassetteStore.getMode() == ReplayMode.OFF) {
+            return ToolHttpClient.DEFAULT;
+        }
+        return new RecordReplayToolHttpClient(ToolHttpClient.DEFAULT, cassetteStore);
+    }
+}
@@ -0,0 +1,22 @@
+package com.yunhao.superai.replay;
+
+/**
+ * 录制回放模式
+ */
+public enum ReplayMode {
+
+    /**
+     * 关闭，直接访问真实服务
+     */
+    OFF,
+
+    /**
+     * 访问真实服务，并把请求和响应录制到录像带文件
+     */
+    RECORD,
+
+    /**
+     * 不访问网络，从录像带文件回放响应
+     */
+    REPLAY
+}
@@ -0,0 +1,26 @@
+package com.yunhao.superai.replay;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 录制回放配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "replay")
+public class ReplayProperties {
+
+    // 模式：off / record / replay
+    private ReplayMode mode = ReplayMode.OFF;
+
+    // 录像带目录
+    private String cassetteDir = "src/test/resources/cassettes";
+
+    // 录像带名称，对应目录下的 {cassette}.json
+    private String cassette = "default";
+
+    // 回放延迟相对录制时延迟的倍数：1 为按录制时的延迟回放，0 为不等待
+    private double latencyFactor = 1.0;
+}
@@ -26,9 +26,9 @@ public interface ChatMessageRepository extends JpaRepository<ChatMessage, Long>
     List<ChatMessage> findBySessionIdOrderByCreatedAtAsc(String sessionId);
     
     /**
-     * 查询会话的最新N条消息（用于聊天记忆）
+     * 查询会话的最新N条消息（用于聊天记忆），同一批写入的消息创建时间相同，再按 ID 排序
      */
-    @Query("SELECT m FROM ChatMessage m WHERE m.sessionId = :sessionId ORDER BY m.createdAt DESC")
+    @Query("SELECT m FROM ChatMessage m WHERE m.sessionId = :sessionId ORDER BY m.createdAt DESC, m.id DESC")
     List<ChatMessage> findLatestMessagesBySessionId(@Param("sessionId") String sessionId, Pageable pageable);
     
     /**
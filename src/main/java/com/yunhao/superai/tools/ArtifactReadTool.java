@@ -0,0 +1,45 @@
+package com.yunhao.superai.tools;
+
+import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.annotation.ToolParam;
+
+/**
+ * 读取已保存的工具结果
+ */
+public class ArtifactReadTool {
+
+    // 单次读取的上限，保证返回给模型的内容有界
+    private static final int MAX_BYTES = 8000;
+    private static final int MAX_LINES = 200;
+
+    private final ArtifactStore artifactStore;
+
+    public ArtifactReadTool(ArtifactStore artifactStore) {
+        this.artifactStore = artifactStore;
+    }
+
+    @Tool(description = "Read a range of lines from a saved tool result (artifact), at most 8000 characters")
+    public String readArtifactLines(
+            @ToolParam(description = "Artifact handle returned with a truncated tool result") String handle,
+            @ToolParam(description = "First line to read, starting from 1") int startLine,
+            @ToolParam(description = "Number of lines to read, at most 200") int lineCount) {
+        try {
+            return artifactStore.readLines(handle, Math.max(1, startLine), Math.min(Math.max(1, lineCount), MAX_LINES),
+                    MAX_BYTES);
+        } catch (Exception e) {
+            return "Error reading artifact: " + e.getMessage();
+        }
+    }
+
+    @Tool(description = "Read a byte range from a saved tool result (artifact)")
+    public String readArtifactBytes(
+            @ToolParam(description = "Artifact handle returned with a truncated tool result") String handle,
+            @ToolParam(description = "Byte offset to start reading from, starting from 0") long offset,
+            @ToolParam(description = "Number of bytes to read, at most 8000") int length) {
+        try {
+            return artifactStore.readBytes(handle, Math.max(0, offset), Math.min(Math.max(1, length), MAX_BYTES));
+        } catch (Exception e) {
+            return "Error reading artifact: " + e.getMessage();
+        }
+    }
+}
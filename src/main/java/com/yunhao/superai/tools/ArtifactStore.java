@@ -0,0 +1,185 @@
+package com.yunhao.superai.tools;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.crypto.SecureUtil;
+import com.yunhao.superai.constant.FileConstant;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 工具结果的本地存储
+ *
+ * 过大的工具结果写入磁盘，代理的上下文中只保留预览和句柄，需要时再按范围读取。
+ * 超过保留时间的文件在保存新结果时顺带清理（最多每 10 分钟一次）。
+ */
+@Slf4j
+public class ArtifactStore {
+
+    // 默认保留时间
+    public static final Duration DEFAULT_TTL = Duration.ofHours(24);
+
+    // 两次清理之间的最小间隔
+    private static final long CLEANUP_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    // 句柄只允许字母、数字、下划线和短横线，防止路径穿越
+    private static final Pattern HANDLE_PATTERN = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private final String artifactDir;
+
+    private final Duration ttl;
+
+    private final AtomicLong lastCleanupMillis = new AtomicLong();
+
+    public ArtifactStore() {
+        this(FileConstant.FILE_SAVE_DIR + "/artifact", DEFAULT_TTL);
+    }
+
+    public ArtifactStore(String artifactDir, Duration ttl) {
+        this.artifactDir = artifactDir;
+        this.ttl = ttl;
+    }
+
+    /**
+     * 保存内容
+     *
+     * 句柄由工具名称和内容的哈希组成：同样的结果总是得到同样的句柄，
+     * 录制回放时回放出的请求（包括模型之后用句柄读取的工具调用）与录制时一致。
+     *
+     * @param toolName 产生结果的工具名称
+     * @param content  内容
+     * @return 句柄
+     */
+    public String save(String toolName, String content) {
+        String handle = toolName.replaceAll("[^A-Za-z0-9_-]", "") + "-" + SecureUtil.sha256(content).substring(0, 32);
+        FileUtil.mkdir(artifactDir);
+        File file = getArtifactFile(handle);
+        if (file.exists()) {
+            // 内容相同，只刷新保留时间
+            file.setLastModified(System.currentTimeMillis());
+        } else {
+            FileUtil.writeUtf8String(content, file);
+        }
+        long now = System.currentTimeMillis();
+        long last = lastCleanupMillis.get();
+        if (now - last >= CLEANUP_INTERVAL_MILLIS && lastCleanupMillis.compareAndSet(last, now)) {
+            deleteExpired();
+        }
+        return handle;
+    }
+
+    /**
+     * 删除超过保留时间的文件
+     *
+     * @return 删除的文件数
+     */
+    public int deleteExpired() {
+        File[] files = new File(artifactDir).listFiles((dir, name) -> name.endsWith(".txt"));
+        if (files == null) {
+            return 0;
+        }
+        long expireBefore = System.currentTimeMillis() - ttl.toMillis();
+        int deleted = 0;
+        for (File file : files) {
+            if (file.lastModified() < expireBefore && file.delete()) {
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            log.info("清理了 {} 个过期的工具结果文件", deleted);
+        }
+        return deleted;
+    }
+
+    /**
+     * 按字节范围读取
+     *
+     * @param handle 句柄
+     * @param offset 起始字节偏移
+     * @param length 读取的字节数
+     * @return 读取到的内容，范围边界上不完整的字符会被替换
+     */
+    public String readBytes(String handle, long offset, int length) throws IOException {
+        File file = getExistingArtifactFile(handle);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (offset >= raf.length()) {
+                return "";
+            }
+            raf.seek(offset);
+            byte[] buffer = new byte[(int) Math.min(length, raf.length() - offset)];
+            raf.readFully(buffer);
+            return new String(buffer, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * 按行范围读取，返回的内容不超过 maxChars 个字符（单行很长时也有界，例如压缩过的网页）
+     *
+     * @param handle    句柄
+     * @param startLine 起始行（从 1 开始）
+     * @param lineCount 读取的行数
+     * @param maxChars  返回的最大字符数
+     * @return 读取到的内容，超出 maxChars 时截断并附上说明
+     */
+    public String readLines(String handle, int startLine, int lineCount, int maxChars) throws IOException {
+        File file = getExistingArtifactFile(handle);
+        StringBuilder builder = new StringBuilder();
+        int lastLine = startLine - 1 + lineCount;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            int lineNumber = 1;
+            int c;
+            // 逐字符读取，不把整行读入内存
+            while (lineNumber <= lastLine && (c = reader.read()) != -1) {
+                if (lineNumber >= startLine) {
+                    if (builder.length() >= maxChars) {
+                        builder.append("\n[Output truncated at ").append(maxChars)
+                                .append(" characters. Use readArtifactBytes to read the rest of this line.]");
+                        break;
+                    }
+                    builder.append((char) c);
+                }
+                if (c == '\n') {
+                    lineNumber++;
+                }
+            }
+        }
+        // 与按行读取一致，最后一行也以换行结尾
+        if (!builder.isEmpty() && builder.charAt(builder.length() - 1) != '\n' && builder.length() <= maxChars) {
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 统计行数
+     */
+    public long countLines(String handle) throws IOException {
+        try (var lines = Files.lines(getExistingArtifactFile(handle).toPath(), StandardCharsets.UTF_8)) {
+            return lines.count();
+        }
+    }
+
+    private File getExistingArtifactFile(String handle) throws IOException {
+        if (handle == null || !HANDLE_PATTERN.matcher(handle).matches()) {
+            throw new IOException("Invalid artifact handle: " + handle);
+        }
+        File file = getArtifactFile(handle);
+        if (!file.exists()) {
+            throw new IOException("Artifact not found: " + handle);
+        }
+        return file;
+    }
+
+    private File getArtifactFile(String handle) {
+        return new File(artifactDir, handle + ".txt");
+    }
+}
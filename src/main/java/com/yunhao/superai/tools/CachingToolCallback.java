@@ -0,0 +1,55 @@
+package com.yunhao.superai.tools;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+
+/**
+ * 工具结果缓存装饰器
+ *
+ * 相同工具、相同参数的调用在过期前直接返回缓存的结果，出错的结果不缓存。
+ */
+@Slf4j
+public class CachingToolCallback implements ToolCallback {
+
+    private final ToolCallback delegate;
+
+    private final ToolResultCache toolResultCache;
+
+    public CachingToolCallback(ToolCallback delegate, ToolResultCache toolResultCache) {
+        this.delegate = delegate;
+        this.toolResultCache = toolResultCache;
+    }
+
+    @Override
+    public ToolDefinition getToolDefinition() {
+        return delegate.getToolDefinition();
+    }
+
+    @Override
+    public ToolMetadata getToolMetadata() {
+        return delegate.getToolMetadata();
+    }
+
+    @Override
+    public String call(String toolInput) {
+        return call(toolInput, null);
+    }
+
+    @Override
+    public String call(String toolInput, ToolContext toolContext) {
+        String toolName = getToolDefinition().name();
+        String cached = toolResultCache.get(toolName, toolInput);
+        if (cached != null) {
+            log.info("工具 {} 命中缓存", toolName);
+            return cached;
+        }
+        String result = toolContext == null ? delegate.call(toolInput) : delegate.call(toolInput, toolContext);
+        if (result != null && !result.startsWith("Error")) {
+            toolResultCache.put(toolName, toolInput, result);
+        }
+        return result;
+    }
+}
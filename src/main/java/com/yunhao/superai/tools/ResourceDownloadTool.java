@@ -1,7 +1,8 @@
 package com.yunhao.superai.tools;
 
 import cn.hutool.core.io.FileUtil;
-import cn.hutool.http.HttpUtil;
+import cn.hutool.core.io.IORuntimeException;
+import cn.hutool.core.io.StreamProgress;
 import com.yunhao.superai.constant.FileConstant;
 import org.springframework.ai.tool.annotation.Tool;
 import org.springframework.ai.tool.annotation.ToolParam;
@@ -10,18 +11,55 @@ import java.io.File;
 
 public class ResourceDownloadTool {
 
+    private final ToolHttpClient httpClient;
+
+    public ResourceDownloadTool() {
+        this(ToolHttpClient.DEFAULT);
+    }
+
+    public ResourceDownloadTool(ToolHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
     @Tool(description = "Download a resource from a given URL")
     public String downloadResource(@ToolParam(description = "URL of the resource to download") String url, @ToolParam(description = "Name of the file to save the downloaded resource") String fileName) {
         String fileDir = FileConstant.FILE_SAVE_DIR + "/download";
         String filePath = fileDir + "/" + fileName;
+        File file = new File(filePath);
         try {
             // 创建目录
             FileUtil.mkdir(fileDir);
-            // 使用 Hutool 的 downloadFile 方法下载资源
-            HttpUtil.downloadFile(url, new File(filePath));
+            // 使用 Hutool 的 downloadFile 方法下载资源，运行被取消（线程被中断）时中止下载
+            httpClient.download(url, file, new CancellableProgress());
             return "Resource downloaded successfully to: " + filePath;
         } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                // 删除下载了一半的文件
+                FileUtil.del(file);
+                return "Error downloading resource: cancelled";
+            }
             return "Error downloading resource: " + e.getMessage();
         }
     }
+
+    /**
+     * 每写入一块数据检查一次中断标记
+     */
+    private static class CancellableProgress implements StreamProgress {
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void progress(long total, long progressSize) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IORuntimeException("Download cancelled");
+            }
+        }
+
+        @Override
+        public void finish() {
+        }
+    }
 }
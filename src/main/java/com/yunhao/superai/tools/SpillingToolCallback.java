@@ -0,0 +1,88 @@
+package com.yunhao.superai.tools;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+
+import java.util.regex.Pattern;
+
+/**
+ * 工具结果溢出装饰器
+ *
+ * 结果超过阈值时写入 {@link ArtifactStore}，只把预览和句柄返回给模型，
+ * 模型可以再通过 {@link ArtifactReadTool} 按需读取其中的一段。
+ */
+@Slf4j
+public class SpillingToolCallback implements ToolCallback {
+
+    // 返回给模型的结果中的句柄引用
+    private static final Pattern HANDLE_REFERENCE = Pattern.compile("artifact '[A-Za-z0-9_-]+'");
+
+    private final ToolCallback delegate;
+
+    private final ArtifactStore artifactStore;
+
+    // 超过该长度（字符）的结果会写入存储
+    private final int spillThresholdChars;
+
+    // 返回给模型的预览长度（字符）
+    private final int previewChars;
+
+    public SpillingToolCallback(ToolCallback delegate, ArtifactStore artifactStore,
+                                int spillThresholdChars, int previewChars) {
+        this.delegate = delegate;
+        this.artifactStore = artifactStore;
+        this.spillThresholdChars = spillThresholdChars;
+        this.previewChars = previewChars;
+    }
+
+    @Override
+    public ToolDefinition getToolDefinition() {
+        return delegate.getToolDefinition();
+    }
+
+    @Override
+    public ToolMetadata getToolMetadata() {
+        return delegate.getToolMetadata();
+    }
+
+    @Override
+    public String call(String toolInput) {
+        return spillIfNeeded(delegate.call(toolInput));
+    }
+
+    @Override
+    public String call(String toolInput, ToolContext toolContext) {
+        return spillIfNeeded(delegate.call(toolInput, toolContext));
+    }
+
+    /**
+     * 去掉结果中的句柄，用于比较两次结果是否相同（例如循环检测），句柄本身不代表内容
+     */
+    public static String stripArtifactHandles(String result) {
+        return result == null ? null : HANDLE_REFERENCE.matcher(result).replaceAll("artifact '*'");
+    }
+
+    private String spillIfNeeded(String result) {
+        if (result == null || result.length() <= spillThresholdChars) {
+            return result;
+        }
+        String toolName = getToolDefinition().name();
+        String preview = result.substring(0, Math.min(previewChars, result.length()));
+        try {
+            String handle = artifactStore.save(toolName, result);
+            long lines = artifactStore.countLines(handle);
+            log.info("工具 {} 的结果过长（{} 字符），已保存为 {}", toolName, result.length(), handle);
+            return preview
+                    + "\n\n[Result truncated: " + result.length() + " characters, " + lines + " lines in total. "
+                    + "Full content saved as artifact '" + handle + "'. "
+                    + "Use readArtifactLines or readArtifactBytes to read other parts.]";
+        } catch (Exception e) {
+            log.error("保存工具 {} 的结果失败", toolName, e);
+            return preview
+                    + "\n\n[Result truncated: " + result.length() + " characters in total.]";
+        }
+    }
+}
@@ -6,29 +6,59 @@ import org.springframework.ai.tool.annotation.ToolParam;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 public class TerminalOperationTool {
 
     @Tool(description = "Execute a command in the terminal")
     public String executeTerminalCommand(@ToolParam(description = "Command to execute in the terminal") String command) {
         StringBuilder output = new StringBuilder();
+        Process process = null;
         try {
             ProcessBuilder builder = new ProcessBuilder("cmd.exe", "/c", command);
+            builder.redirectErrorStream(true);
 //            Process process = Runtime.getRuntime().exec(command);
-            Process process = builder.start();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                }
-            }
+            process = builder.start();
+            // 在单独的虚拟线程中读取输出，当前线程阻塞在可中断的 waitFor 上，运行被取消时能及时响应
+            Future<String> outputFuture = readOutput(process);
             int exitCode = process.waitFor();
+            output.append(outputFuture.get());
             if (exitCode != 0) {
                 output.append("Command execution failed with exit code: ").append(exitCode);
             }
-        } catch (IOException | InterruptedException e) {
+        } catch (InterruptedException e) {
+            // 运行被取消：结束命令启动的整个进程树
+            destroyProcessTree(process);
+            Thread.currentThread().interrupt();
+            output.append("Error executing command: cancelled");
+        } catch (IOException | ExecutionException e) {
             output.append("Error executing command: ").append(e.getMessage());
         }
         return output.toString();
     }
+
+    private Future<String> readOutput(Process process) {
+        FutureTask<String> task = new FutureTask<>(() -> {
+            StringBuilder output = new StringBuilder();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    output.append(line).append("\n");
+                }
+            }
+            return output.toString();
+        });
+        Thread.ofVirtual().name("terminal-output").start(task);
+        return task;
+    }
+
+    private void destroyProcessTree(Process process) {
+        if (process == null) {
+            return;
+        }
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
 }
@@ -0,0 +1,50 @@
+package com.yunhao.superai.tools;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 工具结果缓存配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "tool.cache")
+public class ToolCacheProperties {
+
+    // 是否开启缓存
+    private boolean enabled = true;
+
+    // 缓存的最大条目数，超出后按 LRU 淘汰
+    private int maxEntries = 1000;
+
+    // 默认的过期时间（秒）
+    private long defaultTtlSeconds = 600;
+
+    // 按工具名称单独配置的过期时间（秒）
+    private Map<String, Long> ttlSeconds = new HashMap<>();
+
+    // 不缓存的工具：有副作用或结果会随时间变化
+    private Set<String> excludedTools = new HashSet<>(Set.of(
+            "readFile",
+            "writeFile",
+            "executeTerminalCommand",
+            "downloadResource",
+            "generatePDF",
+            "doTerminate",
+            "readArtifactLines",
+            "readArtifactBytes"
+    ));
+
+    /**
+     * 获取工具的过期时间（毫秒）
+     */
+    public long getTtlMillis(String toolName) {
+        return ttlSeconds.getOrDefault(toolName, defaultTtlSeconds) * 1000;
+    }
+}
@@ -0,0 +1,65 @@
+package com.yunhao.superai.tools;
+
+import cn.hutool.core.io.StreamProgress;
+import cn.hutool.http.HttpUtil;
+import org.jsoup.Jsoup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * 工具访问外部网络的统一入口
+ *
+ * 搜索、网页抓取和下载工具都通过它发起请求，录制回放时替换为录制回放的实现，工具测试可以离线运行
+ */
+public interface ToolHttpClient {
+
+    /**
+     * 直接访问网络的默认实现
+     */
+    ToolHttpClient DEFAULT = new ToolHttpClient() {
+
+        @Override
+        public String get(String url, Map<String, Object> params) {
+            return HttpUtil.get(url, params);
+        }
+
+        @Override
+        public String fetchPage(String url) throws IOException {
+            return Jsoup.connect(url).get().html();
+        }
+
+        @Override
+        public long download(String url, File file, StreamProgress progress) {
+            return HttpUtil.downloadFile(url, file, progress);
+        }
+    };
+
+    /**
+     * 发起 GET 请求
+     *
+     * @param url    地址
+     * @param params 查询参数
+     * @return 响应正文
+     */
+    String get(String url, Map<String, Object> params);
+
+    /**
+     * 抓取网页
+     *
+     * @param url 网页地址
+     * @return 网页 HTML
+     */
+    String fetchPage(String url) throws IOException;
+
+    /**
+     * 下载文件
+     *
+     * @param url      地址
+     * @param file     保存的文件
+     * @param progress 进度回调
+     * @return 文件大小
+     */
+    long download(String url, File file, StreamProgress progress);
+}
@@ -1,28 +1,52 @@
 package com.yunhao.superai.tools;
 
+import com.yunhao.superai.constant.FileConstant;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.ai.support.ToolCallbacks;
 import org.springframework.ai.tool.ToolCallback;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
 @Configuration
 public class ToolRegistration {
 
     @Value("${search-api.api-key}")
     private String searchApiKey;
 
+    // 超过该长度的工具结果写入本地存储，只把预览和句柄返回给模型
+    @Value("${tool.artifact.spill-threshold-chars:8000}")
+    private int spillThresholdChars;
+
+    @Value("${tool.artifact.preview-chars:2000}")
+    private int previewChars;
+
+    // 工具结果文件的保留时间
+    @Value("${tool.artifact.ttl-hours:24}")
+    private long artifactTtlHours;
+
     @Bean
-    public ToolCallback[] allTools() {
+    public ToolCallback[] allTools(ToolCacheProperties toolCacheProperties, MeterRegistry meterRegistry,
+                                   ToolHttpClient toolHttpClient) {
         FileOperationTool fileOperationTool = new FileOperationTool();
-        WebSearchTool webSearchTool = new WebSearchTool(searchApiKey);
-        WebScrapingTool webScrapingTool = new WebScrapingTool();
-        ResourceDownloadTool resourceDownloadTool = new ResourceDownloadTool();
+        // 访问网络的工具通过 ToolHttpClient 发起请求，录制回放时替换为录制回放实现
+        WebSearchTool webSearchTool = new WebSearchTool(searchApiKey, toolHttpClient);
+        WebScrapingTool webScrapingTool = new WebScrapingTool(toolHttpClient);
+        ResourceDownloadTool resourceDownloadTool = new ResourceDownloadTool(toolHttpClient);
         TerminalOperationTool terminalOperationTool = new TerminalOperationTool();
         PDFGenerationTool pdfGenerationTool = new PDFGenerationTool();
         TerminateTool terminateTool = new TerminateTool();
+        ArtifactStore artifactStore = new ArtifactStore(FileConstant.FILE_SAVE_DIR + "/artifact",
+                Duration.ofHours(artifactTtlHours));
+        // 工具结果缓存在所有运行之间共享
+        ToolResultCache toolResultCache = new ToolResultCache(toolCacheProperties, meterRegistry);
 
-        return ToolCallbacks.from(
+        List<ToolCallback> toolCallbacks = new ArrayList<>();
+        for (ToolCallback toolCallback : ToolCallbacks.from(
             fileOperationTool,
             webSearchTool,
             webScrapingTool,
@@ -30,6 +54,17 @@ public class ToolRegistration {
             terminalOperationTool,
             pdfGenerationTool,
             terminateTool
-        );
+        )) {
+            ToolCallback spilling = new SpillingToolCallback(toolCallback, artifactStore, spillThresholdChars, previewChars);
+            // 缓存在外层，命中时连同溢出后的预览和句柄一起复用
+            if (toolResultCache.isCacheable(toolCallback.getToolDefinition().name())) {
+                toolCallbacks.add(new CachingToolCallback(spilling, toolResultCache));
+            } else {
+                toolCallbacks.add(spilling);
+            }
+        }
+        // 读取存储内容的工具本身返回有界的结果，不需要再溢出
+        toolCallbacks.addAll(List.of(ToolCallbacks.from(new ArtifactReadTool(artifactStore))));
+        return toolCallbacks.toArray(new ToolCallback[0]);
     }
 }
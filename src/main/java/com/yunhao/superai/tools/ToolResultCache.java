@@ -0,0 +1,91 @@
+package com.yunhao.superai.tools;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 工具结果缓存
+ *
+ * 在所有代理步骤和所有运行之间共享，以“工具名称 + 规范化后的 JSON 参数”为键，
+ * 按工具设置过期时间，总条目数有上限，超出后按 LRU 淘汰。
+ */
+public class ToolResultCache {
+
+    // 参数规范化：对象的键按字母排序，忽略空白和键的顺序差异
+    private static final ObjectMapper CANONICAL_MAPPER = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private final LRUCache<String, String> cache;
+
+    private final ToolCacheProperties properties;
+
+    private final MeterRegistry meterRegistry;
+
+    // 按工具缓存计数器，避免每次调用都查找
+    private final Map<String, Counter> hitCounters = new ConcurrentHashMap<>();
+    private final Map<String, Counter> missCounters = new ConcurrentHashMap<>();
+
+    public ToolResultCache(ToolCacheProperties properties, MeterRegistry meterRegistry) {
+        this.cache = CacheUtil.newLRUCache(properties.getMaxEntries());
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("tool.cache.size", cache, LRUCache::size)
+                .description("工具结果缓存的条目数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 工具是否可以缓存
+     */
+    public boolean isCacheable(String toolName) {
+        return properties.isEnabled() && !properties.getExcludedTools().contains(toolName);
+    }
+
+    /**
+     * 查询缓存，同时记录命中率
+     */
+    public String get(String toolName, String toolInput) {
+        // 不刷新访问时间，过期时间从写入时开始计算
+        String result = cache.get(key(toolName, toolInput), false);
+        Map<String, Counter> counters = result != null ? hitCounters : missCounters;
+        counters.computeIfAbsent(toolName, name -> Counter.builder("tool.cache.requests")
+                        .description("工具结果缓存的请求次数")
+                        .tag("tool", name)
+                        .tag("result", result != null ? "hit" : "miss")
+                        .register(meterRegistry))
+                .increment();
+        return result;
+    }
+
+    /**
+     * 写入缓存
+     */
+    public void put(String toolName, String toolInput, String result) {
+        cache.put(key(toolName, toolInput), result, properties.getTtlMillis(toolName));
+    }
+
+    private String key(String toolName, String toolInput) {
+        return toolName + ":" + canonicalize(toolInput);
+    }
+
+    public static String canonicalize(String toolInput) {
+        if (toolInput == null) {
+            return "";
+        }
+        try {
+            Object value = CANONICAL_MAPPER.readValue(toolInput, Object.class);
+            return CANONICAL_MAPPER.writeValueAsString(value);
+        } catch (Exception e) {
+            // 不是合法的 JSON 时按原文作为键
+            return toolInput.strip();
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package com.yunhao.superai.tools;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
 import org.springframework.ai.tool.annotation.Tool;
 import org.springframework.ai.tool.annotation.ToolParam;
 
@@ -9,11 +7,20 @@ import java.io.IOException;
 
 public class WebScrapingTool {
 
+    private final ToolHttpClient httpClient;
+
+    public WebScrapingTool() {
+        this(ToolHttpClient.DEFAULT);
+    }
+
+    public WebScrapingTool(ToolHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
     @Tool(description = "Scrape the content of a web page")
     public String scrapeWebPage(@ToolParam(description = "URL of the web page to scrape") String url) {
         try {
-            Document doc = Jsoup.connect(url).get();
-            return doc.html();
+            return httpClient.fetchPage(url);
         } catch (IOException e) {
             return "Error scraping web page: " + e.getMessage();
         }
@@ -1,6 +1,5 @@
 package com.yunhao.superai.tools;
 
-import cn.hutool.http.HttpUtil;
 import cn.hutool.json.JSONArray;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
@@ -19,8 +18,15 @@ public class WebSearchTool {
 
     private final String apiKey;
 
+    private final ToolHttpClient httpClient;
+
     public WebSearchTool(String apiKey) {
+        this(apiKey, ToolHttpClient.DEFAULT);
+    }
+
+    public WebSearchTool(String apiKey, ToolHttpClient httpClient) {
         this.apiKey = apiKey;
+        this.httpClient = httpClient;
     }
 
     @Tool(description = "Search for information from Baidu Search Engine")
@@ -31,7 +37,7 @@ public class WebSearchTool {
         paramMap.put("api_key", apiKey);
         paramMap.put("engine", "baidu");
         try {
-            String response = HttpUtil.get(SEARCH_API_URL, paramMap);
+            String response = httpClient.get(SEARCH_API_URL, paramMap);
             // 取出返回结果的前 5 条
             JSONObject jsonObject = JSONUtil.parseObj(response);
             // 提取 organic_results 部分
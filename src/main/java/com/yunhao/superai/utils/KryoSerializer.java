@@ -0,0 +1,70 @@
+package com.yunhao.superai.utils;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.Pool;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.util.function.Function;
+
+/**
+ * Kryo 序列化工具
+ *
+ * Kryo 实例不是线程安全的，这里通过对象池为每次序列化借出独立的实例。
+ * 配置与会话记忆的持久化保持一致：不要求注册类，使用 Objenesis 实例化没有无参构造器的类（如 Spring AI 的消息）。
+ */
+public class KryoSerializer {
+
+    private static final Pool<Kryo> KRYO_POOL = new Pool<>(true, false, 64) {
+        @Override
+        protected Kryo create() {
+            Kryo kryo = new Kryo();
+            kryo.setRegistrationRequired(false);
+            // 设置实例化策略
+            kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+            return kryo;
+        }
+    };
+
+    private KryoSerializer() {
+    }
+
+    /**
+     * 序列化为字节数组
+     */
+    public static byte[] serialize(Object object) {
+        Kryo kryo = KRYO_POOL.obtain();
+        try (Output output = new Output(256, -1)) {
+            kryo.writeClassAndObject(output, object);
+            return output.toBytes();
+        } finally {
+            KRYO_POOL.free(kryo);
+        }
+    }
+
+    /**
+     * 从字节数组反序列化
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T deserialize(byte[] bytes) {
+        Kryo kryo = KRYO_POOL.obtain();
+        try (Input input = new Input(bytes)) {
+            return (T) kryo.readClassAndObject(input);
+        } finally {
+            KRYO_POOL.free(kryo);
+        }
+    }
+
+    /**
+     * 借出一个 Kryo 实例执行自定义的读写（如 writeObject / readObject 这类不带类信息的格式），用完自动归还
+     */
+    public static <R> R execute(Function<Kryo, R> action) {
+        Kryo kryo = KRYO_POOL.obtain();
+        try {
+            return action.apply(kryo);
+        } finally {
+            KRYO_POOL.free(kryo);
+        }
+    }
+}
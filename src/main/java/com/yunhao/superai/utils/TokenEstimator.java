@@ -0,0 +1,81 @@
+package com.yunhao.superai.utils;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+
+import java.util.List;
+
+/**
+ * Token 数量估算工具
+ *
+ * 不依赖具体模型的分词器，按字符粗略估算：中日韩字符约 1 个 token，其他字符约 4 个字符 1 个 token。
+ * 只用于预算控制，不要求精确。
+ */
+public class TokenEstimator {
+
+    // 每条消息的固定开销（角色、分隔符等）
+    private static final int MESSAGE_OVERHEAD = 4;
+
+    private TokenEstimator() {
+    }
+
+    /**
+     * 估算文本的 token 数
+     */
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int cjkChars = 0;
+        int otherChars = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (isCjk(text.charAt(i))) {
+                cjkChars++;
+            } else {
+                otherChars++;
+            }
+        }
+        return cjkChars + (otherChars + 3) / 4;
+    }
+
+    /**
+     * 估算单条消息的 token 数，包括工具调用参数和工具返回结果
+     */
+    public static int estimate(Message message) {
+        int tokens = MESSAGE_OVERHEAD + estimate(message.getText());
+        if (message instanceof AssistantMessage assistantMessage && assistantMessage.hasToolCalls()) {
+            for (AssistantMessage.ToolCall toolCall : assistantMessage.getToolCalls()) {
+                tokens += estimate(toolCall.name()) + estimate(toolCall.arguments());
+            }
+        }
+        if (message instanceof ToolResponseMessage toolResponseMessage) {
+            for (ToolResponseMessage.ToolResponse response : toolResponseMessage.getResponses()) {
+                tokens += estimate(response.name()) + estimate(response.responseData());
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 估算消息列表的 token 数
+     */
+    public static int estimate(List<Message> messages) {
+        int tokens = 0;
+        for (Message message : messages) {
+            tokens += estimate(message);
+        }
+        return tokens;
+    }
+
+    private static boolean isCjk(char c) {
+        Character.UnicodeBlock block = Character.UnicodeBlock.of(c);
+        return block == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS
+                || block == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_A
+                || block == Character.UnicodeBlock.CJK_SYMBOLS_AND_PUNCTUATION
+                || block == Character.UnicodeBlock.HALFWIDTH_AND_FULLWIDTH_FORMS
+                || block == Character.UnicodeBlock.HIRAGANA
+                || block == Character.UnicodeBlock.KATAKANA
+                || block == Character.UnicodeBlock.HANGUL_SYLLABLES;
+    }
+}
@@ -0,0 +1,89 @@
+package com.yunhao.superai.agent;
+
+import cn.hutool.core.io.FileUtil;
+import com.yunhao.superai.agent.model.AgentCheckpoint;
+import com.yunhao.superai.agent.model.AgentRun;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+class AgentCheckpointStoreTest {
+
+    private final File dir = FileUtil.mkdir(FileUtil.getTmpDirPath() + "/agent-checkpoint-test-" + System.nanoTime());
+
+    @AfterEach
+    void tearDown() {
+        FileUtil.del(dir);
+    }
+
+    @Test
+    void saveAndLoad() {
+        AgentCheckpointStore store = new AgentCheckpointStore(dir.getAbsolutePath(), 24);
+        AgentRun agentRun = new AgentRun();
+        agentRun.setCurrentStep(3);
+        agentRun.setCompactionSavedTokens(1200);
+        agentRun.getMessageList().add(new UserMessage("帮我规划旅行"));
+        AssistantMessage.ToolCall toolCall = new AssistantMessage.ToolCall("1", "function", "searchWeb", "{\"query\":\"上海\"}");
+        agentRun.getMessageList().add(new AssistantMessage("", Map.of(), List.of(toolCall)));
+        agentRun.getMessageList().add(new ToolResponseMessage(
+                List.of(new ToolResponseMessage.ToolResponse("1", "searchWeb", "结果")), Map.of()));
+        store.save("yunManus", agentRun);
+
+        AgentCheckpoint checkpoint = store.load(agentRun.getRunId());
+        Assertions.assertNotNull(checkpoint);
+        Assertions.assertEquals("yunManus", checkpoint.getAgentName());
+        Assertions.assertEquals(3, checkpoint.getCompletedStep());
+        Assertions.assertEquals(1200, checkpoint.getCompactionSavedTokens());
+        Assertions.assertEquals(3, checkpoint.getMessageList().size());
+        AssistantMessage assistantMessage = (AssistantMessage) checkpoint.getMessageList().get(1);
+        Assertions.assertEquals(toolCall, assistantMessage.getToolCalls().get(0));
+
+        store.delete(agentRun.getRunId());
+        Assertions.assertNull(store.load(agentRun.getRunId()));
+    }
+
+    @Test
+    void rejectInvalidRunId() {
+        AgentCheckpointStore store = new AgentCheckpointStore(dir.getAbsolutePath(), 24);
+        Assertions.assertNull(store.load("../secret"));
+    }
+
+    @Test
+    void lockRunOnce() {
+        AgentCheckpointStore store = new AgentCheckpointStore(dir.getAbsolutePath(), 24);
+        AgentCheckpointStore otherNode = new AgentCheckpointStore(dir.getAbsolutePath(), 24);
+        Assertions.assertTrue(store.tryLock("run-1"));
+        // 同一节点和共享目录的其他节点都不能再次获取
+        Assertions.assertFalse(store.tryLock("run-1"));
+        Assertions.assertFalse(otherNode.tryLock("run-1"));
+        // 只释放自己持有的锁
+        otherNode.unlock("run-1");
+        Assertions.assertFalse(otherNode.tryLock("run-1"));
+        store.unlock("run-1");
+        Assertions.assertTrue(otherNode.tryLock("run-1"));
+    }
+
+    @Test
+    void deleteExpiredCheckpoints() {
+        AgentCheckpointStore store = new AgentCheckpointStore(dir.getAbsolutePath(), 1);
+        AgentRun abandoned = new AgentRun();
+        abandoned.getMessageList().add(new UserMessage("被放弃的运行"));
+        store.save("yunManus", abandoned);
+        AgentRun active = new AgentRun();
+        active.getMessageList().add(new UserMessage("进行中的运行"));
+        store.save("yunManus", active);
+        File abandonedFile = new File(dir, abandoned.getRunId() + ".kryo");
+        Assertions.assertTrue(abandonedFile.setLastModified(System.currentTimeMillis() - 2 * 3600_000L));
+
+        Assertions.assertEquals(1, store.deleteExpired());
+        Assertions.assertNull(store.load(abandoned.getRunId()));
+        Assertions.assertNotNull(store.load(active.getRunId()));
+    }
+}
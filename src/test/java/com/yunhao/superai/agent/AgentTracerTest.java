@@ -0,0 +1,88 @@
+package com.yunhao.superai.agent;
+
+import com.yunhao.superai.agent.model.AgentRun;
+import com.yunhao.superai.agent.model.AgentState;
+import com.yunhao.superai.agent.model.AgentTrace;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.observation.DefaultMeterObservationHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+
+class AgentTracerTest {
+
+    @Test
+    void recordStepsThinkAndToolCalls() {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ObservationRegistry observationRegistry = ObservationRegistry.create();
+        observationRegistry.observationConfig().observationHandler(new DefaultMeterObservationHandler(meterRegistry));
+        AgentTracer tracer = new AgentTracer(observationRegistry, 10);
+
+        AgentRun agentRun = new AgentRun();
+        agentRun.setState(AgentState.RUNNING);
+        tracer.runStarted("yunManus", agentRun);
+        agentRun.setCurrentStep(1);
+        tracer.stepStarted(agentRun);
+        tracer.thinkStarted(agentRun);
+        tracer.thinkEnded(agentRun, 1200, 80, null);
+        AssistantMessage.ToolCall toolCall = new AssistantMessage.ToolCall("1", "function", "searchWeb", "{\"query\":\"上海\"}");
+        tracer.toolStarted(agentRun, toolCall);
+        tracer.toolEnded(agentRun, toolCall, "结果", 35);
+        tracer.stepEnded(agentRun, "工具 searchWeb 完成了它的任务！");
+        agentRun.setState(AgentState.FINISHED);
+        tracer.runEnded(agentRun, null);
+
+        AgentTrace trace = tracer.getTrace(agentRun.getRunId());
+        Assertions.assertEquals(AgentState.FINISHED, trace.getState());
+        Assertions.assertEquals(1200, trace.getPromptTokens());
+        Assertions.assertEquals(1, trace.getSteps().size());
+        AgentTrace.ToolSpan toolSpan = trace.getSteps().get(0).getToolCalls().get(0);
+        Assertions.assertEquals("searchWeb", toolSpan.getToolName());
+        Assertions.assertEquals(2, toolSpan.getResultChars());
+        Assertions.assertEquals(35, toolSpan.getDurationMs());
+        Assertions.assertEquals(1, meterRegistry.get("agent.tool").tag("tool", "searchWeb").timer().count());
+        Assertions.assertEquals(1, tracer.recentTraces().size());
+    }
+
+    @Test
+    void stopTimedOutAndUnfinishedToolCalls() {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ObservationRegistry observationRegistry = ObservationRegistry.create();
+        observationRegistry.observationConfig().observationHandler(new DefaultMeterObservationHandler(meterRegistry));
+        AgentTracer tracer = new AgentTracer(observationRegistry, 10);
+
+        AgentRun agentRun = new AgentRun();
+        agentRun.setState(AgentState.RUNNING);
+        tracer.runStarted("yunManus", agentRun);
+        agentRun.setCurrentStep(1);
+        tracer.stepStarted(agentRun);
+        AssistantMessage.ToolCall slow = new AssistantMessage.ToolCall("1", "function", "scrapeWebPage", "{}");
+        AssistantMessage.ToolCall stuck = new AssistantMessage.ToolCall("2", "function", "searchWeb", "{}");
+        tracer.toolStarted(agentRun, slow);
+        tracer.toolStarted(agentRun, stuck);
+        tracer.toolAborted(agentRun, slow, "timeout", 60000);
+        // 超时后工具才返回，不再重复记录
+        tracer.toolEnded(agentRun, slow, "结果", 61000);
+        tracer.stepEnded(agentRun, "Error: tool call timed out");
+        agentRun.setState(AgentState.CANCELLED);
+        tracer.runEnded(agentRun, null);
+
+        Assertions.assertEquals(1, meterRegistry.get("agent.tool").tag("outcome", "timeout").timer().count());
+        Assertions.assertEquals(1, meterRegistry.get("agent.tool").tag("outcome", "cancelled").timer().count());
+        Assertions.assertTrue(meterRegistry.find("agent.tool").tag("outcome", "success").timers().isEmpty());
+        AgentTrace.ToolSpan toolSpan = tracer.getTrace(agentRun.getRunId()).getSteps().get(0).getToolCalls().get(0);
+        Assertions.assertTrue(toolSpan.isError());
+        Assertions.assertEquals(1, tracer.getTrace(agentRun.getRunId()).getSteps().get(0).getToolCalls().size());
+    }
+
+    @Test
+    void noopTracerRecordsNothing() {
+        AgentRun agentRun = new AgentRun();
+        AgentTracer.NOOP.runStarted("yunManus", agentRun);
+        AgentTracer.NOOP.stepStarted(agentRun);
+        AgentTracer.NOOP.runEnded(agentRun, null);
+        Assertions.assertNull(AgentTracer.NOOP.getTrace(agentRun.getRunId()));
+    }
+}
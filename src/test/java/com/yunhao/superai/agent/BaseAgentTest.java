@@ -0,0 +1,54 @@
+package com.yunhao.superai.agent;
+
+import com.yunhao.superai.agent.model.AgentEventType;
+import com.yunhao.superai.agent.model.AgentRun;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+class BaseAgentTest {
+
+    @Test
+    void stopBeforeNextStepWhenCancelledByListener() {
+        CountingAgent agent = new CountingAgent();
+        AgentRun agentRun = new AgentRun();
+        // 与 SSE 发送失败时一样，在执行线程上的监听器里取消
+        agentRun.setEventListener(event -> {
+            if (event.getType() == AgentEventType.STEP_END) {
+                agentRun.cancel();
+            }
+        });
+        Assertions.assertFalse(agent.execute(agentRun, "你好"));
+        Assertions.assertEquals(1, agent.steps.get());
+        Assertions.assertEquals(1, agentRun.getCurrentStep());
+    }
+
+    @Test
+    void skipStepWhenCancelledOnStepStart() {
+        CountingAgent agent = new CountingAgent();
+        AgentRun agentRun = new AgentRun();
+        agentRun.setEventListener(event -> {
+            if (event.getType() == AgentEventType.STEP_START) {
+                agentRun.cancel();
+            }
+        });
+        agent.execute(agentRun, "你好");
+        Assertions.assertEquals(0, agent.steps.get());
+    }
+
+    private static class CountingAgent extends BaseAgent {
+
+        private final AtomicInteger steps = new AtomicInteger();
+
+        CountingAgent() {
+            setName("counting");
+            setMaxSteps(5);
+        }
+
+        @Override
+        public String step(AgentRun agentRun) {
+            return "第 " + steps.incrementAndGet() + " 步";
+        }
+    }
+}
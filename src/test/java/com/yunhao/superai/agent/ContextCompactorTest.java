@@ -0,0 +1,53 @@
+package com.yunhao.superai.agent;
+
+import cn.hutool.core.util.StrUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+class ContextCompactorTest {
+
+    @Test
+    void compactOlderToolResultsAndKeepGoalAndLatestStep() {
+        List<Message> messages = new ArrayList<>();
+        messages.add(new UserMessage("帮我调研三个主题"));
+        for (int i = 0; i < 5; i++) {
+            messages.add(toolCall(String.valueOf(i)));
+            messages.add(toolResult(String.valueOf(i), StrUtil.repeat("html ", 4000)));
+        }
+        ContextCompactor compactor = new ContextCompactor(8000);
+        ContextCompactor.CompactionResult result = compactor.compact(messages);
+
+        Assertions.assertTrue(result.afterTokens() <= 8000, "after: " + result.afterTokens());
+        Assertions.assertTrue(result.savedTokens() > 0);
+        // 用户目标始终保留
+        Assertions.assertEquals("帮我调研三个主题", result.messages().get(0).getText());
+        // 最近一步的工具结果保持完整
+        ToolResponseMessage last = (ToolResponseMessage) result.messages().get(result.messages().size() - 1);
+        Assertions.assertEquals(20000, last.getResponses().get(0).responseData().length());
+    }
+
+    @Test
+    void keepMessagesUnderBudget() {
+        List<Message> messages = List.of(new UserMessage("你好"), toolCall("1"), toolResult("1", "ok"));
+        ContextCompactor.CompactionResult result = new ContextCompactor(8000).compact(messages);
+        Assertions.assertEquals(0, result.savedTokens());
+        Assertions.assertSame(messages, result.messages());
+    }
+
+    private AssistantMessage toolCall(String id) {
+        return new AssistantMessage("", Map.of(),
+                List.of(new AssistantMessage.ToolCall(id, "function", "scrapeWebPage", "{\"url\":\"https://example.com\"}")));
+    }
+
+    private ToolResponseMessage toolResult(String id, String data) {
+        return new ToolResponseMessage(List.of(new ToolResponseMessage.ToolResponse(id, "scrapeWebPage", data)), Map.of());
+    }
+}
@@ -0,0 +1,37 @@
+package com.yunhao.superai.agent;
+
+import com.yunhao.superai.agent.model.AgentRun;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class LoopDetectorTest {
+
+    @Test
+    void warnOnFirstRepeatAndStopWhenRepeatPersists() {
+        LoopDetector detector = new LoopDetector();
+        AgentRun agentRun = new AgentRun();
+        Assertions.assertEquals(LoopDetector.Verdict.PROGRESS, detector.check(agentRun, "searchWeb:{\"query\":\"上海\"}"));
+        Assertions.assertEquals(LoopDetector.Verdict.WARN, detector.check(agentRun, "searchWeb:{\"query\":\"上海\"}"));
+        Assertions.assertEquals(LoopDetector.Verdict.STOP, detector.check(agentRun, "searchWeb:{\"query\":\"上海\"}"));
+    }
+
+    @Test
+    void detectAlternatingCycle() {
+        LoopDetector detector = new LoopDetector();
+        AgentRun agentRun = new AgentRun();
+        Assertions.assertEquals(LoopDetector.Verdict.PROGRESS, detector.check(agentRun, "A"));
+        Assertions.assertEquals(LoopDetector.Verdict.PROGRESS, detector.check(agentRun, "B"));
+        Assertions.assertEquals(LoopDetector.Verdict.WARN, detector.check(agentRun, "A"));
+        Assertions.assertEquals(LoopDetector.Verdict.PROGRESS, detector.check(agentRun, "B"));
+        Assertions.assertEquals(LoopDetector.Verdict.STOP, detector.check(agentRun, "A"));
+    }
+
+    @Test
+    void distinctStepsAreProgress() {
+        LoopDetector detector = new LoopDetector(2, 1);
+        AgentRun agentRun = new AgentRun();
+        for (String fingerprint : new String[]{"A", "B", "C", "A", "B", "C"}) {
+            Assertions.assertEquals(LoopDetector.Verdict.PROGRESS, detector.check(agentRun, fingerprint));
+        }
+    }
+}
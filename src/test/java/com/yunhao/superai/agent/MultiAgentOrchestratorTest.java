@@ -0,0 +1,73 @@
+package com.yunhao.superai.agent;
+
+import com.yunhao.superai.agent.model.AgentEvent;
+import com.yunhao.superai.agent.model.AgentEventType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.tool.ToolCallback;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+
+class MultiAgentOrchestratorTest {
+
+    private static final String PLAN = """
+            {"tasks": [
+              {"id": "t1", "description": "调研北京", "dependsOn": []},
+              {"id": "t2", "description": "调研上海", "dependsOn": []}
+            ]}""";
+
+    @Test
+    void runPlanWithSingleRunPermit() {
+        // 只有一个运行许可：协调者不能占用它，否则子任务排队到超时
+        AgentExecutionService executionService = new AgentExecutionService(1, 10, 5000, new SimpleMeterRegistry());
+        ChatModel chatModel = new FakeChatModel();
+        YunManus yunManus = new YunManus(new ToolCallback[0], chatModel, executionService, null, AgentTracer.NOOP, 24000);
+        yunManus.setMaxSteps(1);
+        MultiAgentOrchestrator orchestrator = new MultiAgentOrchestrator(new ToolCallback[0], chatModel, yunManus,
+                executionService, AgentTracer.NOOP, 8, 4, 2, 4000, 24000);
+        try {
+            List<AgentEvent> events = orchestrator.runFlux("对比北京和上海").collectList().block(Duration.ofSeconds(30));
+
+            Assertions.assertNotNull(events);
+            Assertions.assertTrue(events.stream().noneMatch(event -> event.getType() == AgentEventType.ERROR));
+            List<AgentEvent> subTaskEnds = events.stream()
+                    .filter(event -> event.getType() == AgentEventType.SUBTASK_END)
+                    .toList();
+            Assertions.assertEquals(2, subTaskEnds.size());
+            subTaskEnds.forEach(event -> Assertions.assertEquals("完成", event.getContent()));
+            // 子任务完成后合并阶段同样拿到了许可
+            Assertions.assertEquals(AgentEventType.RUN_END, events.get(events.size() - 1).getType());
+        } finally {
+            orchestrator.shutdown();
+            executionService.shutdown();
+        }
+    }
+
+    /**
+     * 规划请求返回两个并行的子任务，其他请求直接回答
+     */
+    private static class FakeChatModel implements ChatModel {
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            return response(PLAN);
+        }
+
+        @Override
+        public Flux<ChatResponse> stream(Prompt prompt) {
+            return Flux.just(response("完成"));
+        }
+
+        private static ChatResponse response(String text) {
+            return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.yunhao.superai.agent;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+class ParallelToolExecutorTest {
+
+    @Test
+    void executeInParallelAndKeepOrder() {
+        ToolCallback[] tools = {
+                sleepingTool("slow", 500),
+                sleepingTool("fast", 10),
+                sleepingTool("medium", 200)
+        };
+        ParallelToolExecutor executor = new ParallelToolExecutor(tools, Duration.ofSeconds(5));
+        List<AssistantMessage.ToolCall> toolCalls = List.of(
+                new AssistantMessage.ToolCall("1", "function", "slow", "{}"),
+                new AssistantMessage.ToolCall("2", "function", "fast", "{}"),
+                new AssistantMessage.ToolCall("3", "function", "medium", "{}"));
+        long start = System.currentTimeMillis();
+        ToolResponseMessage message = executor.execute(toolCalls);
+        long cost = System.currentTimeMillis() - start;
+        // 并行执行时总耗时接近最慢的调用，而不是三者之和
+        Assertions.assertTrue(cost < 700, "cost: " + cost);
+        List<String> names = message.getResponses().stream()
+                .map(ToolResponseMessage.ToolResponse::name)
+                .toList();
+        Assertions.assertEquals(List.of("slow", "fast", "medium"), names);
+    }
+
+    @Test
+    void timeoutAndUnknownTool() {
+        ToolCallback[] tools = {sleepingTool("slow", 2000)};
+        ParallelToolExecutor executor = new ParallelToolExecutor(tools, Duration.ofMillis(100));
+        ToolResponseMessage message = executor.execute(List.of(
+                new AssistantMessage.ToolCall("1", "function", "slow", "{}"),
+                new AssistantMessage.ToolCall("2", "function", "missing", "{}")));
+        Assertions.assertTrue(message.getResponses().get(0).responseData().contains("timed out"));
+        Assertions.assertTrue(message.getResponses().get(1).responseData().contains("not found"));
+    }
+
+    @Test
+    void notifyListenerWhenToolCallTimesOut() {
+        ToolCallback[] tools = {sleepingTool("slow", 2000), sleepingTool("fast", 10)};
+        ParallelToolExecutor executor = new ParallelToolExecutor(tools, Duration.ofMillis(100));
+        List<String> aborted = new CopyOnWriteArrayList<>();
+        executor.execute(List.of(
+                new AssistantMessage.ToolCall("1", "function", "slow", "{}"),
+                new AssistantMessage.ToolCall("2", "function", "fast", "{}")), new ParallelToolExecutor.ToolCallListener() {
+            @Override
+            public void onAbort(AssistantMessage.ToolCall toolCall, String outcome, long costMs) {
+                aborted.add(toolCall.name() + ":" + outcome);
+            }
+        });
+        Assertions.assertEquals(List.of("slow:timeout"), aborted);
+    }
+
+    private ToolCallback sleepingTool(String name, long sleepMillis) {
+        ToolDefinition toolDefinition = ToolDefinition.builder()
+                .name(name)
+                .description(name)
+                .inputSchema("{}")
+                .build();
+        return new ToolCallback() {
+            @Override
+            public ToolDefinition getToolDefinition() {
+                return toolDefinition;
+            }
+
+            @Override
+            public String call(String toolInput) {
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return name;
+            }
+        };
+    }
+}
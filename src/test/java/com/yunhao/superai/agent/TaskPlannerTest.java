@@ -0,0 +1,39 @@
+package com.yunhao.superai.agent;
+
+import com.yunhao.superai.agent.model.TaskPlan;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+class TaskPlannerTest {
+
+    @Test
+    void sortDependenciesFirstAndComputeCriticalPath() {
+        TaskPlan plan = new TaskPlan(List.of(
+                new TaskPlan.SubTask("t4", "对比三个城市", List.of("t1", "t2", "t3")),
+                new TaskPlan.SubTask("t1", "调研北京", List.of()),
+                new TaskPlan.SubTask("t2", "调研上海", null),
+                new TaskPlan.SubTask("t3", "调研广州", List.of())));
+        TaskPlan sorted = TaskPlanner.sort(plan, 8);
+
+        List<String> ids = sorted.tasks().stream().map(TaskPlan.SubTask::id).toList();
+        Assertions.assertEquals("t4", ids.get(3));
+        Assertions.assertEquals(List.of(), sorted.tasks().get(1).dependsOn());
+        // 三个调研并行，之后对比：关键路径只有 2 个子任务
+        Assertions.assertEquals(2, TaskPlanner.criticalPathLength(sorted));
+    }
+
+    @Test
+    void rejectInvalidPlans() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> TaskPlanner.sort(new TaskPlan(List.of(
+                new TaskPlan.SubTask("t1", "a", List.of("t2")),
+                new TaskPlan.SubTask("t2", "b", List.of("t1")))), 8));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> TaskPlanner.sort(new TaskPlan(List.of(
+                new TaskPlan.SubTask("t1", "a", List.of("t9")))), 8));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> TaskPlanner.sort(new TaskPlan(List.of(
+                new TaskPlan.SubTask("t1", "a", List.of()),
+                new TaskPlan.SubTask("t1", "b", List.of()))), 8));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> TaskPlanner.sort(new TaskPlan(List.of()), 8));
+    }
+}
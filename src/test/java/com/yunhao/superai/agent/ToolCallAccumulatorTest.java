@@ -0,0 +1,37 @@
+package com.yunhao.superai.agent;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+
+import java.util.List;
+
+class ToolCallAccumulatorTest {
+
+    @Test
+    void mergeFragmentsAndDetectCompletedCalls() {
+        ToolCallAccumulator accumulator = new ToolCallAccumulator();
+        accumulator.add(List.of(new AssistantMessage.ToolCall("call_1", "function", "searchWeb", "{\"query\":")));
+        Assertions.assertTrue(accumulator.completedToolCalls().isEmpty());
+
+        accumulator.add(List.of(new AssistantMessage.ToolCall("", "", "", "\"上海\"}")));
+        accumulator.add(List.of(new AssistantMessage.ToolCall("call_2", "function", "scrapeWebPage", "{\"url\"")));
+        List<AssistantMessage.ToolCall> completed = accumulator.completedToolCalls();
+        Assertions.assertEquals(1, completed.size());
+        Assertions.assertEquals("{\"query\":\"上海\"}", completed.get(0).arguments());
+
+        accumulator.add(List.of(new AssistantMessage.ToolCall("call_2", "function", "", ":\"https://example.com\"}")));
+        Assertions.assertEquals(2, accumulator.completedToolCalls().size());
+        Assertions.assertEquals(List.of("searchWeb", "scrapeWebPage"),
+                accumulator.toolCalls().stream().map(AssistantMessage.ToolCall::name).toList());
+    }
+
+    @Test
+    void replaceWithMergedCall() {
+        ToolCallAccumulator accumulator = new ToolCallAccumulator();
+        accumulator.add(List.of(new AssistantMessage.ToolCall("call_1", "function", "searchWeb", "{\"query\":\"a\"}")));
+        accumulator.add(List.of(new AssistantMessage.ToolCall("call_1", "function", "searchWeb", "{\"query\":\"a\"}")));
+        Assertions.assertEquals(1, accumulator.toolCalls().size());
+        Assertions.assertEquals("{\"query\":\"a\"}", accumulator.toolCalls().get(0).arguments());
+    }
+}
@@ -0,0 +1,143 @@
+package com.yunhao.superai.chatmemory;
+
+import cn.hutool.core.io.FileUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+class BoundedInMemoryChatMemoryRepositoryTest {
+
+    private File dir;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dir = Files.createTempDirectory("chat-memory-spill-test").toFile();
+    }
+
+    @AfterEach
+    void tearDown() {
+        FileUtil.del(dir);
+    }
+
+    @Test
+    void spillLeastRecentlyUsedAndReload() throws Exception {
+        try (BoundedInMemoryChatMemoryRepository repository = newRepository(2, Long.MAX_VALUE, Duration.ofHours(1))) {
+            repository.saveAll("c1", conversation("c1"));
+            repository.saveAll("c2", conversation("c2"));
+            repository.findByConversationId("c1");
+            // c2 最久未访问，被移入溢出文件
+            repository.saveAll("c3", conversation("c3"));
+            Assertions.assertEquals(2, gauge("chat.memory.heap.entries"));
+            Assertions.assertEquals(1, gauge("chat.memory.spill.entries"));
+            Assertions.assertEquals(1, meterRegistry.get("chat.memory.evictions").tag("reason", "size").counter().count());
+            Assertions.assertEquals(3, repository.findConversationIds().size());
+
+            List<Message> messages = repository.findByConversationId("c2");
+            Assertions.assertEquals(List.of("c2 问题", "c2 回答"), messages.stream().map(Message::getText).toList());
+            Assertions.assertEquals("call_c2", ((AssistantMessage) messages.get(1)).getToolCalls().get(0).id());
+            Assertions.assertEquals(1, meterRegistry.get("chat.memory.reloads").counter().count());
+            Assertions.assertEquals(2, meterRegistry.get("chat.memory.spills").counter().count());
+
+            repository.deleteByConversationId("c1");
+            repository.deleteByConversationId("c2");
+            repository.deleteByConversationId("c3");
+            Assertions.assertTrue(repository.findConversationIds().isEmpty());
+            Assertions.assertEquals(0, gauge("chat.memory.heap.bytes"));
+        }
+    }
+
+    @Test
+    void boundedByEstimatedBytes() throws Exception {
+        long oneConversation = BoundedInMemoryChatMemoryRepository.estimateBytes(conversation("c0"));
+        try (BoundedInMemoryChatMemoryRepository repository = newRepository(1000, oneConversation * 3, Duration.ofHours(1))) {
+            for (int i = 0; i < 10; i++) {
+                repository.saveAll("c" + i, conversation("c" + i));
+            }
+            Assertions.assertEquals(3, gauge("chat.memory.heap.entries"));
+            Assertions.assertTrue(gauge("chat.memory.heap.bytes") <= oneConversation * 3);
+            for (int i = 0; i < 10; i++) {
+                Assertions.assertEquals(2, repository.findByConversationId("c" + i).size());
+            }
+        }
+    }
+
+    @Test
+    void spillIdleConversations() throws Exception {
+        try (BoundedInMemoryChatMemoryRepository repository = newRepository(1000, Long.MAX_VALUE, Duration.ofMillis(1))) {
+            repository.saveAll("c1", conversation("c1"));
+            Thread.sleep(10);
+            repository.evictIdle();
+            Assertions.assertEquals(0, gauge("chat.memory.heap.entries"));
+            Assertions.assertEquals(1, meterRegistry.get("chat.memory.evictions").tag("reason", "idle").counter().count());
+            Assertions.assertEquals(2, repository.findByConversationId("c1").size());
+        }
+    }
+
+    @Test
+    void dropWhenSpillFileFull() throws Exception {
+        Path spillPath = dir.toPath().resolve("spill.bin");
+        // 溢出文件只有 16 字节，放不下任何一个会话
+        try (BoundedInMemoryChatMemoryRepository repository = new BoundedInMemoryChatMemoryRepository(
+                1, Long.MAX_VALUE, Duration.ofHours(1), spillPath, 16, meterRegistry)) {
+            repository.saveAll("c1", conversation("c1"));
+            repository.saveAll("c2", conversation("c2"));
+            Assertions.assertEquals(1, meterRegistry.get("chat.memory.evictions").tag("reason", "size").counter().count());
+            Assertions.assertEquals(1, meterRegistry.get("chat.memory.evictions").tag("reason", "dropped").counter().count());
+            Assertions.assertEquals(0, gauge("chat.memory.spill.entries"));
+            Assertions.assertEquals(List.of("c2"), repository.findConversationIds());
+            Assertions.assertTrue(repository.findByConversationId("c1").isEmpty());
+            Assertions.assertEquals(2, repository.findByConversationId("c2").size());
+        }
+    }
+
+    @Test
+    void spillFileGrowsAndCompacts() throws Exception {
+        try (MappedSpillFile spillFile = new MappedSpillFile(dir.toPath().resolve("spill.bin"), 64)) {
+            for (int i = 0; i < 100; i++) {
+                spillFile.put("k" + i, new byte[]{(byte) i, (byte) i, (byte) i, (byte) i});
+            }
+            Assertions.assertTrue(spillFile.capacity() >= 400);
+            // 删除大部分键后反复写入，空洞被压缩，容量不再增长
+            for (int i = 0; i < 90; i++) {
+                Assertions.assertTrue(spillFile.remove("k" + i));
+            }
+            long capacity = spillFile.capacity();
+            for (int round = 0; round < 100; round++) {
+                spillFile.put("k99", new byte[]{(byte) round, 0, 0, 0});
+            }
+            Assertions.assertEquals(capacity, spillFile.capacity());
+            Assertions.assertEquals(99, spillFile.take("k99")[0]);
+            Assertions.assertArrayEquals(new byte[]{95, 95, 95, 95}, spillFile.take("k95"));
+            Assertions.assertNull(spillFile.take("k95"));
+            Assertions.assertEquals(8, spillFile.size());
+        }
+    }
+
+    private BoundedInMemoryChatMemoryRepository newRepository(int maxConversations, long maxHeapBytes, Duration idleTimeout) {
+        Path spillPath = dir.toPath().resolve("spill.bin");
+        return new BoundedInMemoryChatMemoryRepository(maxConversations, maxHeapBytes, idleTimeout, spillPath, meterRegistry);
+    }
+
+    private double gauge(String name) {
+        return meterRegistry.get(name).gauge().value();
+    }
+
+    private static List<Message> conversation(String id) {
+        return List.of(new UserMessage(id + " 问题"), new AssistantMessage(id + " 回答", Map.of(), List.of(
+                new AssistantMessage.ToolCall("call_" + id, "function", "searchWeb", "{}"))));
+    }
+}
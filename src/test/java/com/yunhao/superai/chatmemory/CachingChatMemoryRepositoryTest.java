@@ -0,0 +1,178 @@
+package com.yunhao.superai.chatmemory;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+class CachingChatMemoryRepositoryTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final CountingRepository delegate = new CountingRepository();
+
+    @Test
+    void coalesceWritesUntilFlush() {
+        // 间隔足够长，只在手动 flush 时写入
+        CachingChatMemoryRepository repository =
+                new CachingChatMemoryRepository(delegate, 100, Duration.ofHours(1), 1000, meterRegistry);
+        for (int i = 1; i <= 5; i++) {
+            repository.saveAll("c1", messages(i));
+        }
+        Assertions.assertEquals(0, delegate.saves.get());
+        Assertions.assertEquals(5, repository.findByConversationId("c1").size());
+        Assertions.assertEquals(List.of("c1"), repository.findConversationIds());
+
+        repository.flush();
+        Assertions.assertEquals(1, delegate.saves.get());
+        Assertions.assertEquals(5, delegate.findByConversationId("c1").size());
+        Assertions.assertEquals(4, meterRegistry.get("chat.memory.cache.writes.coalesced").counter().count());
+        Assertions.assertEquals(0, meterRegistry.get("chat.memory.cache.dirty").gauge().value());
+        repository.close();
+    }
+
+    @Test
+    void readThroughAndEvict() {
+        delegate.saveAll("c1", messages(1));
+        delegate.saveAll("c2", messages(2));
+        CachingChatMemoryRepository repository =
+                new CachingChatMemoryRepository(delegate, 1, Duration.ofHours(1), 1000, meterRegistry);
+        repository.findByConversationId("c1");
+        repository.findByConversationId("c1");
+        Assertions.assertEquals(1, delegate.reads.get());
+        // c2 挤掉 c1，再次读取 c1 需要访问底层存储
+        repository.findByConversationId("c2");
+        repository.findByConversationId("c1");
+        Assertions.assertEquals(3, delegate.reads.get());
+        Assertions.assertEquals(0.25, meterRegistry.get("chat.memory.cache.hit.ratio").gauge().value(), 1e-9);
+        repository.close();
+    }
+
+    @Test
+    void flushDeletesAndRemainingDirtyOnClose() {
+        delegate.saveAll("c1", messages(1));
+        CachingChatMemoryRepository repository =
+                new CachingChatMemoryRepository(delegate, 100, Duration.ofHours(1), 1000, meterRegistry);
+        repository.deleteByConversationId("c1");
+        repository.saveAll("c2", messages(3));
+        Assertions.assertTrue(repository.findByConversationId("c1").isEmpty());
+        Assertions.assertEquals(List.of("c2"), repository.findConversationIds());
+
+        repository.close();
+        Assertions.assertTrue(delegate.findByConversationId("c1").isEmpty());
+        Assertions.assertEquals(3, delegate.findByConversationId("c2").size());
+    }
+
+    @Test
+    void keepDirtyWhenFlushFails() {
+        CachingChatMemoryRepository repository =
+                new CachingChatMemoryRepository(delegate, 100, Duration.ofHours(1), 1000, meterRegistry);
+        repository.saveAll("c1", messages(2));
+        delegate.failing = true;
+        repository.flush();
+        Assertions.assertEquals(1, meterRegistry.get("chat.memory.cache.flush.failures").counter().count());
+        Assertions.assertEquals(1, meterRegistry.get("chat.memory.cache.dirty").gauge().value());
+
+        delegate.failing = false;
+        repository.flush();
+        Assertions.assertEquals(2, delegate.findByConversationId("c1").size());
+        repository.close();
+    }
+
+    @Test
+    void skipFillWhenWrittenDuringRead() {
+        delegate.saveAll("c1", messages(1));
+        CachingChatMemoryRepository repository =
+                new CachingChatMemoryRepository(delegate, 100, Duration.ofHours(1), 1000, meterRegistry);
+        // 读取底层存储期间会话被写入并已落到底层存储，读到的旧数据不能进入缓存
+        delegate.beforeReadReturns = () -> {
+            repository.saveAll("c1", messages(2));
+            repository.flush();
+        };
+        repository.findByConversationId("c1");
+        Assertions.assertEquals(2, repository.findByConversationId("c1").size());
+        repository.close();
+    }
+
+    @Test
+    void writeThroughWhenTooManyDirty() {
+        CachingChatMemoryRepository repository =
+                new CachingChatMemoryRepository(delegate, 100, Duration.ofHours(1), 1, meterRegistry);
+        delegate.failing = true;
+        repository.saveAll("c1", messages(1));
+        repository.saveAll("c2", messages(1));
+        // 脏会话已达上限，新的会话直接写入底层存储，失败时抛给调用方
+        Assertions.assertThrows(IllegalStateException.class, () -> repository.saveAll("c3", messages(1)));
+        // 已经是脏会话的写入仍然只更新缓存
+        repository.saveAll("c1", messages(2));
+        Assertions.assertEquals(2, meterRegistry.get("chat.memory.cache.dirty").gauge().value());
+        Assertions.assertEquals(1, meterRegistry.get("chat.memory.cache.writes.through").counter().count());
+
+        delegate.failing = false;
+        repository.close();
+        Assertions.assertEquals(2, delegate.findByConversationId("c1").size());
+        Assertions.assertEquals(1, delegate.findByConversationId("c2").size());
+    }
+
+    private static List<Message> messages(int count) {
+        return IntStream.range(0, count)
+                .<Message>mapToObj(i -> new UserMessage("消息" + i))
+                .toList();
+    }
+
+    /**
+     * 统计读写次数、可以模拟写入失败的内存存储
+     */
+    private static class CountingRepository implements ChatMemoryRepository {
+
+        private final InMemoryChatMemoryRepository repository = new InMemoryChatMemoryRepository();
+
+        private final AtomicInteger reads = new AtomicInteger();
+
+        private final AtomicInteger saves = new AtomicInteger();
+
+        private volatile boolean failing;
+
+        // 读取返回前执行一次，用于模拟读取期间的并发写入
+        private volatile Runnable beforeReadReturns;
+
+        @Override
+        public List<String> findConversationIds() {
+            return repository.findConversationIds();
+        }
+
+        @Override
+        public List<Message> findByConversationId(String conversationId) {
+            reads.incrementAndGet();
+            List<Message> messages = List.copyOf(repository.findByConversationId(conversationId));
+            Runnable hook = beforeReadReturns;
+            if (hook != null) {
+                beforeReadReturns = null;
+                hook.run();
+            }
+            return messages;
+        }
+
+        @Override
+        public void saveAll(String conversationId, List<Message> messages) {
+            if (failing) {
+                throw new IllegalStateException("存储不可用");
+            }
+            saves.incrementAndGet();
+            repository.saveAll(conversationId, messages);
+        }
+
+        @Override
+        public void deleteByConversationId(String conversationId) {
+            repository.deleteByConversationId(conversationId);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.yunhao.superai.chatmemory;
+
+import cn.hutool.core.io.FileUtil;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class FileBasedChatMemoryTest {
+
+    private final File dir = FileUtil.mkdir(FileUtil.getTmpDirPath() + "/chat-memory-test-" + System.nanoTime());
+
+    @AfterEach
+    void tearDown() {
+        FileUtil.del(dir);
+    }
+
+    @Test
+    void appendAndReadBack() {
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(dir.getAbsolutePath());
+        chatMemory.add("c1", List.of(new UserMessage("你好"), new AssistantMessage("你好，有什么可以帮你")));
+        chatMemory.add("c1", List.of(new UserMessage("帮我制定训练计划")));
+
+        // 新实例从磁盘读取
+        List<Message> messages = new FileBasedChatMemory(dir.getAbsolutePath()).get("c1");
+        Assertions.assertEquals(3, messages.size());
+        Assertions.assertEquals("你好", messages.get(0).getText());
+        Assertions.assertEquals("帮我制定训练计划", messages.get(2).getText());
+        Assertions.assertTrue(chatMemory.get("unknown").isEmpty());
+    }
+
+    @Test
+    void recoverFromTornTail() throws Exception {
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(dir.getAbsolutePath());
+        chatMemory.add("c1", List.of(new UserMessage("第一条")));
+        chatMemory.add("c1", List.of(new UserMessage("第二条")));
+        // 模拟写最后一条记录时崩溃：截掉末尾几个字节
+        File file = new File(dir, "c1.log");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        FileBasedChatMemory recovered = new FileBasedChatMemory(dir.getAbsolutePath());
+        recovered.add("c1", List.of(new UserMessage("第三条")));
+        List<Message> messages = recovered.get("c1");
+        Assertions.assertEquals(List.of("第一条", "第三条"), messages.stream().map(Message::getText).toList());
+    }
+
+    @Test
+    void compactKeepsOrder() {
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(dir.getAbsolutePath(), false, 1000);
+        for (int i = 0; i < 10; i++) {
+            chatMemory.add("c1", List.of(new UserMessage("消息" + i)));
+        }
+        long before = new File(dir, "c1.log").length();
+        chatMemory.compact("c1");
+        Assertions.assertTrue(new File(dir, "c1.log").length() < before);
+
+        chatMemory.add("c1", List.of(new UserMessage("消息10")));
+        List<Message> messages = new FileBasedChatMemory(dir.getAbsolutePath()).get("c1");
+        Assertions.assertEquals(11, messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            Assertions.assertEquals("消息" + i, messages.get(i).getText());
+        }
+    }
+
+    @Test
+    void migrateLegacyFile() throws Exception {
+        Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(false);
+        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        List<Message> legacy = new ArrayList<>(List.of(new UserMessage("旧消息")));
+        try (Output output = new Output(new FileOutputStream(new File(dir, "c1.kryo")))) {
+            kryo.writeObject(output, legacy);
+        }
+
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(dir.getAbsolutePath());
+        chatMemory.add("c1", List.of(new UserMessage("新消息")));
+        Assertions.assertEquals(List.of("旧消息", "新消息"), chatMemory.get("c1").stream().map(Message::getText).toList());
+        Assertions.assertFalse(new File(dir, "c1.kryo").exists());
+    }
+
+    @Test
+    void clearRemovesConversation() {
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(dir.getAbsolutePath());
+        chatMemory.add("c1", List.of(new UserMessage("你好")));
+        chatMemory.clear("c1");
+        Assertions.assertTrue(chatMemory.get("c1").isEmpty());
+    }
+
+    @Test
+    void keepUnsafeConversationIdsInsideDirectory() {
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(dir.getAbsolutePath());
+        List<String> ids = List.of("../../escape", "c1:summary", "CON", "C1", "c1");
+        for (String id : ids) {
+            chatMemory.add(id, List.of(new UserMessage(id)));
+        }
+        for (String id : ids) {
+            Assertions.assertEquals(List.of(id), chatMemory.get(id).stream().map(Message::getText).toList());
+        }
+        Assertions.assertEquals(ids.stream().sorted().toList(), chatMemory.findConversationIds());
+        Assertions.assertFalse(new File(dir.getParentFile().getParentFile(), "escape.log").exists());
+        Assertions.assertTrue(new File(dir, "c1.log").exists());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> chatMemory.get(""));
+    }
+
+    @Test
+    void concurrentWritersKeepEveryMessageInOrder() throws Exception {
+        // 阈值设得很小，让后台压缩和写入交错进行
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(dir.getAbsolutePath(), false, 8);
+        int writers = 8;
+        int messagesPerWriter = 200;
+        List<Future<?>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(writers + 2)) {
+            for (int w = 0; w < writers; w++) {
+                // 每两个写线程共用一个会话
+                String conversationId = "c" + (w % 4);
+                int writer = w;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < messagesPerWriter; i++) {
+                        chatMemory.add(conversationId, List.of(new UserMessage(writer + ":" + i)));
+                    }
+                }));
+            }
+            for (int r = 0; r < 2; r++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        chatMemory.get("c" + (i % 4));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+
+        for (int c = 0; c < 4; c++) {
+            List<Message> messages = new FileBasedChatMemory(dir.getAbsolutePath()).get("c" + c);
+            Assertions.assertEquals(2 * messagesPerWriter, messages.size());
+            // 同一个写线程的消息保持写入顺序
+            int[] next = new int[writers];
+            for (Message message : messages) {
+                String[] parts = message.getText().split(":");
+                int writer = Integer.parseInt(parts[0]);
+                Assertions.assertEquals(next[writer]++, Integer.parseInt(parts[1]));
+            }
+        }
+    }
+
+    @Test
+    void readLastNFromIndex() {
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(dir.getAbsolutePath(), false, 1000);
+        for (int i = 0; i < 100; i++) {
+            chatMemory.add("c1", List.of(new UserMessage("消息" + i)));
+        }
+        Assertions.assertEquals(List.of("消息97", "消息98", "消息99"),
+                chatMemory.get("c1", 3).stream().map(Message::getText).toList());
+
+        // 压缩后每条记录包含多条消息，窗口跨越记录边界时也只返回最后 N 条
+        chatMemory.compact("c1");
+        chatMemory.add("c1", List.of(new UserMessage("消息100"), new UserMessage("消息101")));
+        List<Message> window = chatMemory.get("c1", 40);
+        Assertions.assertEquals(40, window.size());
+        Assertions.assertEquals("消息62", window.get(0).getText());
+        Assertions.assertEquals("消息101", window.get(39).getText());
+        Assertions.assertEquals(102, chatMemory.get("c1", 1000).size());
+        Assertions.assertTrue(chatMemory.get("unknown", 10).isEmpty());
+    }
+
+    @Test
+    void saveAllAppendsOnlyNewMessages() {
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(dir.getAbsolutePath(), false, 1000);
+        File indexFile = new File(dir, "c1.idx");
+        chatMemory.saveAll("c1", List.of(new UserMessage("问题0"), new AssistantMessage("回答0")));
+        chatMemory.saveAll("c1", List.of(new UserMessage("问题0"), new AssistantMessage("回答0"),
+                new UserMessage("问题1"), new AssistantMessage("回答1")));
+        // 窗口裁掉了最旧的消息，已存储的历史保留，只追加新增的部分
+        chatMemory.saveAll("c1", List.of(new UserMessage("问题1"), new AssistantMessage("回答1"),
+                new UserMessage("问题2"), new AssistantMessage("回答2")));
+        Assertions.assertEquals(36, indexFile.length());
+        Assertions.assertEquals(List.of("问题0", "回答0", "问题1", "回答1", "问题2", "回答2"),
+                new FileBasedChatMemory(dir.getAbsolutePath()).get("c1").stream().map(Message::getText).toList());
+
+        // 与已存储的尾部没有重叠时整体重写
+        chatMemory.saveAll("c1", List.of(new UserMessage("重新开始")));
+        Assertions.assertEquals(12, indexFile.length());
+        Assertions.assertEquals(List.of("重新开始"),
+                new FileBasedChatMemory(dir.getAbsolutePath()).get("c1").stream().map(Message::getText).toList());
+    }
+
+    @Test
+    void findByConversationIdReadsWindow() {
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(dir.getAbsolutePath(), false, 1000, 3);
+        for (int i = 0; i < 10; i++) {
+            chatMemory.add("c1", List.of(new UserMessage("消息" + i)));
+        }
+        Assertions.assertEquals(List.of("消息7", "消息8", "消息9"),
+                chatMemory.findByConversationId("c1").stream().map(Message::getText).toList());
+        Assertions.assertEquals(10, chatMemory.get("c1").size());
+    }
+
+    @Test
+    void rebuildStaleIndex() throws Exception {
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(dir.getAbsolutePath());
+        chatMemory.add("c1", List.of(new UserMessage("第一条")));
+        chatMemory.add("c1", List.of(new UserMessage("第二条")));
+        // 模拟写完日志、写索引之前崩溃：索引少了最后一项
+        File indexFile = new File(dir, "c1.idx");
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+            raf.setLength(raf.length() - 12);
+        }
+
+        FileBasedChatMemory recovered = new FileBasedChatMemory(dir.getAbsolutePath());
+        Assertions.assertEquals(List.of("第二条"), recovered.get("c1", 1).stream().map(Message::getText).toList());
+        Assertions.assertEquals(24, indexFile.length());
+
+        Assertions.assertTrue(indexFile.delete());
+        recovered.add("c1", List.of(new UserMessage("第三条")));
+        Assertions.assertEquals(List.of("第二条", "第三条"),
+                new FileBasedChatMemory(dir.getAbsolutePath()).get("c1", 2).stream().map(Message::getText).toList());
+    }
+}
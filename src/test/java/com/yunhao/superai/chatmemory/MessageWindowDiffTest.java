@@ -0,0 +1,79 @@
+package com.yunhao.superai.chatmemory;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class MessageWindowDiffTest {
+
+    @Test
+    void appendOnlyNewMessages() {
+        List<Message> stored = conversation(0, 6);
+        List<Message> window = new ArrayList<>(stored);
+        window.add(new UserMessage("问题6"));
+        window.add(new AssistantMessage("回答6"));
+        Assertions.assertEquals(List.of("问题6", "回答6"), texts(MessageWindowDiff.newMessages(stored, window)));
+    }
+
+    @Test
+    void windowDroppedOldestMessages() {
+        // 窗口已满，最旧的两条被裁掉
+        List<Message> stored = conversation(0, 10);
+        List<Message> window = new ArrayList<>(stored.subList(2, 10));
+        window.add(new UserMessage("问题10"));
+        window.add(new AssistantMessage("回答10"));
+        Assertions.assertEquals(List.of("问题10", "回答10"), texts(MessageWindowDiff.newMessages(stored, window)));
+    }
+
+    @Test
+    void nothingNewOrNothingStored() {
+        List<Message> stored = conversation(0, 4);
+        Assertions.assertTrue(MessageWindowDiff.newMessages(stored, stored.subList(1, 4)).isEmpty());
+        Assertions.assertEquals(4, MessageWindowDiff.newMessages(List.of(), stored).size());
+    }
+
+    @Test
+    void distinguishMessageTypes() {
+        List<Message> stored = List.of(new UserMessage("好的"));
+        List<Message> window = List.of(new AssistantMessage("好的"));
+        Assertions.assertEquals(1, MessageWindowDiff.newMessages(stored, window).size());
+    }
+
+    @Test
+    void mergeWhenOtherWriterAppended() {
+        // 读取窗口之后其他节点追加了一轮，尾部与窗口没有重叠
+        List<Message> stored = conversation(0, 6);
+        stored.add(new UserMessage("其他节点的问题"));
+        stored.add(new AssistantMessage("其他节点的回答"));
+        List<Message> window = new ArrayList<>(conversation(0, 6));
+        window.add(new UserMessage("问题3"));
+        window.add(new AssistantMessage("回答3"));
+        Assertions.assertTrue(MessageWindowDiff.conflicts(stored, window));
+        Assertions.assertEquals(List.of("问题3", "回答3"), texts(MessageWindowDiff.newMessages(stored, window)));
+
+        // 新消息已经被写入过时不再重复追加
+        stored.addAll(window.subList(6, 8));
+        stored.add(new UserMessage("其他节点的问题"));
+        Assertions.assertTrue(MessageWindowDiff.conflicts(stored, window));
+        Assertions.assertTrue(MessageWindowDiff.newMessages(stored, window).isEmpty());
+        Assertions.assertFalse(MessageWindowDiff.conflicts(stored.subList(0, 6), window));
+    }
+
+    private static List<Message> conversation(int from, int to) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = from; i < to; i += 2) {
+            messages.add(new UserMessage("问题" + i / 2));
+            messages.add(new AssistantMessage("回答" + i / 2));
+        }
+        return messages;
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        return messages.stream().map(Message::getText).toList();
+    }
+}
@@ -0,0 +1,112 @@
+package com.yunhao.superai.chatmemory;
+
+import cn.hutool.core.util.IdUtil;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 需要本地 Redis（默认 localhost:6379，可通过 REDIS_HOST / REDIS_PORT 指定），连接不上时跳过
+ */
+class RedisChatMemoryRepositoryTest {
+
+    private static LettuceConnectionFactory connectionFactory;
+
+    private static StringRedisTemplate redisTemplate;
+
+    // 每次运行使用独立的前缀，互不干扰
+    private final String keyPrefix = "test:chat:memory:" + IdUtil.fastSimpleUUID() + ":";
+
+    @BeforeAll
+    static void connect() {
+        String host = System.getenv().getOrDefault("REDIS_HOST", "localhost");
+        int port = Integer.parseInt(System.getenv().getOrDefault("REDIS_PORT", "6379"));
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(host, port));
+        connectionFactory.afterPropertiesSet();
+        try {
+            connectionFactory.getConnection().ping();
+        } catch (Exception e) {
+            connectionFactory.destroy();
+            Assumptions.abort("Redis 不可用：" + e.getMessage());
+        }
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void disconnect() {
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+    }
+
+    @Test
+    void appendTrimAndRead() {
+        RedisChatMemoryRepository repository = new RedisChatMemoryRepository(redisTemplate, keyPrefix, 4, Duration.ofMinutes(5));
+        List<Message> window = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            window.add(new UserMessage("问题" + i));
+            window.add(new AssistantMessage("回答" + i, Map.of(), List.of(
+                    new AssistantMessage.ToolCall("call_" + i, "function", "searchWeb", "{}"))));
+            // 模拟 MessageWindowChatMemory：每轮保存裁剪后的整个窗口
+            window = new ArrayList<>(window.subList(Math.max(0, window.size() - 4), window.size()));
+            repository.saveAll("c1", window);
+        }
+
+        List<Message> messages = repository.findByConversationId("c1");
+        Assertions.assertEquals(List.of("问题2", "回答2", "问题3", "回答3"), messages.stream().map(Message::getText).toList());
+        Assertions.assertEquals("call_3", ((AssistantMessage) messages.get(3)).getToolCalls().get(0).id());
+        Assertions.assertEquals(List.of("c1"), repository.findConversationIds());
+        Long ttl = redisTemplate.getExpire(keyPrefix + "c1");
+        Assertions.assertTrue(ttl != null && ttl > 0 && ttl <= 300);
+
+        repository.deleteByConversationId("c1");
+        Assertions.assertTrue(repository.findByConversationId("c1").isEmpty());
+        Assertions.assertTrue(repository.findConversationIds().isEmpty());
+    }
+
+    @Test
+    void sharedAcrossInstances() {
+        // 两个实例模拟两个节点
+        RedisChatMemoryRepository node1 = new RedisChatMemoryRepository(redisTemplate, keyPrefix, 20, Duration.ofMinutes(5));
+        RedisChatMemoryRepository node2 = new RedisChatMemoryRepository(redisTemplate, keyPrefix, 20, Duration.ofMinutes(5));
+        node1.saveAll("c2", List.of(new UserMessage("你好")));
+        node2.saveAll("c2", List.of(new UserMessage("你好"), new AssistantMessage("你好，有什么可以帮你")));
+        Assertions.assertEquals(2, node1.findByConversationId("c2").size());
+        node1.deleteByConversationId("c2");
+    }
+
+    @Test
+    void concurrentSavesDoNotDuplicate() throws Exception {
+        RedisChatMemoryRepository repository = new RedisChatMemoryRepository(redisTemplate, keyPrefix, 100, Duration.ofMinutes(5));
+        List<Message> window = List.of(new UserMessage("问题0"), new AssistantMessage("回答0"));
+        // 多个节点同时保存同一个窗口，读取和追加之间的竞争不能写入重复的消息
+        try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> repository.saveAll("c3", window)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        Assertions.assertEquals(List.of("问题0", "回答0"),
+                repository.findByConversationId("c3").stream().map(Message::getText).toList());
+        repository.deleteByConversationId("c3");
+    }
+}
@@ -0,0 +1,169 @@
+package com.yunhao.superai.chatmemory;
+
+import cn.hutool.core.util.IdUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 需要本地 Redis（默认 localhost:6379，可通过 REDIS_HOST / REDIS_PORT 指定），连接不上时跳过
+ */
+class TieredChatMemoryRepositoryTest {
+
+    private static LettuceConnectionFactory connectionFactory;
+
+    private static StringRedisTemplate redisTemplate;
+
+    // 每次运行使用独立的前缀和频道，互不干扰
+    private final String keyPrefix = "test:chat:memory:" + IdUtil.fastSimpleUUID() + ":";
+
+    private final String channel = keyPrefix + "invalidate";
+
+    @BeforeAll
+    static void connect() {
+        String host = System.getenv().getOrDefault("REDIS_HOST", "localhost");
+        int port = Integer.parseInt(System.getenv().getOrDefault("REDIS_PORT", "6379"));
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(host, port));
+        connectionFactory.afterPropertiesSet();
+        try {
+            connectionFactory.getConnection().ping();
+        } catch (Exception e) {
+            connectionFactory.destroy();
+            Assumptions.abort("Redis 不可用：" + e.getMessage());
+        }
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void disconnect() {
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+    }
+
+    @Test
+    void backfillFromL3() throws Exception {
+        InMemoryL3 l3 = new InMemoryL3();
+        l3.saveAll("c1", List.of(new UserMessage("你好"), new AssistantMessage("你好，有什么可以帮你")));
+        RedisChatMemoryRepository l2 = newL2();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        try (TieredChatMemoryRepository repository = newTiered(l2, l3, meterRegistry)) {
+            Assertions.assertEquals(2, repository.findByConversationId("c1").size());
+            // L3 命中后回填了 L2
+            Assertions.assertEquals(2, l2.findByConversationId("c1").size());
+            // 第二次读取命中 L1
+            repository.findByConversationId("c1");
+            Assertions.assertEquals(0.5, meterRegistry.get("chat.memory.tier.hit.ratio").tag("tier", "l1").gauge().value());
+            repository.deleteByConversationId("c1");
+        }
+    }
+
+    @Test
+    void writeL3BehindAndFlushOnClose() throws Exception {
+        InMemoryL3 l3 = new InMemoryL3();
+        RedisChatMemoryRepository l2 = newL2();
+        TieredChatMemoryRepository repository = newTiered(l2, l3, new SimpleMeterRegistry());
+        try {
+            repository.saveAll("c3", List.of(new UserMessage("问题0")));
+            repository.saveAll("c3", List.of(new UserMessage("问题0"), new AssistantMessage("回答0")));
+            // L2 同步写入，L3 等待后台批量写入
+            Assertions.assertEquals(2, l2.findByConversationId("c3").size());
+            Assertions.assertTrue(l3.findByConversationId("c3").isEmpty());
+            Assertions.assertTrue(repository.findConversationIds().contains("c3"));
+            Assertions.assertEquals(0, l3.appends);
+        } finally {
+            repository.close();
+        }
+        // 关闭时两次写入的新增消息在一次追加中写入 L3
+        Assertions.assertEquals(List.of("问题0", "回答0"),
+                l3.findByConversationId("c3").stream().map(Message::getText).toList());
+        Assertions.assertEquals(1, l3.appends);
+        l2.deleteByConversationId("c3");
+    }
+
+    @Test
+    void invalidateOtherNodes() throws Exception {
+        InMemoryL3 l3 = new InMemoryL3();
+        try (TieredChatMemoryRepository node1 = newTiered(newL2(), l3, new SimpleMeterRegistry());
+             TieredChatMemoryRepository node2 = newTiered(newL2(), l3, new SimpleMeterRegistry())) {
+            node1.saveAll("c2", List.of(new UserMessage("问题0")));
+            Assertions.assertEquals(1, node2.findByConversationId("c2").size());
+
+            node1.saveAll("c2", List.of(new UserMessage("问题0"), new AssistantMessage("回答0")));
+            // 失效通知异步到达，等待 node2 的 L1 被淘汰
+            List<Message> messages = node2.findByConversationId("c2");
+            for (int i = 0; i < 50 && messages.size() < 2; i++) {
+                Thread.sleep(100);
+                messages = node2.findByConversationId("c2");
+            }
+            Assertions.assertEquals(List.of("问题0", "回答0"), messages.stream().map(Message::getText).toList());
+            node1.deleteByConversationId("c2");
+        }
+    }
+
+    private RedisChatMemoryRepository newL2() {
+        return new RedisChatMemoryRepository(redisTemplate, keyPrefix, 20, Duration.ofMinutes(5));
+    }
+
+    private TieredChatMemoryRepository newTiered(RedisChatMemoryRepository l2, InMemoryL3 l3,
+                                                 SimpleMeterRegistry meterRegistry) {
+        // 写入间隔足够长，测试期间后台不会写入 L3
+        return new TieredChatMemoryRepository(l2, l3, redisTemplate, connectionFactory, channel, 100,
+                Duration.ofMinutes(5), Duration.ofMinutes(5), 100, meterRegistry);
+    }
+
+    /**
+     * 内存中的 L3，记录批量追加的次数
+     */
+    private static class InMemoryL3 implements AppendableChatMemoryRepository {
+
+        private final InMemoryChatMemoryRepository delegate = new InMemoryChatMemoryRepository();
+
+        private int appends;
+
+        @Override
+        public synchronized void appendAll(Map<String, List<Message>> batches) {
+            appends++;
+            batches.forEach((conversationId, messages) -> {
+                List<Message> stored = new ArrayList<>(delegate.findByConversationId(conversationId));
+                stored.addAll(messages);
+                delegate.saveAll(conversationId, stored);
+            });
+        }
+
+        @Override
+        public List<String> findConversationIds() {
+            return delegate.findConversationIds();
+        }
+
+        @Override
+        public List<Message> findByConversationId(String conversationId) {
+            return delegate.findByConversationId(conversationId);
+        }
+
+        @Override
+        public void saveAll(String conversationId, List<Message> messages) {
+            delegate.saveAll(conversationId, messages);
+        }
+
+        @Override
+        public void deleteByConversationId(String conversationId) {
+            delegate.deleteByConversationId(conversationId);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.yunhao.superai.chatmemory;
+
+import com.yunhao.superai.utils.TokenEstimator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class TokenWindowChatMemoryTest {
+
+    // 每条消息约 4 + 10 = 14 个 token
+    private static final String PADDING = "一二三四五六七八九";
+
+    @Test
+    void trimByTokenBudgetAndSummarizeEveryKTurns() {
+        InMemoryChatMemoryRepository repository = new InMemoryChatMemoryRepository();
+        List<List<Message>> summarized = new ArrayList<>();
+        // 桩摘要器：记录每次收到的消息，摘要为已摘要的轮数
+        ConversationSummarizer summarizer = (previous, messages) -> {
+            summarized.add(messages);
+            int turns = previous == null ? 0 : Integer.parseInt(previous);
+            return String.valueOf(turns + messages.size() / 2);
+        };
+        TokenWindowChatMemory chatMemory = new TokenWindowChatMemory(repository, 100, 100, 2, summarizer, Runnable::run);
+
+        for (int i = 0; i < 10; i++) {
+            chatMemory.add("c1", List.of(new UserMessage(i + PADDING)));
+            chatMemory.add("c1", List.of(new AssistantMessage(i + PADDING)));
+            List<Message> messages = chatMemory.get("c1");
+            int tokens = messages.stream().mapToInt(TokenEstimator::estimate).sum();
+            Assertions.assertTrue(tokens <= 100, "第 " + i + " 轮超出预算: " + tokens);
+            Assertions.assertEquals(i + PADDING, messages.get(messages.size() - 1).getText());
+        }
+
+        // 摘要按增量更新：每次只收到新移出窗口的消息，且至少积累 2 轮
+        Assertions.assertFalse(summarized.isEmpty());
+        Assertions.assertTrue(summarized.size() < 10);
+        for (List<Message> batch : summarized) {
+            Assertions.assertTrue(batch.size() >= 4);
+        }
+        Assertions.assertEquals("0" + PADDING, summarized.get(0).get(0).getText());
+
+        List<Message> messages = chatMemory.get("c1");
+        Assertions.assertInstanceOf(SystemMessage.class, messages.get(0));
+        int summarizedTurns = summarized.stream().mapToInt(batch -> batch.size() / 2).sum();
+        Assertions.assertEquals(TokenWindowChatMemory.SUMMARY_PREFIX + summarizedTurns, messages.get(0).getText());
+        // 存储中的窗口 = 待摘要消息 + 最近的消息，更早摘要过的消息已移除，最近一次摘要的消息在下一次写入时移除
+        int lastBatch = summarized.get(summarized.size() - 1).size();
+        Assertions.assertTrue(repository.findByConversationId("c1").size() <= 20 - summarizedTurns * 2 + lastBatch);
+        for (Message message : messages.subList(1, messages.size())) {
+            Assertions.assertTrue(summarized.stream().flatMap(List::stream).noneMatch(summarizedMessage ->
+                    summarizedMessage.getText().equals(message.getText())
+                            && summarizedMessage.getMessageType() == message.getMessageType()));
+        }
+
+        chatMemory.clear("c1");
+        Assertions.assertTrue(chatMemory.get("c1").isEmpty());
+    }
+
+    @Test
+    void skipSummarizedMessagesInAppendOnlyStore() {
+        AppendOnlyRepository repository = new AppendOnlyRepository(100);
+        List<String> summarizedTexts = new ArrayList<>();
+        List<Integer> batchSizes = new ArrayList<>();
+        TokenWindowChatMemory chatMemory = new TokenWindowChatMemory(repository, 100, 100, 2, (previous, messages) -> {
+            messages.forEach(message -> summarizedTexts.add(message.getMessageType() + message.getText()));
+            batchSizes.add(messages.size());
+            return "摘要" + batchSizes.size();
+        }, Runnable::run);
+        for (int i = 0; i < 10; i++) {
+            chatMemory.add("c5", List.of(new UserMessage(i + PADDING)));
+            chatMemory.add("c5", List.of(new AssistantMessage(i + PADDING)));
+        }
+        // 存储保留了已摘要的消息，但每条消息只摘要一次，也不会每轮都重新摘要
+        Assertions.assertEquals(20, repository.findByConversationId("c5").size());
+        Assertions.assertEquals(summarizedTexts.size(), summarizedTexts.stream().distinct().count());
+        Assertions.assertTrue(batchSizes.size() < 10);
+        for (int size : batchSizes) {
+            Assertions.assertTrue(size >= 4);
+        }
+
+        List<Message> messages = chatMemory.get("c5");
+        Assertions.assertEquals(TokenWindowChatMemory.SUMMARY_PREFIX + "摘要" + batchSizes.size(), messages.get(0).getText());
+        // 已摘要的消息不再返回
+        for (Message message : messages.subList(1, messages.size())) {
+            Assertions.assertFalse(summarizedTexts.contains(message.getMessageType() + message.getText()));
+        }
+        Assertions.assertEquals("9" + PADDING, messages.get(messages.size() - 1).getText());
+    }
+
+    @Test
+    void summarizeWhenMaxMessagesExceeded() {
+        InMemoryChatMemoryRepository repository = new InMemoryChatMemoryRepository();
+        List<Integer> batchSizes = new ArrayList<>();
+        TokenWindowChatMemory chatMemory = new TokenWindowChatMemory(repository, 10000, 6, 100,
+                (previous, messages) -> {
+                    batchSizes.add(messages.size());
+                    return "摘要";
+                }, Runnable::run);
+        for (int i = 0; i < 4; i++) {
+            chatMemory.add("c2", List.of(new UserMessage("问题" + i), new AssistantMessage("回答" + i)));
+        }
+        // 第 4 轮存储达到 8 条，超过 6 条上限，最早的 2 条合并进摘要
+        Assertions.assertEquals(List.of(2), batchSizes);
+        Assertions.assertEquals(6, repository.findByConversationId("c2").size());
+        Assertions.assertEquals(7, chatMemory.get("c2").size());
+    }
+
+    @Test
+    void dropWithoutSummarizer() {
+        InMemoryChatMemoryRepository repository = new InMemoryChatMemoryRepository();
+        TokenWindowChatMemory chatMemory = new TokenWindowChatMemory(repository, 30, 100, 2, null, Runnable::run);
+        for (int i = 0; i < 5; i++) {
+            chatMemory.add("c3", List.of(new UserMessage(i + PADDING)));
+        }
+        List<Message> messages = chatMemory.get("c3");
+        Assertions.assertEquals(List.of("3" + PADDING, "4" + PADDING), messages.stream().map(Message::getText).toList());
+        Assertions.assertEquals(2, repository.findByConversationId("c3").size());
+    }
+
+    @Test
+    void keepPendingWhenSummarizerFails() {
+        InMemoryChatMemoryRepository repository = new InMemoryChatMemoryRepository();
+        TokenWindowChatMemory chatMemory = new TokenWindowChatMemory(repository, 30, 100, 1, (previous, messages) -> {
+            throw new IllegalStateException("模型不可用");
+        }, Runnable::run);
+        for (int i = 0; i < 5; i++) {
+            chatMemory.add("c4", List.of(new UserMessage(i + PADDING)));
+        }
+        // 摘要失败时不丢消息，读取仍受预算限制
+        Assertions.assertEquals(5, repository.findByConversationId("c4").size());
+        Assertions.assertEquals(2, chatMemory.get("c4").size());
+    }
+
+    @Test
+    void summarizeInBackgroundAndKeepPreviousSummary() throws Exception {
+        InMemoryChatMemoryRepository repository = new InMemoryChatMemoryRepository();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        TokenWindowChatMemory chatMemory = new TokenWindowChatMemory(repository, 30, 100, 1, (previous, messages) -> {
+            calls.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "新摘要";
+        }, executor);
+        try {
+            for (int i = 0; i < 5; i++) {
+                // 摘要阻塞时 add 不等待它，同一会话也不会同时发起第二次摘要
+                chatMemory.add("c6", List.of(new UserMessage(i + PADDING)));
+            }
+            Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(1, calls.get());
+            Assertions.assertInstanceOf(UserMessage.class, chatMemory.get("c6").get(0));
+
+            release.countDown();
+            executor.shutdown();
+            Assertions.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+            List<Message> messages = chatMemory.get("c6");
+            Assertions.assertEquals(TokenWindowChatMemory.SUMMARY_PREFIX + "新摘要", messages.get(0).getText());
+            Assertions.assertEquals("4" + PADDING, messages.get(messages.size() - 1).getText());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void summaryKeyFitsSessionIdColumn() {
+        String key = TokenWindowChatMemory.summaryKey("x".repeat(200));
+        Assertions.assertTrue(key.length() <= 50);
+        Assertions.assertNotEquals(key, TokenWindowChatMemory.summaryKey("x".repeat(199)));
+    }
+
+    /**
+     * 模拟数据库和 Redis：saveAll 只追加新增的消息，不删除旧消息，读取时只返回最后 windowSize 条
+     */
+    private static class AppendOnlyRepository implements ChatMemoryRepository {
+
+        private final Map<String, List<Message>> conversations = new HashMap<>();
+
+        private final int windowSize;
+
+        AppendOnlyRepository(int windowSize) {
+            this.windowSize = windowSize;
+        }
+
+        @Override
+        public List<String> findConversationIds() {
+            return new ArrayList<>(conversations.keySet());
+        }
+
+        @Override
+        public List<Message> findByConversationId(String conversationId) {
+            List<Message> messages = conversations.getOrDefault(conversationId, List.of());
+            return new ArrayList<>(messages.subList(Math.max(0, messages.size() - windowSize), messages.size()));
+        }
+
+        @Override
+        public void saveAll(String conversationId, List<Message> messages) {
+            List<Message> stored = conversations.computeIfAbsent(conversationId, id -> new ArrayList<>());
+            stored.addAll(MessageWindowDiff.newMessages(findByConversationId(conversationId), messages));
+        }
+
+        @Override
+        public void deleteByConversationId(String conversationId) {
+            conversations.remove(conversationId);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.yunhao.superai.replay;
+
+import cn.hutool.core.io.FileUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+class RecordReplayChatModelTest {
+
+    private final File file = new File(FileUtil.getTmpDirPath(), "cassette-test-" + System.nanoTime() + ".json");
+
+    @AfterEach
+    void tearDown() {
+        FileUtil.del(file);
+    }
+
+    @Test
+    void recordThenReplayWithoutDelegate() {
+        ChatModel live = new ChatModel() {
+            @Override
+            public ChatResponse call(Prompt prompt) {
+                AssistantMessage.ToolCall toolCall = new AssistantMessage.ToolCall("1", "function", "searchWeb", "{\"query\":\"上海\"}");
+                return new ChatResponse(List.of(new Generation(new AssistantMessage("我来搜索", Map.of(), List.of(toolCall)))));
+            }
+
+            @Override
+            public Flux<ChatResponse> stream(Prompt prompt) {
+                return Flux.just("你", "好").map(text -> new ChatResponse(List.of(new Generation(new AssistantMessage(text)))));
+            }
+        };
+        CassetteStore recorder = new CassetteStore(file, ReplayMode.RECORD, 1.0);
+        RecordReplayChatModel recording = new RecordReplayChatModel(live, recorder);
+        Prompt prompt = new Prompt(new UserMessage("上海有什么好玩的"));
+        recording.call(prompt);
+        recording.stream(prompt).blockLast();
+        recorder.save();
+
+        // 回放时被包装的模型不可用
+        ChatModel offline = new ChatModel() {
+            @Override
+            public ChatResponse call(Prompt prompt) {
+                throw new AssertionError("不应访问网络");
+            }
+        };
+        RecordReplayChatModel replaying = new RecordReplayChatModel(offline, new CassetteStore(file, ReplayMode.REPLAY, 0));
+        ChatResponse response = replaying.call(new Prompt(new UserMessage("上海有什么好玩的")));
+        Assertions.assertEquals("我来搜索", response.getResult().getOutput().getText());
+        Assertions.assertEquals("searchWeb", response.getResult().getOutput().getToolCalls().get(0).name());
+        List<String> chunks = replaying.stream(prompt)
+                .map(chunk -> chunk.getResult().getOutput().getText())
+                .collectList()
+                .block();
+        Assertions.assertEquals(List.of("你", "好"), chunks);
+        Assertions.assertThrows(IllegalStateException.class, () -> replaying.call(new Prompt(new UserMessage("没有录制过"))));
+    }
+
+    @Test
+    void secretParamsAreNotPartOfHttpFingerprint() {
+        String a = RecordReplayToolHttpClient.canonicalize("https://www.searchapi.io/api/v1/search", Map.of("q", "上海", "api_key", "a"));
+        String b = RecordReplayToolHttpClient.canonicalize("https://www.searchapi.io/api/v1/search", Map.of("api_key", "b", "q", "上海"));
+        Assertions.assertEquals(a, b);
+        Assertions.assertFalse(a.contains("api_key"));
+    }
+}
@@ -0,0 +1,104 @@
+package com.yunhao.superai.tools;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.StrUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Duration;
+
+class ArtifactReadToolTest {
+
+    private File dir;
+
+    private ArtifactStore artifactStore;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dir = Files.createTempDirectory("artifact-test").toFile();
+        artifactStore = new ArtifactStore(dir.getAbsolutePath(), Duration.ofHours(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        FileUtil.del(dir);
+    }
+
+    @Test
+    void readLinesAndBytes() throws Exception {
+        String handle = artifactStore.save("scrapeWebPage", "第一行\nsecond line\nthird line\n");
+        ArtifactReadTool tool = new ArtifactReadTool(artifactStore);
+        Assertions.assertEquals("second line\nthird line\n", tool.readArtifactLines(handle, 2, 5));
+        Assertions.assertEquals("second", tool.readArtifactBytes(handle, "第一行\n".getBytes().length, 6));
+        Assertions.assertTrue(tool.readArtifactLines("../secret", 1, 1).startsWith("Error"));
+    }
+
+    @Test
+    void sameContentSameHandle() throws Exception {
+        File otherDir = Files.createTempDirectory("artifact-test").toFile();
+        try {
+            // 录制和回放在不同的目录（不同的机器）中保存同样的结果，得到同样的句柄
+            ArtifactStore otherStore = new ArtifactStore(otherDir.getAbsolutePath(), Duration.ofHours(1));
+            String handle = artifactStore.save("readFile", "同样的内容");
+            Assertions.assertEquals(handle, otherStore.save("readFile", "同样的内容"));
+            Assertions.assertEquals(handle, artifactStore.save("readFile", "同样的内容"));
+            Assertions.assertNotEquals(handle, artifactStore.save("readFile", "不同的内容"));
+        } finally {
+            FileUtil.del(otherDir);
+        }
+    }
+
+    @Test
+    void capLongSingleLine() {
+        // 压缩过的网页只有一行
+        String handle = artifactStore.save("scrapeWebPage", StrUtil.repeat("<div>x</div>", 5000));
+        String result = new ArtifactReadTool(artifactStore).readArtifactLines(handle, 1, 1);
+        Assertions.assertTrue(result.length() < 8200, "length: " + result.length());
+        Assertions.assertTrue(result.contains("Output truncated at 8000 characters"));
+    }
+
+    @Test
+    void deleteExpiredArtifacts() {
+        String old = artifactStore.save("readFile", "old");
+        String fresh = artifactStore.save("readFile", "fresh");
+        Assertions.assertTrue(new File(dir, old + ".txt").setLastModified(System.currentTimeMillis() - Duration.ofHours(2).toMillis()));
+        Assertions.assertEquals(1, artifactStore.deleteExpired());
+        Assertions.assertFalse(new File(dir, old + ".txt").exists());
+        Assertions.assertTrue(new File(dir, fresh + ".txt").exists());
+    }
+
+    @Test
+    void spillLargeResult() {
+        ToolDefinition toolDefinition = ToolDefinition.builder()
+                .name("scrapeWebPage")
+                .description("scrape")
+                .inputSchema("{}")
+                .build();
+        ToolCallback delegate = new ToolCallback() {
+            @Override
+            public ToolDefinition getToolDefinition() {
+                return toolDefinition;
+            }
+
+            @Override
+            public String call(String toolInput) {
+                return toolInput.equals("small") ? "ok" : StrUtil.repeat("<p>content</p>\n", 1000);
+            }
+        };
+        SpillingToolCallback callback = new SpillingToolCallback(delegate, artifactStore, 1000, 100);
+        Assertions.assertEquals("ok", callback.call("small"));
+        String result = callback.call("large");
+        Assertions.assertTrue(result.length() < 400, "length: " + result.length());
+        Assertions.assertTrue(result.contains("artifact 'scrapeWebPage-"));
+        // 去掉句柄后，同样内容的两次溢出结果相同
+        Assertions.assertEquals(SpillingToolCallback.stripArtifactHandles(result),
+                SpillingToolCallback.stripArtifactHandles(callback.call("large")));
+        Assertions.assertFalse(SpillingToolCallback.stripArtifactHandles(result).contains("scrapeWebPage-"));
+    }
+}
@@ -0,0 +1,30 @@
+package com.yunhao.superai.tools;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class ToolResultCacheTest {
+
+    @Test
+    void hitWithReorderedArguments() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ToolResultCache cache = new ToolResultCache(new ToolCacheProperties(), meterRegistry);
+        cache.put("searchWeb", "{\"query\": \"上海 约会\", \"page\": 1}", "result");
+        Assertions.assertEquals("result", cache.get("searchWeb", "{\"page\":1,\"query\":\"上海 约会\"}"));
+        Assertions.assertNull(cache.get("searchWeb", "{\"page\":2,\"query\":\"上海 约会\"}"));
+        Assertions.assertEquals(1.0, meterRegistry.get("tool.cache.requests")
+                .tag("tool", "searchWeb").tag("result", "hit").counter().count());
+        Assertions.assertEquals(1.0, meterRegistry.get("tool.cache.requests")
+                .tag("tool", "searchWeb").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    void sideEffectingToolsAreNotCacheable() {
+        ToolResultCache cache = new ToolResultCache(new ToolCacheProperties(), new SimpleMeterRegistry());
+        Assertions.assertTrue(cache.isCacheable("searchWeb"));
+        Assertions.assertFalse(cache.isCacheable("writeFile"));
+        Assertions.assertFalse(cache.isCacheable("executeTerminalCommand"));
+        Assertions.assertFalse(cache.isCacheable("doTerminate"));
+    }
+}